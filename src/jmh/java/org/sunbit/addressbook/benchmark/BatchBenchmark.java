@@ -0,0 +1,73 @@
+package org.sunbit.addressbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.model.BatchOperation;
+import org.sunbit.addressbook.model.BatchResult;
+import org.sunbit.addressbook.model.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creating {@code batchSize} contacts with one {@link ContactService#applyBatch} call against as
+ * many {@link ContactService#create} calls. Reported per batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private ContactService service;
+    private List<Contact> templates;
+
+    /** Rebuilt every iteration so that the creates do not grow the service without bound. */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        service = SyntheticContacts.service(size, SyntheticContacts.SEED);
+        templates = SyntheticContacts.generate(batchSize, SyntheticContacts.SEED + 1);
+    }
+
+    @Benchmark
+    public List<BatchResult> batch() {
+        List<BatchOperation> operations = new ArrayList<>(batchSize);
+        for (Contact template : templates) {
+            operations.add(new BatchOperation(BatchOperation.Type.CREATE, null, copy(template)));
+        }
+        return service.applyBatch(operations);
+    }
+
+    @Benchmark
+    public List<Contact> singleCalls() {
+        List<Contact> created = new ArrayList<>(batchSize);
+        for (Contact template : templates) {
+            created.add(service.create(copy(template)));
+        }
+        return created;
+    }
+
+    private static Contact copy(Contact template) {
+        return new Contact(null, template.getName(), template.getPhoneNumber());
+    }
+}
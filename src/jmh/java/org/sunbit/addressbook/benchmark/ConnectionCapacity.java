@@ -0,0 +1,158 @@
+package org.sunbit.addressbook.benchmark;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.sunbit.addressbook.AddressbookApplication;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.controller.ContactController;
+import org.sunbit.addressbook.model.Contact;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Load comparison of the servlet and the reactive stack: how well each keeps answering while more
+ * and more connections are held open by clients that are slow to read. Every slow client asks for
+ * the full {@code ?contactPrefix=} response and never reads it, so once the socket buffers are
+ * full the server can only park the response. Meanwhile single-contact reads probe the
+ * latency; a probe that gets no answer within {@link #PROBE_TIMEOUT} counts as a timeout.
+ *
+ * <p>Not a JMH benchmark: it runs the application itself, one stack per JVM so that both get the
+ * same heap, e.g.
+ * <pre>
+ * mvn -Pjmh test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java \
+ *     -Dexec.args="-Xmx512m -classpath %classpath org.sunbit.addressbook.benchmark.ConnectionCapacity reactive"
+ * </pre>
+ * Arguments: the stack ({@code servlet} or {@code reactive}), then optionally the slow client
+ * counts to step through.
+ */
+public final class ConnectionCapacity {
+
+    private static final int CONTACTS = 100_000;
+    private static final int PROBES = 200;
+    private static final int MAX_CONSECUTIVE_TIMEOUTS = 5;
+    private static final Duration PROBE_TIMEOUT = Duration.ofSeconds(1);
+    private static final int[] DEFAULT_SLOW_CLIENTS = {0, 100, 250, 1000};
+
+    private ConnectionCapacity() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String stack = args.length > 0 ? args[0] : "servlet";
+        int[] slowClientSteps = args.length > 1
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : DEFAULT_SLOW_CLIENTS;
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AddressbookApplication.class)
+                .properties(
+                        "spring.main.web-application-type=" + stack,
+                        "server.port=0",
+                        "management.server.port=-1",
+                        "logging.level.root=WARN")
+                .run();
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            ContactService contactService = context.getBean(ContactService.class);
+            List<Contact> contacts = new ArrayList<>();
+            for (Contact contact : SyntheticContacts.generate(CONTACTS, SyntheticContacts.SEED)) {
+                contacts.add(contactService.create(contact));
+            }
+            HttpClient client = HttpClient.newBuilder().connectTimeout(PROBE_TIMEOUT).build();
+            System.out.printf("%-8s %6s %6s %8s %9s %9s %8s %10s %7s%n",
+                    "stack", "slow", "ok", "timeouts", "p50 ms", "p99 ms", "heap MB", "direct MB", "threads");
+
+            List<Socket> slowClients = new ArrayList<>();
+            try {
+                for (int step : slowClientSteps) {
+                    while (slowClients.size() < step) {
+                        slowClients.add(openSlowClient(port));
+                    }
+                    // let the server fill the socket buffers and park the responses
+                    Thread.sleep(2_000);
+                    report(stack, step, probe(client, port, contacts));
+                }
+            } finally {
+                for (Socket socket : slowClients) {
+                    socket.close();
+                }
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static Socket openSlowClient(int port) throws IOException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.connect(new InetSocketAddress("localhost", port));
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + ContactController.PATH + "?contactPrefix= HTTP/1.1\r\n"
+                + "Host: localhost\r\nAccept: application/json\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return socket;
+    }
+
+    /** @return the latencies of the answered probes in nanoseconds, then the number of timeouts last */
+    private static long[] probe(HttpClient client, int port, List<Contact> contacts) throws Exception {
+        long[] latencies = new long[PROBES + 1];
+        int answered = 0;
+        int timeouts = 0;
+        int consecutiveTimeouts = 0;
+        for (int i = 0; i < PROBES && consecutiveTimeouts < MAX_CONSECUTIVE_TIMEOUTS; i++) {
+            long id = contacts.get(i * (contacts.size() / PROBES)).getId();
+            HttpRequest request = HttpRequest.newBuilder(
+                            URI.create("http://localhost:" + port + ContactController.PATH + "/" + id))
+                    .timeout(PROBE_TIMEOUT)
+                    .build();
+            long started = System.nanoTime();
+            try {
+                client.send(request, HttpResponse.BodyHandlers.discarding());
+                latencies[answered++] = System.nanoTime() - started;
+                consecutiveTimeouts = 0;
+            } catch (HttpTimeoutException e) {
+                timeouts++;
+                consecutiveTimeouts++;
+            }
+        }
+        long[] result = Arrays.copyOf(latencies, answered + 1);
+        Arrays.sort(result, 0, answered);
+        result[answered] = timeouts;
+        return result;
+    }
+
+    private static void report(String stack, int slowClients, long[] probe) {
+        int answered = probe.length - 1;
+        System.gc();
+        long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long direct = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                .sum();
+        System.out.printf("%-8s %6d %6d %8d %9s %9s %8d %10d %7d%n",
+                stack, slowClients, answered, probe[answered],
+                percentile(probe, answered, 0.50), percentile(probe, answered, 0.99),
+                heap >> 20, direct >> 20, ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    private static String percentile(long[] sorted, int count, double quantile) {
+        if (count == 0) {
+            return "-";
+        }
+        int index = Math.min(count - 1, (int) Math.ceil(quantile * count) - 1);
+        return String.format("%.2f", sorted[index] / 1e6);
+    }
+}
@@ -0,0 +1,90 @@
+package org.sunbit.addressbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.model.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typo-tolerant lookup through the name trie against the baseline it replaces: computing the edit
+ * distance to every stored name.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FuzzySearchBenchmark {
+
+    private static final String QUERY = "Mraia Gracia";
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1", "2"})
+    public int maxEdits;
+
+    private ContactService service;
+    private List<Contact> contacts;
+
+    @Setup
+    public void setUp() {
+        service = SyntheticContacts.service(size, SyntheticContacts.SEED);
+        contacts = service.readByPrefix("");
+    }
+
+    @Benchmark
+    public List<Contact> trie() {
+        return service.fuzzySearch(QUERY, maxEdits, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<Contact> bruteForce() {
+        List<Contact> matches = new ArrayList<>();
+        for (Contact contact : contacts) {
+            if (distance(QUERY, contact.getName(), maxEdits) <= maxEdits) {
+                matches.add(contact);
+            }
+        }
+        return matches;
+    }
+
+    /** Levenshtein distance, or more than {@code max} once every cell of a row exceeds it. */
+    private static int distance(String a, String b, int max) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return rowMin;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
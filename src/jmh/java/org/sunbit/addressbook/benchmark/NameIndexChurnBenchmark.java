@@ -0,0 +1,76 @@
+package org.sunbit.addressbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ContactPage;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renames through {@link ContactService#update}, which moves the id between name trie keys and
+ * re-indexes its tokens. {@code readsUnderWrites} runs prefix pages on 3 threads while a fourth
+ * keeps renaming, to show that readers walk their trie snapshot without waiting for the writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameIndexChurnBenchmark {
+
+    private static final String[] READ_PREFIXES = {"M", "Maria", "Maria G", "J", "James", "James S"};
+
+    @Param({"100000"})
+    public int size;
+
+    private ContactService service;
+    private Contact[] renames;
+
+    @Setup
+    public void setUp() {
+        service = SyntheticContacts.service(size, SyntheticContacts.SEED);
+        renames = SyntheticContacts.generate(1024, SyntheticContacts.SEED + 1).toArray(new Contact[0]);
+    }
+
+    @Benchmark
+    public Contact update() {
+        return rename();
+    }
+
+    @Benchmark
+    @Group("readsUnderWrites")
+    @GroupThreads(3)
+    public ContactPage read() {
+        String prefix = READ_PREFIXES[ThreadLocalRandom.current().nextInt(READ_PREFIXES.length)];
+        return service.readByPrefix(prefix, null, 20);
+    }
+
+    @Benchmark
+    @Group("readsUnderWrites")
+    @GroupThreads(1)
+    public Contact write() {
+        return rename();
+    }
+
+    private Contact rename() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Contact template = renames[random.nextInt(renames.length)];
+        long id = 1 + random.nextInt(size);
+        return service.update(new Contact(id, template.getName(), template.getPhoneNumber()));
+    }
+}
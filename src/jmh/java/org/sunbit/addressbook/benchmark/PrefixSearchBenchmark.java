@@ -0,0 +1,72 @@
+package org.sunbit.addressbook.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ContactPage;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Name lookups on {@code size} contacts. {@code prefix} sets the selectivity of the prefix reads,
+ * from about 1/8 of the contacts down to a single full name; see {@link SyntheticContacts}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefixSearchBenchmark {
+
+    private static final int PAGE_SIZE = 20;
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"M", "Maria", "Maria G", "Maria Garcia"})
+    public String prefix;
+
+    private ContactService service;
+
+    @Setup
+    public void setUp() {
+        service = SyntheticContacts.service(size, SyntheticContacts.SEED);
+    }
+
+    @Benchmark
+    public List<Contact> readByPrefix() {
+        return service.readByPrefix(prefix);
+    }
+
+    @Benchmark
+    public ContactPage readByPrefixPage() {
+        return service.readByPrefix(prefix, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public long countByPrefix() {
+        return service.countByPrefix(prefix);
+    }
+
+    @Benchmark
+    public List<Contact> autocomplete() {
+        return service.autocomplete(prefix, ContactService.MAX_AUTOCOMPLETE);
+    }
+
+    @Benchmark
+    public List<Contact> searchByTokens() {
+        return service.searchByTokens(prefix, PAGE_SIZE);
+    }
+}
@@ -0,0 +1,91 @@
+package org.sunbit.addressbook.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.model.Contact;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization of {@code count} contacts, as the prefix endpoints return them, in each
+ * {@link WireFormat}, with mappers configured the way Spring MVC configures its own. The payload
+ * size of each format and count is printed once per fork, next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int count;
+
+    @Param({"JSON", "SMILE"})
+    public WireFormat format;
+
+    private ObjectMapper objectMapper;
+    private JavaType listType;
+    private ObjectWriter listWriter;
+    private ObjectReader listReader;
+    private List<Contact> contacts;
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        objectMapper = new WireMappers(Jackson2ObjectMapperBuilder.json().build(), Jackson2ObjectMapperBuilder.json())
+                .get(format);
+        listType = objectMapper.getTypeFactory().constructCollectionType(List.class, Contact.class);
+        listWriter = objectMapper.writerFor(listType);
+        listReader = objectMapper.readerFor(listType);
+        contacts = SyntheticContacts.generate(count, SyntheticContacts.SEED);
+        for (int i = 0; i < contacts.size(); i++) {
+            contacts.get(i).setId(i + 1L);
+        }
+        body = listWriter.writeValueAsBytes(contacts);
+        System.out.printf("%n%s, %d contacts: %d bytes, %.1f per contact%n",
+                format, count, body.length, (double) body.length / count);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(contacts);
+    }
+
+    /** With the list type resolved once instead of on every call. */
+    @Benchmark
+    public byte[] serializeWithTypedWriter() throws JsonProcessingException {
+        return listWriter.writeValueAsBytes(contacts);
+    }
+
+    @Benchmark
+    public List<Contact> deserialize() throws IOException {
+        return objectMapper.readValue(body, objectMapper.getTypeFactory().constructCollectionType(List.class, Contact.class));
+    }
+
+    /** With the list type resolved once, as a client reading many responses would. */
+    @Benchmark
+    public List<Contact> deserializeWithTypedReader() throws IOException {
+        return listReader.readValue(body);
+    }
+}
@@ -0,0 +1,122 @@
+package org.sunbit.addressbook.benchmark;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.storage.ContactRecordCodec;
+import org.sunbit.addressbook.storage.DenseLongMap;
+import org.sunbit.addressbook.storage.EntityStore;
+import org.sunbit.addressbook.storage.OffHeapEntityStore;
+import org.sunbit.addressbook.storage.StorageProperties;
+import org.sunbit.addressbook.storage.TimedEntityStore;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link MyKeyValueStorage} reads and writes on a store of {@code size} contacts, with either
+ * storage mode. The {@code contended} variants run the same operation from 4 threads. With
+ * {@code timed} the store is wrapped in a {@link TimedEntityStore} recording percentile histograms,
+ * as the application does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    private static final int SLAB_BYTES = 64 << 20;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public StorageProperties.Mode mode;
+
+    @Param({"false", "true"})
+    public boolean timed;
+
+    private MyKeyValueStorage<Contact> storage;
+    private Contact[] replacements;
+
+    /** Rebuilt every iteration so that {@link #create} does not grow the store without bound. */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        EntityStore<Contact> store = mode == StorageProperties.Mode.OFF_HEAP
+                ? new OffHeapEntityStore<>(new ContactRecordCodec(), SLAB_BYTES)
+                : new DenseLongMap<>();
+        if (timed) {
+            SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+            meterRegistry.config().meterFilter(new MeterFilter() {
+                @Override
+                public DistributionStatisticConfig configure(
+                        Meter.Id id, DistributionStatisticConfig config) {
+                    return DistributionStatisticConfig.builder().percentilesHistogram(true).build().merge(config);
+                }
+            });
+            store = new TimedEntityStore<>(store, meterRegistry);
+        }
+        storage = new MyKeyValueStorage<>(store);
+        storage.createAll(SyntheticContacts.generate(size, SyntheticContacts.SEED));
+        replacements = SyntheticContacts.generate(1024, SyntheticContacts.SEED + 1).toArray(new Contact[0]);
+    }
+
+    @Benchmark
+    public Contact get() {
+        return storage.getById(randomId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Contact getContended() {
+        return storage.getById(randomId());
+    }
+
+    @Benchmark
+    public Contact create() {
+        Contact template = randomReplacement();
+        return storage.create(new Contact(null, template.getName(), template.getPhoneNumber()));
+    }
+
+    @Benchmark
+    public Contact update() {
+        return update(randomId());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Contact updateContended() {
+        return update(randomId());
+    }
+
+    private Contact update(long id) {
+        Contact template = randomReplacement();
+        return storage.update(id, new Contact(id, template.getName(), template.getPhoneNumber()));
+    }
+
+    private long randomId() {
+        return 1 + ThreadLocalRandom.current().nextInt(size);
+    }
+
+    private Contact randomReplacement() {
+        return replacements[ThreadLocalRandom.current().nextInt(replacements.length)];
+    }
+}
@@ -0,0 +1,110 @@
+package org.sunbit.addressbook.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.cache.PrefixCacheProperties;
+import org.sunbit.addressbook.cache.PrefixResponseCache;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.feed.ChangeFeedProperties;
+import org.sunbit.addressbook.index.IdTrie;
+import org.sunbit.addressbook.index.KeyIndex;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.index.TokenIndex;
+import org.sunbit.addressbook.metrics.ContactMetrics;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.persistence.ContactJournal;
+import org.sunbit.addressbook.persistence.WalProperties;
+
+import javax.validation.Validation;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Reproducible datasets for the benchmarks: the same seed and size always give the same contacts.
+ * Names are "First Last" from {@value #NAMES}x{@value #NAMES} common names, so at any size the
+ * prefixes {@code "M"}, {@code "Maria"}, {@code "Maria G"} and {@code "Maria Garcia"} match
+ * about 1/8, 1/64, 1/1024 and 1/4096 of the contacts.
+ */
+final class SyntheticContacts {
+
+    static final long SEED = 0x5eed;
+    private static final int NAMES = 64;
+
+    private static final String[] FIRST = {
+            "Maria", "James", "John", "Robert", "Michael", "William", "David", "Richard",
+            "Joseph", "Thomas", "Charles", "Mary", "Patricia", "Jennifer", "Linda", "Elizabeth",
+            "Barbara", "Susan", "Jessica", "Sarah", "Karen", "Nancy", "Lisa", "Betty",
+            "Margaret", "Sandra", "Ashley", "Kimberly", "Emily", "Donna", "Michelle", "Dorothy",
+            "Carol", "Amanda", "Melissa", "Deborah", "Daniel", "Matthew", "Anthony", "Mark",
+            "Donald", "Steven", "Paul", "Andrew", "Joshua", "Kenneth", "Kevin", "Brian",
+            "George", "Timothy", "Ronald", "Edward", "Jason", "Jeffrey", "Ryan", "Jacob",
+            "Gary", "Nicholas", "Eric", "Jonathan", "Stephen", "Larry", "Justin", "Scott"};
+
+    private static final String[] LAST = {
+            "Garcia", "Smith", "Johnson", "Williams", "Brown", "Jones", "Miller", "Davis",
+            "Rodriguez", "Martinez", "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas",
+            "Taylor", "Moore", "Jackson", "Martin", "Lee", "Perez", "Thompson", "White",
+            "Harris", "Sanchez", "Clark", "Ramirez", "Lewis", "Robinson", "Walker", "Young",
+            "Allen", "King", "Wright", "Scott", "Torres", "Nguyen", "Hill", "Flores",
+            "Green", "Adams", "Nelson", "Baker", "Hall", "Rivera", "Campbell", "Mitchell",
+            "Carter", "Roberts", "Gomez", "Phillips", "Evans", "Turner", "Diaz", "Parker",
+            "Cruz", "Edwards", "Collins", "Reyes", "Stewart", "Morris", "Morales", "Murphy"};
+
+    private SyntheticContacts() {
+    }
+
+    /** @return {@code count} new contacts without ids */
+    static List<Contact> generate(int count, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Contact> contacts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            contacts.add(next(random));
+        }
+        return contacts;
+    }
+
+    static Contact next(SplittableRandom random) {
+        String name = FIRST[random.nextInt(NAMES)] + " " + LAST[random.nextInt(NAMES)];
+        String phoneNumber = String.format("+1 555 %03d %04d", random.nextInt(1000), random.nextInt(10_000));
+        return new Contact(null, name, phoneNumber);
+    }
+
+    /**
+     * @return a service wired like the application's, without the journal and the response cache,
+     *     holding {@code count} generated contacts
+     */
+    static ContactService service(int count, long seed) {
+        IdTrie names = new IdTrie(ContactService.MAX_AUTOCOMPLETE);
+        PhoneIndex phones = new PhoneIndex();
+        TokenIndex tokens = new TokenIndex();
+        MyKeyValueStorage<Contact> storage = new MyKeyValueStorage<>();
+        storage.addIndex(new KeyIndex<>("name", KeyIndex.singleKey(Contact::getName), names));
+        storage.addIndex(new KeyIndex<>("phone", KeyIndex.singleKey(Contact::getPhoneNumber), phones));
+        storage.addIndex(new KeyIndex<>("token", KeyIndex.singleKey(Contact::getName), tokens));
+        PrefixCacheProperties cacheProperties = new PrefixCacheProperties();
+        cacheProperties.setEnabled(false);
+        ContactService service = new ContactService(
+                names,
+                phones,
+                tokens,
+                storage,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                new ContactJournal(new WalProperties(), storage),
+                new PrefixResponseCache(
+                        new WireMappers(new ObjectMapper(), new Jackson2ObjectMapperBuilder()),
+                        cacheProperties,
+                        new SimpleMeterRegistry()),
+                new ContactMetrics(new SimpleMeterRegistry()),
+                new ChangeFeed(new ChangeFeedProperties()));
+        // fill the storage, then bulk-load the indexes, the way recovery does
+        List<Contact> contacts = generate(count, seed);
+        storage.createAllUnindexed(contacts);
+        storage.indexAll(contacts);
+        return service;
+    }
+}
@@ -2,10 +2,10 @@ package org.sunbit.addressbook;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import springfox.documentation.swagger2.annotations.EnableSwagger2;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
-@EnableSwagger2
+@ConfigurationPropertiesScan
 public class AddressbookApplication {
 
     public static void main(String[] args) {
@@ -1,31 +1,76 @@
 package org.sunbit.addressbook;
 
-import com.github.veqryn.collect.PatriciaTrie;
-import com.github.veqryn.collect.Trie;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.sunbit.addressbook.cluster.ShardMap;
+import org.sunbit.addressbook.index.IdTrie;
+import org.sunbit.addressbook.index.KeyIndex;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.index.SecondaryIndex;
+import org.sunbit.addressbook.index.TokenIndex;
 import org.sunbit.addressbook.model.Contact;
-import springfox.documentation.builders.PathSelectors;
-import springfox.documentation.builders.RequestHandlerSelectors;
-import springfox.documentation.spi.DocumentationType;
-import springfox.documentation.spring.web.plugins.Docket;
+import org.sunbit.addressbook.storage.ContactRecordCodec;
+import org.sunbit.addressbook.storage.DenseLongMap;
+import org.sunbit.addressbook.storage.EntityStore;
+import org.sunbit.addressbook.storage.OffHeapEntityStore;
+import org.sunbit.addressbook.storage.StorageProperties;
+import org.sunbit.addressbook.storage.TimedEntityStore;
 
-import java.util.Map;
+import java.util.List;
 
 @Configuration
 public class AppConfig {
 
     @Bean
-    public Trie<String, Map<Long, Contact>> contactTireByName() {
-        return new PatriciaTrie<>();
+    public IdTrie contactTireByName() {
+        return new IdTrie(ContactService.MAX_AUTOCOMPLETE);
     }
 
     @Bean
-    public Docket api() {
-        return new Docket(DocumentationType.SWAGGER_2)
-                .select()
-                .apis(RequestHandlerSelectors.any())
-                .paths(PathSelectors.any())
-                .build();
+    public PhoneIndex phoneIndex() {
+        return new PhoneIndex();
+    }
+
+    @Bean
+    public TokenIndex tokenIndex() {
+        return new TokenIndex();
+    }
+
+    @Bean
+    public SecondaryIndex<Contact> contactNameIndex(IdTrie contactTireByName) {
+        return new KeyIndex<>("name", KeyIndex.singleKey(Contact::getName), contactTireByName);
+    }
+
+    @Bean
+    public SecondaryIndex<Contact> contactPhoneIndex(PhoneIndex phoneIndex) {
+        return new KeyIndex<>("phone", KeyIndex.singleKey(Contact::getPhoneNumber), phoneIndex);
+    }
+
+    @Bean
+    public SecondaryIndex<Contact> contactTokenIndex(TokenIndex tokenIndex) {
+        return new KeyIndex<>("token", KeyIndex.singleKey(Contact::getName), tokenIndex);
+    }
+
+    /** @param indexes every contact index bean, kept up to date by the storage's writes */
+    @Bean
+    public MyKeyValueStorage<Contact> myKeyValueStorage(
+            StorageProperties properties,
+            MeterRegistry meterRegistry,
+            ShardMap shardMap,
+            List<SecondaryIndex<Contact>> indexes) {
+        EntityStore<Contact> store;
+        if (properties.getMode() == StorageProperties.Mode.OFF_HEAP) {
+            int slabBytes = Math.toIntExact(properties.getSlabSize().toBytes());
+            store = new OffHeapEntityStore<>(new ContactRecordCodec(), slabBytes);
+        } else {
+            store = new DenseLongMap<>();
+        }
+        store = new TimedEntityStore<>(store, meterRegistry);
+        MyKeyValueStorage<Contact> storage = shardMap.isEnabled()
+                ? new MyKeyValueStorage<>(store, shardMap::ownsIdBlock)
+                : new MyKeyValueStorage<>(store);
+        indexes.forEach(storage::addIndex);
+        return storage;
     }
 }
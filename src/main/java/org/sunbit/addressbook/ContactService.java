@@ -1,73 +1,590 @@
 package org.sunbit.addressbook;
 
-import com.github.veqryn.collect.Trie;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
-import org.springframework.util.CollectionUtils;
+import org.sunbit.addressbook.cache.PrefixResponseCache;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.exception.ResourceNotFoundException;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.index.IdTrie;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.index.TokenIndex;
+import org.sunbit.addressbook.metrics.ContactMetrics;
+import org.sunbit.addressbook.model.BatchOperation;
+import org.sunbit.addressbook.model.BatchResult;
 import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ContactPage;
+import org.sunbit.addressbook.model.SearchCursor;
+import org.sunbit.addressbook.persistence.ContactJournal;
+import org.sunbit.addressbook.persistence.WalRecord;
+import org.sunbit.addressbook.validator.CreateGroup;
+import org.sunbit.addressbook.validator.UpdateGroup;
 
-import java.util.HashMap;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 @Log4j2
 public class ContactService {
 
-    private final Trie<String, Map<Long, Contact>> contactTireByName;
+    /** The most results an autocomplete may ask for; the name index caches this many ids per node. */
+    public static final int MAX_AUTOCOMPLETE = 10;
+    /** Contacts a {@link BulkLoad} stores before it merges them into the indexes in one pass. */
+    static final int BULK_INDEX_PASS = 1 << 18;
+
+    private final IdTrie contactTireByName;
+    private final PhoneIndex phoneIndex;
+    private final TokenIndex tokenIndex;
     private final MyKeyValueStorage<Contact> myKeyValueStorage;
+    private final Validator validator;
+    private final ContactJournal contactJournal;
+    private final PrefixResponseCache prefixResponseCache;
+    private final ContactMetrics contactMetrics;
+    private final ChangeFeed changeFeed;
 
     public ContactService(
-            Trie<String, Map<Long, Contact>> contactTireByName, MyKeyValueStorage myKeyValueStorage) {
+            IdTrie contactTireByName,
+            PhoneIndex phoneIndex,
+            TokenIndex tokenIndex,
+            MyKeyValueStorage myKeyValueStorage,
+            Validator validator,
+            ContactJournal contactJournal,
+            PrefixResponseCache prefixResponseCache,
+            ContactMetrics contactMetrics,
+            ChangeFeed changeFeed) {
         this.contactTireByName = contactTireByName;
+        this.phoneIndex = phoneIndex;
+        this.tokenIndex = tokenIndex;
         this.myKeyValueStorage = myKeyValueStorage;
+        this.validator = validator;
+        this.contactJournal = contactJournal;
+        this.prefixResponseCache = prefixResponseCache;
+        this.contactMetrics = contactMetrics;
+        this.changeFeed = changeFeed;
     }
 
+    /**
+     * Stores a new contact under the next id. Like {@link #update(Contact, Long)} it holds the
+     * contact's write lock until its journal record and feed event are out: a write to the new id
+     * may arrive as soon as it is stored, and must reach them after the create.
+     */
     public Contact create(Contact contact) {
-        Contact createdContact = myKeyValueStorage.create(contact);
-        addContactToTire(createdContact);
-        return createdContact;
+        long started = System.nanoTime();
+        long id = myKeyValueStorage.newId();
+        ReentrantLock writeLock = myKeyValueStorage.writeLock(id);
+        writeLock.lock();
+        try {
+            Contact createdContact = myKeyValueStorage.create(id, contact);
+            prefixResponseCache.invalidateName(createdContact.getName());
+            contactJournal.logPut(createdContact);
+            changeFeed.publishPut(createdContact);
+            return createdContact;
+        } finally {
+            writeLock.unlock();
+            contactMetrics.record(ContactMetrics.Operation.CREATE, started);
+        }
     }
 
     public Contact update(Contact contact) {
-        Contact oldContact = myKeyValueStorage.getById(contact.getId());
-        removeContactFromTire(oldContact);
-        myKeyValueStorage.update(contact.getId(), contact);
-        addContactToTire(contact);
-        return contact;
+        return update(contact, null);
+    }
+
+    /**
+     * Replaces the contact if it is at {@code expectedVersion}, or at any version when that is
+     * null; the contact gets the next version. The contact's storage write lock is held until its
+     * journal record and feed event are out, so racing writes reach them in the order they reached
+     * memory.
+     *
+     * @throws org.sunbit.addressbook.exception.VersionConflictException if it is at another version
+     */
+    public Contact update(Contact contact, Long expectedVersion) {
+        long started = System.nanoTime();
+        ReentrantLock writeLock = myKeyValueStorage.writeLock(contact.getId());
+        writeLock.lock();
+        try {
+            Contact oldContact = myKeyValueStorage.update(contact.getId(), contact, expectedVersion);
+            prefixResponseCache.invalidateName(oldContact.getName());
+            prefixResponseCache.invalidateName(contact.getName());
+            contactJournal.logPut(contact);
+            changeFeed.publishPut(contact);
+            return contact;
+        } finally {
+            writeLock.unlock();
+            contactMetrics.record(ContactMetrics.Operation.UPDATE, started);
+        }
+    }
+
+    /**
+     * Applies a batch of operations. Every item is validated up front with the same groups as the
+     * single endpoints, all creates get their ids from one reserved block, and the index changes
+     * are applied in one {@link MyKeyValueStorage.Batch}. Items fail independently. The write locks
+     * of all created, updated and removed contacts are held for the whole batch.
+     */
+    public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        long started = System.nanoTime();
+        List<ReentrantLock> locks = new ArrayList<>();
+        try {
+            BatchResult[] results = new BatchResult[operations.size()];
+            List<Contact> creates = new ArrayList<>();
+            List<Integer> createIndexes = new ArrayList<>();
+            for (int i = 0; i < operations.size(); i++) {
+                BatchOperation operation = operations.get(i);
+                String error = validate(operation);
+                if (error != null) {
+                    results[i] = BatchResult.builder().index(i).status(HttpStatus.BAD_REQUEST.value()).error(error).build();
+                } else if (operation.getType() == BatchOperation.Type.CREATE) {
+                    creates.add(operation.getContact());
+                    createIndexes.add(i);
+                }
+            }
+            long[] createIds = myKeyValueStorage.newIds(creates.size());
+            locks = writeLocks(operations, results, createIds);
+            locks.forEach(ReentrantLock::lock);
+
+            MyKeyValueStorage<Contact>.Batch changes = myKeyValueStorage.batch();
+            List<WalRecord> records = new ArrayList<>(operations.size());
+            Set<String> touchedNames = new HashSet<>();
+            changes.createAll(createIds, creates);
+            for (int k = 0; k < creates.size(); k++) {
+                Contact created = creates.get(k);
+                touchedNames.add(created.getName());
+                records.add(WalRecord.put(created));
+                results[createIndexes.get(k)] = result(createIndexes.get(k), HttpStatus.CREATED, created);
+            }
+            for (int i = 0; i < operations.size(); i++) {
+                BatchOperation operation = operations.get(i);
+                if (results[i] != null) {
+                    continue;
+                }
+                if (operation.getType() == BatchOperation.Type.UPDATE) {
+                    Contact contact = operation.getContact();
+                    Contact oldContact = changes.update(contact.getId(), contact);
+                    if (oldContact == null) {
+                        results[i] = notFound(i, contact.getId());
+                        continue;
+                    }
+                    touchedNames.add(oldContact.getName());
+                    touchedNames.add(contact.getName());
+                    records.add(WalRecord.put(contact));
+                    results[i] = result(i, HttpStatus.OK, contact);
+                } else {
+                    Contact oldContact = changes.removeById(operation.getId());
+                    if (oldContact == null) {
+                        results[i] = notFound(i, operation.getId());
+                        continue;
+                    }
+                    touchedNames.add(oldContact.getName());
+                    records.add(WalRecord.remove(operation.getId()));
+                    results[i] = result(i, HttpStatus.NO_CONTENT, null);
+                }
+            }
+            changes.apply();
+            touchedNames.forEach(prefixResponseCache::invalidateName);
+            contactJournal.logAll(records);
+            for (WalRecord record : records) {
+                if (record.getOp() == WalRecord.Op.PUT) {
+                    changeFeed.publishPut(record.getContact());
+                } else {
+                    changeFeed.publishRemove(record.getId());
+                }
+            }
+            return Arrays.asList(results);
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+            contactMetrics.record(ContactMetrics.Operation.BATCH, started);
+        }
+    }
+
+    /**
+     * Starts loading contacts in bulk, e.g. for an import. Call {@link BulkLoad#finish()} when done,
+     * also after a failure, or the contacts stored so far stay out of the indexes.
+     */
+    public BulkLoad bulkLoad() {
+        return new BulkLoad();
     }
 
     public Contact get(long contactId) {
-        return myKeyValueStorage.getById(contactId);
+        long started = System.nanoTime();
+        try {
+            return myKeyValueStorage.getById(contactId);
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.GET, started);
+        }
     }
 
     public void remove(Long id) {
-        Contact contactById = myKeyValueStorage.getById(id);
-        removeContactFromTire(contactById);
-        myKeyValueStorage.removeById(id);
+        remove(id, null);
     }
 
-    private void removeContactFromTire(Contact contact) {
-        Map<Long, Contact> contactsMap = contactTireByName.get(contact.getName());
-        contactsMap.remove(contact.getId(), contact);
-        if (CollectionUtils.isEmpty(contactsMap)) {
-            contactTireByName.remove(contact.getName());
+    /**
+     * Removes the contact if it is at {@code expectedVersion}, or at any version when that is null.
+     *
+     * @throws org.sunbit.addressbook.exception.VersionConflictException if it is at another version
+     */
+    public void remove(Long id, Long expectedVersion) {
+        long started = System.nanoTime();
+        ReentrantLock writeLock = myKeyValueStorage.writeLock(id);
+        writeLock.lock();
+        try {
+            Contact contactById = myKeyValueStorage.removeById(id, expectedVersion);
+            if (contactById == null) {
+                throw new ResourceNotFoundException("contact id " + id);
+            }
+            prefixResponseCache.invalidateName(contactById.getName());
+            contactJournal.logRemove(id);
+            changeFeed.publishRemove(id);
+        } finally {
+            writeLock.unlock();
+            contactMetrics.record(ContactMetrics.Operation.REMOVE, started);
         }
     }
 
     public List<Contact> readByPrefix(String prefix) {
-        return contactTireByName.prefixedByValues(prefix, true).stream()
-                .flatMap((coll) -> coll.values().stream())
-                .collect(Collectors.toList());
+        long started = System.nanoTime();
+        try {
+            List<Contact> contacts = new ArrayList<>();
+            scanByPrefix(prefix, null, Integer.MAX_VALUE, contacts::add);
+            contactMetrics.recordPrefixResults(contacts.size());
+            return contacts;
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.READ_BY_PREFIX, started);
+        }
+    }
+
+    /** @return how many contacts have a name starting with {@code prefix}, in O(prefix length) */
+    public long countByPrefix(String prefix) {
+        long started = System.nanoTime();
+        try {
+            return contactTireByName.count(prefix);
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.COUNT_BY_PREFIX, started);
+        }
+    }
+
+    /** {@link #readByPrefix(String)} as a ready-to-send {@code format} array, from the response cache. */
+    public byte[] readByPrefixBody(String prefix, WireFormat format) {
+        long started = System.nanoTime();
+        try {
+            return prefixResponseCache.get(prefix, format, this::readByPrefix);
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.READ_BY_PREFIX_JSON, started);
+        }
+    }
+
+    /**
+     * Reads at most {@code limit} contacts whose name starts with {@code prefix}, resuming after
+     * {@code cursor} when given. The trie walk starts at the cursor and stops once the page is
+     * full, so a page costs O(limit) regardless of how many contacts match.
+     */
+    public ContactPage readByPrefix(String prefix, SearchCursor cursor, int limit) {
+        long started = System.nanoTime();
+        try {
+            List<Contact> contacts = new ArrayList<>(Math.min(limit, 1024));
+            SearchCursor next = scanByPrefix(prefix, cursor, limit, contacts::add);
+            contactMetrics.recordPrefixResults(contacts.size());
+            return new ContactPage(contacts, next);
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.READ_BY_PREFIX_PAGE, started);
+        }
+    }
+
+    /**
+     * Hands every contact whose name starts with {@code prefix} to {@code consumer} while walking
+     * a snapshot of the name index, without collecting them first.
+     */
+    public void forEachByPrefix(String prefix, Consumer<Contact> consumer) {
+        scanByPrefix(prefix, null, Integer.MAX_VALUE, consumer);
+    }
+
+    /** Hands every stored contact to {@code consumer} in id order, straight from the storage. */
+    public void forEach(Consumer<Contact> consumer) {
+        myKeyValueStorage.forEach((id, contact) -> consumer.accept(contact));
+    }
+
+    /**
+     * Returns up to {@code k} contacts whose name starts with {@code prefix}, most recently
+     * created first. Served from the name index's per-node top ids, so a keystroke costs
+     * O(prefix length + k) regardless of how many contacts match.
+     */
+    public List<Contact> autocomplete(String prefix, int k) {
+        long started = System.nanoTime();
+        try {
+            List<Contact> contacts = new ArrayList<>(k);
+            for (long id : contactTireByName.topIds(prefix, k)) {
+                Contact contact = myKeyValueStorage.findById(id);
+                // the trie snapshot may be slightly behind a concurrent update or remove
+                if (contact != null && contact.getName().startsWith(prefix)) {
+                    contacts.add(contact);
+                }
+            }
+            return contacts;
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.AUTOCOMPLETE, started);
+        }
+    }
+
+    /**
+     * Reads at most {@code limit} contacts whose name is within {@code maxEdits} insertions,
+     * deletions or substitutions of {@code name}, closest first and then by name and id.
+     */
+    public List<Contact> fuzzySearch(String name, int maxEdits, int limit) {
+        long started = System.nanoTime();
+        try {
+            List<List<Contact>> byDistance = new ArrayList<>();
+            for (int distance = 0; distance <= maxEdits; distance++) {
+                byDistance.add(new ArrayList<>());
+            }
+            contactTireByName.forEachWithinDistance(name, maxEdits, (key, distance, ids) -> {
+                for (long id : ids) {
+                    Contact contact = myKeyValueStorage.findById(id);
+                    // the trie snapshot may be slightly behind a concurrent update or remove
+                    if (contact != null && contact.getName().contentEquals(key)) {
+                        byDistance.get(distance).add(contact);
+                    }
+                }
+                // keys arrive in name order, so once the exact matches alone fill the page nothing can beat them
+                return byDistance.get(0).size() < limit;
+            });
+            List<Contact> contacts = new ArrayList<>();
+            for (List<Contact> matches : byDistance) {
+                for (Contact contact : matches) {
+                    if (contacts.size() == limit) {
+                        return contacts;
+                    }
+                    contacts.add(contact);
+                }
+            }
+            return contacts;
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.FUZZY_SEARCH, started);
+        }
+    }
+
+    /**
+     * Reads at most {@code limit} contacts, in id order, whose name has a word starting with each
+     * word of {@code query}, ignoring case and accents: {@code "jo smi"} finds "John Smith".
+     */
+    public List<Contact> searchByTokens(String query, int limit) {
+        long started = System.nanoTime();
+        try {
+            Set<String> queryTokens = TokenIndex.tokens(query);
+            List<Contact> contacts = new ArrayList<>();
+            for (long id : tokenIndex.search(queryTokens)) {
+                if (contacts.size() == limit) {
+                    break;
+                }
+                Contact contact = myKeyValueStorage.findById(id);
+                // the index snapshot may be slightly behind a concurrent update or remove
+                if (contact != null && TokenIndex.matches(TokenIndex.tokens(contact.getName()), queryTokens)) {
+                    contacts.add(contact);
+                }
+            }
+            return contacts;
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.SEARCH_BY_TOKENS, started);
+        }
+    }
+
+    /**
+     * Reads at most {@code limit} contacts whose phone number has the same digits as
+     * {@code phoneNumber} or, with {@code prefix}, starts with them; ordered by number, then id.
+     */
+    public List<Contact> readByPhone(String phoneNumber, boolean prefix, int limit) {
+        long started = System.nanoTime();
+        try {
+            List<Contact> contacts = new ArrayList<>();
+            String digits = PhoneIndex.normalize(phoneNumber);
+            if (digits == null) {
+                return contacts;
+            }
+            if (!prefix) {
+                collectByPhone(digits, phoneIndex.get(digits), limit, contacts);
+                return contacts;
+            }
+            phoneIndex.forEachPrefixedBy(digits, (key, ids) -> collectByPhone(key, ids, limit, contacts));
+            return contacts;
+        } finally {
+            contactMetrics.record(ContactMetrics.Operation.READ_BY_PHONE, started);
+        }
     }
 
-    private void addContactToTire(Contact contact) {
-        Map<Long, Contact> contactsMap = contactTireByName.get(contact.getName());
-        if (CollectionUtils.isEmpty(contactsMap)) {
-            contactsMap = new HashMap<>();
-            contactTireByName.put(contact.getName(), contactsMap);
+    /** @return whether {@code contacts} still has room */
+    private boolean collectByPhone(CharSequence digits, long[] ids, int limit, List<Contact> contacts) {
+        for (long id : ids) {
+            if (contacts.size() == limit) {
+                return false;
+            }
+            Contact contact = myKeyValueStorage.findById(id);
+            // the index snapshot may be slightly behind a concurrent update or remove
+            if (contact != null && digits.toString().equals(PhoneIndex.normalize(contact.getPhoneNumber()))) {
+                contacts.add(contact);
+            }
         }
-        contactsMap.put(contact.getId(), contact);
+        return contacts.size() < limit;
+    }
+
+    /** @return the position of the last consumed contact if more matches follow it, else null */
+    private SearchCursor scanByPrefix(
+            String prefix, SearchCursor cursor, int limit, Consumer<Contact> consumer) {
+        String fromName = cursor == null ? null : cursor.getName();
+        long afterId = cursor == null ? Long.MIN_VALUE : cursor.getId();
+        Contact[] last = new Contact[1];
+        int[] count = {0};
+        SearchCursor[] next = new SearchCursor[1];
+        contactTireByName.forEachPrefixedBy(prefix, fromName, (name, ids) -> {
+            boolean cursorKey = fromName != null && fromName.contentEquals(name);
+            for (long id : ids) {
+                if (cursorKey && id <= afterId) {
+                    continue;
+                }
+                if (count[0] == limit) {
+                    next[0] = new SearchCursor(last[0].getName(), last[0].getId());
+                    return false;
+                }
+                Contact contact = myKeyValueStorage.findById(id);
+                // the trie snapshot may be slightly behind a concurrent update or remove
+                if (contact != null && contact.getName().contentEquals(name)) {
+                    consumer.accept(contact);
+                    last[0] = contact;
+                    count[0]++;
+                }
+            }
+            return true;
+        });
+        return next[0];
+    }
+
+    /**
+     * Loads valid contacts chunk by chunk. Each chunk is stored with ids from reserved blocks,
+     * journaled in one append and published to the change feed right away, so it is readable by id
+     * at once. The indexes are built in passes of {@value #BULK_INDEX_PASS} contacts instead, through
+     * {@link MyKeyValueStorage#indexAll}: each index merges a pass at once, e.g. the tries touch
+     * every shared node once rather than once per contact. Until its pass a contact is not found by
+     * the searches. Not thread-safe; one import uses one session.
+     */
+    public final class BulkLoad {
+
+        private final List<Contact> pending = new ArrayList<>();
+        private long loaded;
+
+        private BulkLoad() {
+        }
+
+        /**
+         * Stores {@code contacts}, which must be valid for creation, and gives them their ids. Their
+         * write locks are held until their journal records and feed events are out.
+         */
+        public void addAll(List<Contact> contacts) {
+            long started = System.nanoTime();
+            try {
+                long[] ids = myKeyValueStorage.newIds(contacts.size());
+                List<ReentrantLock> locks = myKeyValueStorage.writeLocks(ids);
+                locks.forEach(ReentrantLock::lock);
+                try {
+                    myKeyValueStorage.createAllUnindexed(ids, contacts);
+                    List<WalRecord> records = new ArrayList<>(contacts.size());
+                    for (Contact contact : contacts) {
+                        records.add(WalRecord.put(contact));
+                    }
+                    contactJournal.logAll(records);
+                    contacts.forEach(changeFeed::publishPut);
+                } finally {
+                    locks.forEach(ReentrantLock::unlock);
+                }
+                pending.addAll(contacts);
+                loaded += contacts.size();
+                if (pending.size() >= BULK_INDEX_PASS) {
+                    index();
+                }
+            } finally {
+                contactMetrics.record(ContactMetrics.Operation.BULK_LOAD, started);
+            }
+        }
+
+        /**
+         * Indexes the contacts stored since the last pass.
+         *
+         * @return how many contacts this session loaded
+         */
+        public long finish() {
+            long started = System.nanoTime();
+            try {
+                index();
+                return loaded;
+            } finally {
+                contactMetrics.record(ContactMetrics.Operation.BULK_LOAD, started);
+            }
+        }
+
+        private void index() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            myKeyValueStorage.indexAll(pending);
+            pending.clear();
+            prefixResponseCache.invalidateAll();
+        }
+    }
+
+    /** @return the write locks of the creates and valid updates and removes, in stripe order so batches never deadlock */
+    private List<ReentrantLock> writeLocks(List<BatchOperation> operations, BatchResult[] results, long[] createIds) {
+        long[] ids = Arrays.copyOf(createIds, createIds.length + operations.size());
+        int count = createIds.length;
+        for (int i = 0; i < operations.size(); i++) {
+            BatchOperation operation = operations.get(i);
+            if (results[i] == null && operation.getType() != BatchOperation.Type.CREATE) {
+                ids[count++] = operation.getType() == BatchOperation.Type.UPDATE
+                        ? operation.getContact().getId()
+                        : operation.getId();
+            }
+        }
+        return myKeyValueStorage.writeLocks(Arrays.copyOf(ids, count));
+    }
+
+    private String validate(BatchOperation operation) {
+        if (operation.getType() == null) {
+            return "type must not be null";
+        }
+        switch (operation.getType()) {
+            case CREATE:
+                return violations(operation.getContact(), CreateGroup.class);
+            case UPDATE:
+                if (operation.getContact() != null
+                        && operation.getId() != null
+                        && !operation.getId().equals(operation.getContact().getId())) {
+                    return "id does not match contact id";
+                }
+                return violations(operation.getContact(), UpdateGroup.class);
+            default:
+                return operation.getId() == null ? "id should not be empty" : null;
+        }
+    }
+
+    private String violations(Contact contact, Class<?> group) {
+        if (contact == null) {
+            return "contact must not be null";
+        }
+        Set<ConstraintViolation<Contact>> violations = validator.validate(contact, group);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining(", "));
+    }
+
+    private static BatchResult result(int index, HttpStatus status, Contact contact) {
+        return BatchResult.builder().index(index).status(status.value()).contact(contact).build();
+    }
+
+    private static BatchResult notFound(int index, long id) {
+        return BatchResult.builder().index(index).status(HttpStatus.NOT_FOUND.value()).error("contact id " + id).build();
     }
 }
@@ -1,38 +1,459 @@
 package org.sunbit.addressbook;
 
-import org.springframework.stereotype.Component;
 import org.sunbit.addressbook.exception.ResourceNotFoundException;
+import org.sunbit.addressbook.exception.VersionConflictException;
+import org.sunbit.addressbook.index.SecondaryIndex;
 import org.sunbit.addressbook.model.BaseEntity;
+import org.sunbit.addressbook.storage.DenseLongMap;
+import org.sunbit.addressbook.storage.EntityStore;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Optional;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
 
-@Component
+/**
+ * In-memory entity storage shared by all request threads.
+ * Ids are dense, so entities are kept in an {@link EntityStore} indexed directly by id: by default a
+ * {@link DenseLongMap}, whose reads never lock or allocate and whose writes are single CAS/volatile stores.
+ *
+ * <p>Every write gives the entity the next version, starting at 1. Updates and removes are
+ * compare-and-set on the stored entity, so one conditioned on a version fails instead of
+ * overwriting a concurrent write, and racing unconditional updates each get their own version.
+ *
+ * <p>The id space is cut into blocks of 2^{@value #ID_BLOCK_SHIFT} ids. A node of a cluster only
+ * owns some blocks, and the generator skips the others, so ids never collide across nodes.
+ *
+ * <p>Every write also updates the registered {@link SecondaryIndex secondary indexes}, from the
+ * exact entity it replaced. Writes hold the entity's write lock, one of
+ * {@value #WRITE_LOCK_STRIPES} stripes, around the store and index changes, so racing writes apply
+ * their index changes in the order they were stored. Creates hold it too: ids are sequential, so
+ * another writer may reach a new entity as soon as it is stored. Callers may hold the lock longer,
+ * through {@link #writeLock}, to order their own side effects the same way; a create's id is
+ * reserved beforehand with {@link #newId} or {@link #newIds}.
+ */
 public class MyKeyValueStorage<V extends BaseEntity> {
 
-    private Map<Long, V> m = new HashMap<>();
-    private AtomicLong generator = new AtomicLong(1L);
+    public static final int ID_BLOCK_SHIFT = 14;
+    private static final int ID_BLOCK_SIZE = 1 << ID_BLOCK_SHIFT;
+    private static final int WRITE_LOCK_STRIPES = 1024;
 
-    public V getById(Long id) {
-        return Optional.ofNullable(m.get(id))
-                .orElseThrow(() -> new ResourceNotFoundException("contact id " + id));
+    private final EntityStore<V> m;
+    private final AtomicLong generator = new AtomicLong(1L);
+    /** Whether ids of a block may be handed out here; {@code null} when every block may. */
+    private final LongPredicate ownsIdBlock;
+    private final List<SecondaryIndex<V>> indexes = new CopyOnWriteArrayList<>();
+    private final ReentrantLock[] writeLocks = new ReentrantLock[WRITE_LOCK_STRIPES];
+
+    public MyKeyValueStorage() {
+        this(new DenseLongMap<>());
+    }
+
+    public MyKeyValueStorage(EntityStore<V> store) {
+        this(store, null);
+    }
+
+    /** @param ownsIdBlock whether the ids of a block (id >>> {@value #ID_BLOCK_SHIFT}) may be created here */
+    public MyKeyValueStorage(EntityStore<V> store, LongPredicate ownsIdBlock) {
+        this.m = store;
+        this.ownsIdBlock = ownsIdBlock;
+        for (int i = 0; i < WRITE_LOCK_STRIPES; i++) {
+            writeLocks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Registers an index that every later write keeps up to date. Indexes are registered while
+     * wiring, before anything is stored.
+     *
+     * @throws IllegalStateException if entities are stored already
+     */
+    public void addIndex(SecondaryIndex<V> index) {
+        if (m.size() > 0) {
+            throw new IllegalStateException("index " + index.name() + " registered after the first write");
+        }
+        indexes.add(index);
+    }
+
+    public List<SecondaryIndex<V>> indexes() {
+        return Collections.unmodifiableList(indexes);
+    }
+
+    /** @return the lock that writes to entity {@code id} hold; reentrant */
+    public ReentrantLock writeLock(long id) {
+        return writeLocks[Long.hashCode(id) & (WRITE_LOCK_STRIPES - 1)];
+    }
+
+    /** @return the distinct write locks of {@code ids}, in stripe order so lockers never deadlock */
+    public List<ReentrantLock> writeLocks(long[] ids) {
+        BitSet stripes = new BitSet(WRITE_LOCK_STRIPES);
+        for (long id : ids) {
+            stripes.set(Long.hashCode(id) & (WRITE_LOCK_STRIPES - 1));
+        }
+        List<ReentrantLock> locks = new ArrayList<>(stripes.cardinality());
+        stripes.stream().forEach(stripe -> locks.add(writeLocks[stripe]));
+        return locks;
+    }
+
+    public V getById(long id) {
+        V v = m.get(id);
+        if (v == null) {
+            throw new ResourceNotFoundException("contact id " + id);
+        }
+        return v;
+    }
+
+    /** @return the entity, or {@code null} if there is none */
+    public V findById(long id) {
+        return m.get(id);
     }
 
     public V create(V c) {
-        Long andIncrement = generator.getAndIncrement();
-        c.setId(andIncrement);
-        m.put(andIncrement, c);
-        return c;
+        return create(newId(), c);
     }
 
-    public V removeById(Long id) {
-        return m.remove(id);
+    /** Stores a new entity under {@code id}, reserved with {@link #newId}. */
+    public V create(long id, V c) {
+        ReentrantLock lock = writeLock(id);
+        lock.lock();
+        try {
+            c.setId(id);
+            c.setVersion(1L);
+            m.put(id, c);
+            for (SecondaryIndex<V> index : indexes) {
+                index.update(id, null, c);
+            }
+            return c;
+        } finally {
+            lock.unlock();
+        }
     }
 
-    public V update(Long id, V c) {
+    /** @return an id for {@link #create(long, BaseEntity)}, taken from the generator */
+    public long newId() {
+        return reserveIds(1);
+    }
+
+    /**
+     * @return {@code count} ids for {@link Batch#createAll(long[], List)} or
+     *     {@link #createAllUnindexed(long[], List)}, taken from the generator in contiguous runs of
+     *     up to a block; a single run when every block is owned
+     */
+    public long[] newIds(int count) {
+        long[] ids = new long[count];
+        int runLength = ownsIdBlock == null ? Math.max(count, 1) : ID_BLOCK_SIZE;
+        for (int from = 0; from < count; from += runLength) {
+            int to = Math.min(count, from + runLength);
+            long firstId = reserveIds(to - from);
+            for (int i = from; i < to; i++) {
+                ids[i] = firstId + i - from;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Creates all entities with ids reserved from the generator in contiguous runs of up to a
+     * block; a single run when every block is owned.
+     */
+    public List<V> createAll(List<V> entities) {
+        long[] ids = newIds(entities.size());
+        List<ReentrantLock> locks = writeLocks(ids);
+        locks.forEach(ReentrantLock::lock);
+        try {
+            Batch batch = batch();
+            batch.createAll(ids, entities);
+            batch.apply();
+            return entities;
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    /**
+     * Like {@link #createAll} but leaves the entities out of the indexes until they are handed to
+     * {@link #indexAll}, for bulk loads.
+     */
+    public List<V> createAllUnindexed(List<V> entities) {
+        long[] ids = newIds(entities.size());
+        List<ReentrantLock> locks = writeLocks(ids);
+        locks.forEach(ReentrantLock::lock);
+        try {
+            return createAllUnindexed(ids, entities);
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+    }
+
+    /**
+     * Like {@link #createAllUnindexed(List)} with ids reserved by {@link #newIds}; the caller holds
+     * their write locks.
+     */
+    public List<V> createAllUnindexed(long[] ids, List<V> entities) {
+        for (int i = 0; i < entities.size(); i++) {
+            V entity = entities.get(i);
+            entity.setId(ids[i]);
+            entity.setVersion(1L);
+            m.put(ids[i], entity);
+        }
+        return entities;
+    }
+
+    /**
+     * Stores an entity under the id and version it already has, e.g. while recovering, and keeps
+     * the generator ahead of it. Entities saved before versioning get version 1.
+     */
+    public V restore(long id, V c) {
+        ReentrantLock lock = writeLock(id);
+        lock.lock();
+        try {
+            V old = restoreUnindexed(id, c);
+            for (SecondaryIndex<V> index : indexes) {
+                index.update(id, old, c);
+            }
+            return old;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Like {@link #restore} but leaves the entity out of the indexes until it is handed to {@link #indexAll}. */
+    public V restoreUnindexed(long id, V c) {
+        advanceGeneratorTo(id + 1);
+        if (c.getVersion() == null) {
+            c.setVersion(1L);
+        }
         return m.put(id, c);
     }
 
+    /**
+     * Adds entities stored by {@link #createAllUnindexed} or {@link #restoreUnindexed} to every
+     * index, with one {@link SecondaryIndex#addAll} each. All write locks are held meanwhile, and
+     * entities written since they were stored are left out: that write indexed them already.
+     *
+     * @return how many entities were indexed
+     */
+    public int indexAll(List<V> entities) {
+        for (ReentrantLock lock : writeLocks) {
+            lock.lock();
+        }
+        try {
+            List<V> current = new ArrayList<>(entities.size());
+            for (V entity : entities) {
+                V stored = m.get(entity.getId());
+                if (stored != null && Objects.equals(stored.getVersion(), entity.getVersion())) {
+                    current.add(entity);
+                }
+            }
+            for (SecondaryIndex<V> index : indexes) {
+                index.addAll(current);
+            }
+            return current.size();
+        } finally {
+            for (ReentrantLock lock : writeLocks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** @return the id the next {@link #newId} will hand out */
+    public long nextId() {
+        return generator.get();
+    }
+
+    /**
+     * @return the first of {@code count} consecutive ids, taken from the generator; with block
+     *     ownership, {@code count} is at most a block and all ids lie in owned blocks
+     */
+    private long reserveIds(int count) {
+        if (ownsIdBlock == null) {
+            return generator.getAndAdd(count);
+        }
+        while (true) {
+            long next = generator.get();
+            long first = next;
+            while (!ownsIdBlock.test(first >>> ID_BLOCK_SHIFT)
+                    || !ownsIdBlock.test((first + count - 1) >>> ID_BLOCK_SHIFT)) {
+                // start over at the next block: a run of up to a block fits in any owned block
+                first = ((first >>> ID_BLOCK_SHIFT) + 1) << ID_BLOCK_SHIFT;
+            }
+            if (generator.compareAndSet(next, first + count)) {
+                return first;
+            }
+        }
+    }
+
+    /** Makes sure no id below {@code nextId} is handed out again. */
+    public void advanceGeneratorTo(long nextId) {
+        generator.accumulateAndGet(nextId, Math::max);
+    }
+
+    public V removeById(long id) {
+        return removeById(id, null);
+    }
+
+    /**
+     * Removes the entity if it is at {@code expectedVersion}, or at any version when that is null.
+     *
+     * @return the removed entity, or {@code null} if there was none
+     * @throws VersionConflictException if the entity is at another version
+     */
+    public V removeById(long id, Long expectedVersion) {
+        ReentrantLock lock = writeLock(id);
+        lock.lock();
+        try {
+            V removed = removeUnindexed(id, expectedVersion);
+            if (removed != null) {
+                for (SecondaryIndex<V> index : indexes) {
+                    index.update(id, removed, null);
+                }
+            }
+            return removed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private V removeUnindexed(long id, Long expectedVersion) {
+        while (true) {
+            V current = m.get(id);
+            if (current == null) {
+                return null;
+            }
+            checkVersion(id, current, expectedVersion);
+            if (m.remove(id, current)) {
+                return current;
+            }
+        }
+    }
+
+    public V update(long id, V c) {
+        return update(id, c, null);
+    }
+
+    /**
+     * Replaces the entity if it is at {@code expectedVersion}, or at any version when that is
+     * null, and gives {@code c} the next version.
+     *
+     * @return the replaced entity
+     * @throws ResourceNotFoundException if there is none
+     * @throws VersionConflictException if the entity is at another version
+     */
+    public V update(long id, V c, Long expectedVersion) {
+        ReentrantLock lock = writeLock(id);
+        lock.lock();
+        try {
+            V replaced = updateUnindexed(id, c, expectedVersion);
+            for (SecondaryIndex<V> index : indexes) {
+                index.update(id, replaced, c);
+            }
+            return replaced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private V updateUnindexed(long id, V c, Long expectedVersion) {
+        while (true) {
+            V current = getById(id);
+            checkVersion(id, current, expectedVersion);
+            c.setVersion(current.getVersion() == null ? 1L : current.getVersion() + 1);
+            if (m.replace(id, current, c)) {
+                return current;
+            }
+        }
+    }
+
+    private void checkVersion(long id, V current, Long expectedVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(current.getVersion())) {
+            throw new VersionConflictException(id, current.getVersion());
+        }
+    }
+
+    /** Weakly consistent iteration in id order that never blocks writers. */
+    public void forEach(DenseLongMap.LongObjConsumer<? super V> consumer) {
+        m.forEach(consumer);
+    }
+
+    public long size() {
+        return m.size();
+    }
+
+    /** @see EntityStore#footprintBytes() */
+    public long footprintBytes() {
+        return m.footprintBytes();
+    }
+
+    /** Starts a set of writes whose index changes are applied together. */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * Writes that reach the store at once and the indexes together, through one
+     * {@link SecondaryIndex.Batch} per index, when {@link #apply()} is called. The caller holds the
+     * write locks of the created, updated and removed entities until then.
+     */
+    public final class Batch {
+
+        private final List<SecondaryIndex.Batch<V>> changes = new ArrayList<>(indexes.size());
+
+        private Batch() {
+            for (SecondaryIndex<V> index : indexes) {
+                changes.add(index.batch());
+            }
+        }
+
+        /** Creates the entities under ids reserved by {@link MyKeyValueStorage#newIds}. */
+        public List<V> createAll(long[] ids, List<V> entities) {
+            createAllUnindexed(ids, entities);
+            for (V entity : entities) {
+                changed(entity.getId(), null, entity);
+            }
+            return entities;
+        }
+
+        /** Replaces the entity, giving {@code c} the next version. @return the replaced one, or null if there was none */
+        public V update(long id, V c) {
+            V current = m.get(id);
+            if (current == null) {
+                return null;
+            }
+            V replaced = updateUnindexed(id, c, null);
+            changed(id, replaced, c);
+            return replaced;
+        }
+
+        /** @return the removed entity, or null if there was none */
+        public V removeById(long id) {
+            V removed = removeUnindexed(id, null);
+            if (removed != null) {
+                changed(id, removed, null);
+            }
+            return removed;
+        }
+
+        /** @see MyKeyValueStorage#restore */
+        public V restore(long id, V c) {
+            V old = restoreUnindexed(id, c);
+            changed(id, old, c);
+            return old;
+        }
+
+        public void apply() {
+            changes.forEach(SecondaryIndex.Batch::apply);
+        }
+
+        private void changed(long id, V old, V current) {
+            for (SecondaryIndex.Batch<V> batch : changes) {
+                batch.update(id, old, current);
+            }
+        }
+    }
+
 }
@@ -0,0 +1,34 @@
+package org.sunbit.addressbook.bulk;
+
+import org.springframework.http.MediaType;
+
+/** The formats contacts are imported and exported in. */
+public enum BulkFormat {
+
+    /** RFC 4180 with a header row; see {@link ContactCsv}. */
+    CSV(MediaType.valueOf(BulkFormat.CSV_VALUE)),
+    /** One contact JSON object per line. */
+    NDJSON(MediaType.APPLICATION_NDJSON);
+
+    public static final String CSV_VALUE = "text/csv";
+
+    private final MediaType mediaType;
+
+    BulkFormat(MediaType mediaType) {
+        this.mediaType = mediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    /** @return the format of {@code mediaType}, ignoring parameters such as the charset */
+    public static BulkFormat of(MediaType mediaType) {
+        for (BulkFormat format : values()) {
+            if (format.mediaType.equalsTypeAndSubtype(mediaType)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException("no bulk format for " + mediaType);
+    }
+}
@@ -0,0 +1,96 @@
+package org.sunbit.addressbook.bulk;
+
+import org.sunbit.addressbook.model.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The CSV form of contacts, RFC 4180: comma separated, fields holding a comma, quote or line
+ * break are quoted, and quotes inside them are doubled. Exports have the header
+ * {@value #HEADER}; imports need a header naming the {@code name} and {@code phoneNumber}
+ * columns, in any order and case, and ignore every other column.
+ */
+public final class ContactCsv {
+
+    public static final String HEADER = "id,name,phoneNumber,version";
+
+    private ContactCsv() {
+    }
+
+    /** @return the fields of one record, which may span lines inside quoted fields */
+    public static List<String> parse(String record) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        int i = 0;
+        while (true) {
+            field.setLength(0);
+            if (i < record.length() && record.charAt(i) == '"') {
+                i++;
+                while (true) {
+                    if (i == record.length()) {
+                        throw new IllegalArgumentException("unterminated quoted field");
+                    }
+                    char c = record.charAt(i++);
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i < record.length() && record.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (i < record.length() && record.charAt(i) != ',') {
+                    throw new IllegalArgumentException("text after closing quote at column " + (i + 1));
+                }
+            } else {
+                while (i < record.length() && record.charAt(i) != ',') {
+                    field.append(record.charAt(i++));
+                }
+            }
+            fields.add(field.toString());
+            if (i == record.length()) {
+                return fields;
+            }
+            i++;
+        }
+    }
+
+    /** Appends {@code contact} as a record under {@link #HEADER}, followed by a line break. */
+    public static void append(StringBuilder out, Contact contact) {
+        out.append(contact.getId()).append(',');
+        appendField(out, contact.getName());
+        out.append(',');
+        appendField(out, contact.getPhoneNumber());
+        out.append(',');
+        if (contact.getVersion() != null) {
+            out.append(contact.getVersion());
+        }
+        out.append('\n');
+    }
+
+    private static void appendField(StringBuilder out, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        out.append('"');
+    }
+}
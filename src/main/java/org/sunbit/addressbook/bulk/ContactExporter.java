@@ -0,0 +1,89 @@
+package org.sunbit.addressbook.bulk;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.model.Contact;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes every contact in id order straight from the storage, one at a time through a
+ * fixed-size buffer, so memory stays flat however many contacts there are. The iteration never
+ * blocks writers: a contact written during the export may or may not be in it. In a cluster each
+ * node exports its own contacts.
+ */
+@Component
+public class ContactExporter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ContactService contactService;
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter contactWriter;
+
+    public ContactExporter(ContactService contactService, ObjectMapper objectMapper) {
+        this.contactService = contactService;
+        this.objectMapper = objectMapper;
+        this.contactWriter =
+                objectMapper.writerFor(Contact.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /** Writes the contacts to {@code out}, which is flushed but left open. */
+    public void export(OutputStream out, BulkFormat format) throws IOException {
+        export(out, format, contactService);
+    }
+
+    /** Like {@link #export(OutputStream, BulkFormat)}, from another address book, e.g. a tenant's. */
+    public void export(OutputStream out, BulkFormat format, ContactService contactService) throws IOException {
+        try {
+            if (format == BulkFormat.CSV) {
+                exportCsv(out, contactService);
+            } else {
+                exportJson(out, contactService);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void exportCsv(OutputStream out, ContactService contactService) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(ContactCsv.HEADER);
+        writer.write('\n');
+        StringBuilder record = new StringBuilder();
+        contactService.forEach(contact -> {
+            record.setLength(0);
+            ContactCsv.append(record, contact);
+            try {
+                writer.append(record);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.flush();
+    }
+
+    private void exportJson(OutputStream out, ContactService contactService) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.setRootValueSeparator(null);
+        contactService.forEach(contact -> {
+            try {
+                contactWriter.writeValue(generator, contact);
+                generator.writeRaw('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        generator.flush();
+    }
+}
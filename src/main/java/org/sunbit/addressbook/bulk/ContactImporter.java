@@ -0,0 +1,235 @@
+package org.sunbit.addressbook.bulk;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.exception.InvalidImportException;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ImportResult;
+import org.sunbit.addressbook.validator.CreateGroup;
+
+import javax.annotation.PreDestroy;
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Imports contacts from a CSV or NDJSON stream. The calling thread cuts the input into chunks of
+ * {@value #CHUNK_SIZE} records, a pool of one thread per core parses and validates them, and the
+ * calling thread hands the valid contacts of each chunk, in input order, to a
+ * {@link ContactService.BulkLoad}. At most two chunks per parser thread are in flight, so memory
+ * stays flat however long the input is, and a slow upload simply slows the import down.
+ *
+ * <p>Records are validated like single creates; invalid ones are skipped and reported by line
+ * while the rest is imported. Ids and versions in the input are ignored and every contact gets a
+ * new id, so an export can be imported as it is.
+ */
+@Log4j2
+@Component
+public class ContactImporter {
+
+    static final int CHUNK_SIZE = 4096;
+    /** Rejections listed in an {@link ImportResult}; the rest are only counted. */
+    static final int MAX_REPORTED_ERRORS = 100;
+
+    private final ContactService contactService;
+    private final Validator validator;
+    private final ObjectReader contactReader;
+    private final ExecutorService parsers;
+    private final int maxInFlight;
+
+    public ContactImporter(ContactService contactService, Validator validator, ObjectMapper objectMapper) {
+        this.contactService = contactService;
+        this.validator = validator;
+        this.contactReader = objectMapper.readerFor(Contact.class);
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.maxInFlight = threads * 2;
+        AtomicInteger count = new AtomicInteger();
+        this.parsers = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "contact-import-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Imports every record of {@code in}. Contacts are stored as their chunks are read, so when the
+     * input fails midway, e.g. on a broken upload, the ones before stay imported.
+     *
+     * @throws InvalidImportException if a CSV header is malformed or lacks a required column, or a
+     *     record is too long
+     */
+    public ImportResult importContacts(InputStream in, BulkFormat format) throws IOException {
+        return importContacts(in, format, contactService);
+    }
+
+    /** Like {@link #importContacts(InputStream, BulkFormat)}, into another address book, e.g. a tenant's. */
+    public ImportResult importContacts(InputStream in, BulkFormat format, ContactService contactService)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        RecordReader records = new RecordReader(reader, format == BulkFormat.CSV);
+        Function<String, Contact> parser = format == BulkFormat.CSV ? csvParser(records) : this::parseJson;
+        ImportResult result = new ImportResult();
+        Deque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        ContactService.BulkLoad bulkLoad = contactService.bulkLoad();
+        try {
+            Chunk chunk;
+            while ((chunk = Chunk.read(records)) != null) {
+                Chunk read = chunk;
+                inFlight.add(parsers.submit(() -> read.parse(parser, this::violations)));
+                if (inFlight.size() == maxInFlight) {
+                    load(inFlight.remove(), bulkLoad, result);
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                load(inFlight.remove(), bulkLoad, result);
+            }
+        } finally {
+            inFlight.forEach(future -> future.cancel(true));
+            bulkLoad.finish();
+        }
+        log.info("imported {} contacts, rejected {}", result.getImported(), result.getRejected());
+        return result;
+    }
+
+    @PreDestroy
+    public void close() {
+        parsers.shutdownNow();
+    }
+
+    private static void load(Future<Chunk> future, ContactService.BulkLoad bulkLoad, ImportResult result)
+            throws IOException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("import interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        bulkLoad.addAll(chunk.contacts);
+        result.setImported(result.getImported() + chunk.contacts.size());
+        result.setRejected(result.getRejected() + chunk.rejections.size());
+        for (ImportResult.Rejection rejection : chunk.rejections) {
+            if (result.getErrors().size() == MAX_REPORTED_ERRORS) {
+                break;
+            }
+            result.getErrors().add(rejection);
+        }
+    }
+
+    /** Reads the header and returns a parser for the records under it. */
+    private static Function<String, Contact> csvParser(RecordReader records) throws IOException {
+        String header = records.next();
+        if (header == null) {
+            return record -> null;
+        }
+        List<String> columns;
+        try {
+            columns = ContactCsv.parse(header.charAt(0) == '\uFEFF' ? header.substring(1) : header).stream()
+                    .map(column -> column.trim().toLowerCase(Locale.ROOT))
+                    .collect(Collectors.toList());
+        } catch (IllegalArgumentException e) {
+            throw new InvalidImportException("malformed CSV header: " + e.getMessage());
+        }
+        int name = columns.indexOf("name");
+        int phoneNumber = columns.indexOf("phonenumber");
+        if (name < 0 || phoneNumber < 0) {
+            throw new InvalidImportException("CSV header must have name and phoneNumber columns: " + header);
+        }
+        return record -> {
+            List<String> fields = ContactCsv.parse(record);
+            return new Contact(
+                    null,
+                    name < fields.size() ? fields.get(name) : null,
+                    phoneNumber < fields.size() ? fields.get(phoneNumber) : null);
+        };
+    }
+
+    private Contact parseJson(String record) {
+        try {
+            Contact contact = contactReader.readValue(record);
+            if (contact == null) {
+                return null;
+            }
+            contact.setId(null);
+            contact.setVersion(null);
+            return contact;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("malformed JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private String violations(Contact contact) {
+        Set<ConstraintViolation<Contact>> violations = validator.validate(contact, CreateGroup.class);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream().map(ConstraintViolation::getMessage).sorted().collect(Collectors.joining(", "));
+    }
+
+    /** Consecutive records, first raw and then, once parsed, as valid contacts and rejections. */
+    private static final class Chunk {
+
+        private final List<String> records = new ArrayList<>(CHUNK_SIZE);
+        private final long[] lines = new long[CHUNK_SIZE];
+        private final List<Contact> contacts = new ArrayList<>(CHUNK_SIZE);
+        private final List<ImportResult.Rejection> rejections = new ArrayList<>();
+
+        /** @return the next records, or null at the end of the input */
+        static Chunk read(RecordReader reader) throws IOException {
+            Chunk chunk = new Chunk();
+            String record;
+            while (chunk.records.size() < CHUNK_SIZE && (record = reader.next()) != null) {
+                chunk.lines[chunk.records.size()] = reader.line();
+                chunk.records.add(record);
+            }
+            return chunk.records.isEmpty() ? null : chunk;
+        }
+
+        Chunk parse(Function<String, Contact> parser, Function<Contact, String> validator) {
+            for (int i = 0; i < records.size(); i++) {
+                String error;
+                try {
+                    Contact contact = parser.apply(records.get(i));
+                    error = contact == null ? "not a contact" : validator.apply(contact);
+                    if (error == null) {
+                        contacts.add(contact);
+                    }
+                } catch (IllegalArgumentException e) {
+                    error = e.getMessage();
+                }
+                if (error != null) {
+                    rejections.add(new ImportResult.Rejection(lines[i], error));
+                }
+            }
+            records.clear();
+            return this;
+        }
+    }
+}
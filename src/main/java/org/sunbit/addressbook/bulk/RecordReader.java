@@ -0,0 +1,77 @@
+package org.sunbit.addressbook.bulk;
+
+import org.sunbit.addressbook.exception.InvalidImportException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+
+/**
+ * Cuts text input into records and remembers the line each starts on. A record is a line, or
+ * for CSV as many lines as it takes to close its quoted fields. Blank lines are skipped.
+ */
+final class RecordReader {
+
+    /** Longest record accepted, so an unbalanced quote cannot pull the rest of the input into memory. */
+    static final int MAX_RECORD_LENGTH = 64 * 1024;
+
+    private final BufferedReader reader;
+    private final boolean quotedLineBreaks;
+    private long lines;
+    private long line;
+
+    RecordReader(BufferedReader reader, boolean quotedLineBreaks) {
+        this.reader = reader;
+        this.quotedLineBreaks = quotedLineBreaks;
+    }
+
+    /** @return the next record, or null at the end of the input */
+    String next() throws IOException {
+        String text;
+        do {
+            text = reader.readLine();
+            if (text == null) {
+                return null;
+            }
+            line = ++lines;
+        } while (text.isEmpty());
+        if (!quotedLineBreaks || quotes(text) % 2 == 0) {
+            return checkLength(text);
+        }
+        StringBuilder record = new StringBuilder(text);
+        int quotes = quotes(text);
+        while (quotes % 2 != 0) {
+            String more = reader.readLine();
+            if (more == null) {
+                break;
+            }
+            lines++;
+            record.append('\n').append(more);
+            quotes += quotes(more);
+            checkLength(record);
+        }
+        return record.toString();
+    }
+
+    /** @return the line the last record returned by {@link #next()} starts on, counting from 1 */
+    long line() {
+        return line;
+    }
+
+    private <T extends CharSequence> T checkLength(T record) {
+        if (record.length() > MAX_RECORD_LENGTH) {
+            throw new InvalidImportException(
+                    "record at line " + line + " is longer than " + MAX_RECORD_LENGTH + " characters");
+        }
+        return record;
+    }
+
+    private static int quotes(String text) {
+        int quotes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+}
@@ -0,0 +1,14 @@
+package org.sunbit.addressbook.cache;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "addressbook.prefix-cache")
+public class PrefixCacheProperties {
+
+    private boolean enabled = true;
+    /** Bound on the total size of the cached response bodies. */
+    private DataSize maxSize = DataSize.ofMegabytes(64);
+}
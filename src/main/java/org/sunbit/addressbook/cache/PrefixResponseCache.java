@@ -0,0 +1,111 @@
+package org.sunbit.addressbook.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.model.Contact;
+
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Ready-to-send bodies of full prefix reads, keyed by prefix and {@link WireFormat}. Caffeine's W-TinyLFU eviction
+ * keeps the few hot prefixes (single letters, common first names) resident, bounded by total body
+ * size.
+ *
+ * <p>Invalidation is precise: a write to a contact named X evicts exactly the prefixes of X, the
+ * only cached responses that can contain it. Writers call {@link #invalidateName} after updating
+ * the name index; evicting a prefix whose body is still being built waits for that build and then
+ * drops it, so a body computed from the old index never survives the write.
+ *
+ * <p>Hits, misses and evictions are published under {@code cache.*} with {@code cache=contact.prefix}.
+ */
+@Component
+public class PrefixResponseCache {
+
+    private final WireMappers wireMappers;
+    private final Cache<Key, byte[]> cache;
+
+    public PrefixResponseCache(WireMappers wireMappers, PrefixCacheProperties properties, MeterRegistry meterRegistry) {
+        this.wireMappers = wireMappers;
+        this.cache = properties.isEnabled()
+                ? Caffeine.newBuilder()
+                        .maximumWeight(properties.getMaxSize().toBytes())
+                        .weigher((Key key, byte[] body) -> key.prefix.length() * 2 + body.length)
+                        .recordStats()
+                        .build()
+                : null;
+        if (cache != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "contact.prefix");
+        }
+    }
+
+    /**
+     * @return the array of the contacts {@code loader} reads for {@code prefix} in {@code format},
+     *     cached; each format is loaded and cached on its own
+     */
+    public byte[] get(String prefix, WireFormat format, Function<String, List<Contact>> loader) {
+        if (cache == null) {
+            return serialize(loader.apply(prefix), format);
+        }
+        return cache.get(new Key(prefix, format), key -> serialize(loader.apply(key.prefix), key.format));
+    }
+
+    /** Evicts every cached prefix of {@code name}, including the empty one, in every format. */
+    public void invalidateName(String name) {
+        if (cache == null || name == null) {
+            return;
+        }
+        for (int length = 0; length <= name.length(); length++) {
+            for (WireFormat format : WireFormat.values()) {
+                cache.invalidate(new Key(name.substring(0, length), format));
+            }
+        }
+    }
+
+    /** Evicts everything, for writes too large to invalidate name by name. */
+    public void invalidateAll() {
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    private byte[] serialize(List<Contact> contacts, WireFormat format) {
+        try {
+            return wireMappers.get(format).writeValueAsBytes(contacts);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Key {
+        final String prefix;
+        final WireFormat format;
+
+        Key(String prefix, WireFormat format) {
+            this.prefix = prefix;
+            this.format = format;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return prefix.equals(other.prefix) && format == other.format;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(prefix, format);
+        }
+    }
+}
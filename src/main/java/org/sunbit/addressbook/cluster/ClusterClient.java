@@ -0,0 +1,106 @@
+package org.sunbit.addressbook.cluster;
+
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.exception.ShardUnavailableException;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * HTTP calls to the other nodes. Every request carries {@link ShardMap#LOCAL_HEADER}, so the
+ * receiving node answers from its own shard and never forwards it again.
+ */
+@Component
+public class ClusterClient {
+
+    private final ShardMap shardMap;
+    private final Duration timeout;
+    private final HttpClient http;
+
+    public ClusterClient(ShardMap shardMap, ClusterProperties properties) {
+        this.shardMap = shardMap;
+        this.timeout = properties.getTimeout();
+        this.http = HttpClient.newBuilder().connectTimeout(timeout).build();
+    }
+
+    /** @return {@code path} followed by the URL-encoded query of the name/value {@code pairs} */
+    public static String withQuery(String path, Object... pairs) {
+        StringBuilder uri = new StringBuilder(path);
+        for (int i = 0; i < pairs.length; i += 2) {
+            uri.append(i == 0 ? '?' : '&')
+                    .append(pairs[i])
+                    .append('=')
+                    .append(URLEncoder.encode(String.valueOf(pairs[i + 1]), StandardCharsets.UTF_8));
+        }
+        return uri.toString();
+    }
+
+    /** Sends a request and completes with the response whatever its status. */
+    public CompletableFuture<HttpResponse<byte[]>> send(
+            int node, String method, String pathAndQuery, byte[] body, Map<String, List<String>> headers) {
+        HttpRequest.Builder request = request(node, pathAndQuery)
+                .method(method, body.length == 0
+                        ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(body));
+        headers.forEach((name, values) -> values.forEach(value -> request.header(name, value)));
+        return http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    /** Sends a GET and completes with the response, or fails unless it is a 2xx. */
+    public CompletableFuture<HttpResponse<byte[]>> get(int node, String pathAndQuery) {
+        return http.sendAsync(request(node, pathAndQuery).GET().build(), HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> successful(node, response));
+    }
+
+    /** Sends a JSON POST and completes with the response, or fails unless it is a 2xx. */
+    public CompletableFuture<HttpResponse<byte[]>> postJson(int node, String path, byte[] json) {
+        HttpRequest request = request(node, path)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                .build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> successful(node, response));
+    }
+
+    /** Opens a streamed GET; the body is read as the caller consumes it. */
+    public CompletableFuture<InputStream> stream(int node, String pathAndQuery, String accept) {
+        HttpRequest request = request(node, pathAndQuery).header("Accept", accept).GET().build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> successful(node, response).body());
+    }
+
+    /** Waits for a call to {@code node}, turning any failure into a {@link ShardUnavailableException}. */
+    public <T> T join(int node, CompletableFuture<T> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ShardUnavailableException) {
+                throw (ShardUnavailableException) e.getCause();
+            }
+            throw new ShardUnavailableException(shardMap.urlOf(node), e.getCause());
+        }
+    }
+
+    private HttpRequest.Builder request(int node, String pathAndQuery) {
+        return HttpRequest.newBuilder(URI.create(shardMap.urlOf(node) + pathAndQuery))
+                .timeout(timeout)
+                .header(ShardMap.LOCAL_HEADER, "true");
+    }
+
+    private <T> HttpResponse<T> successful(int node, HttpResponse<T> response) {
+        if (response.statusCode() / 100 != 2) {
+            throw new ShardUnavailableException(shardMap.urlOf(node), response.statusCode());
+        }
+        return response;
+    }
+}
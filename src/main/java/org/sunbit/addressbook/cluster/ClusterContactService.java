@@ -0,0 +1,371 @@
+package org.sunbit.addressbook.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.controller.ContactController;
+import org.sunbit.addressbook.exception.ShardUnavailableException;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.model.BatchOperation;
+import org.sunbit.addressbook.model.BatchResult;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ContactPage;
+import org.sunbit.addressbook.model.SearchCursor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * The queries of {@link ContactService} over the whole cluster. Every node answers for its own
+ * shard and returns its matches in the query's order, so a query is sent to all other nodes in
+ * parallel while the local shard is read, and the sorted answers are merged, keeping the first
+ * {@code limit}. Requests from other nodes, and every request when clustering is off, only read
+ * the local shard.
+ *
+ * <p>Prefix pages merge exactly because their cursor is a (name, id) position that means the same
+ * on every shard. Full prefix reads are cached per shard by each node, not merged.
+ *
+ * <p>Nodes talk to each other in JSON whatever format the client asked for; only the merged
+ * answer is written in that format.
+ */
+@Service
+public class ClusterContactService {
+
+    private static final TypeReference<List<Contact>> CONTACT_LIST = new TypeReference<List<Contact>>() {};
+    private static final TypeReference<List<BatchResult>> BATCH_RESULTS = new TypeReference<List<BatchResult>>() {};
+    private static final Comparator<Contact> BY_NAME =
+            Comparator.comparing(Contact::getName).thenComparing(Contact::getId);
+    private static final Comparator<Contact> BY_ID = Comparator.comparing(Contact::getId);
+    private static final Comparator<Contact> BY_PHONE =
+            Comparator.comparing((Contact contact) -> PhoneIndex.normalize(contact.getPhoneNumber()))
+                    .thenComparing(Contact::getId);
+
+    private final ContactService contactService;
+    private final ShardMap shardMap;
+    private final ClusterClient clusterClient;
+    private final WireMappers wireMappers;
+    private final ObjectMapper objectMapper;
+
+    public ClusterContactService(
+            ContactService contactService, ShardMap shardMap, ClusterClient clusterClient, WireMappers wireMappers) {
+        this.contactService = contactService;
+        this.shardMap = shardMap;
+        this.clusterClient = clusterClient;
+        this.wireMappers = wireMappers;
+        this.objectMapper = wireMappers.get(WireFormat.JSON);
+    }
+
+    /** A read that is started later, e.g. by a streaming response body on another thread. */
+    @FunctionalInterface
+    public interface ContactScan {
+        void forEach(Consumer<Contact> consumer) throws IOException;
+    }
+
+    /** @see ContactService#readByPrefixBody(String, WireFormat) */
+    public byte[] readByPrefixBody(String prefix, WireFormat format) {
+        if (!fansOut()) {
+            return contactService.readByPrefixBody(prefix, format);
+        }
+        List<List<Contact>> shards = gather(
+                () -> contactService.readByPrefix(prefix),
+                ClusterClient.withQuery(ContactController.PATH, "contactPrefix", prefix),
+                this::contacts);
+        try {
+            return wireMappers.get(format).writeValueAsBytes(SortedMerge.merge(shards, BY_NAME, Integer.MAX_VALUE));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** @see ContactService#readByPrefix(String, SearchCursor, int) */
+    public ContactPage readByPrefix(String prefix, SearchCursor cursor, int limit) {
+        if (!fansOut()) {
+            return contactService.readByPrefix(prefix, cursor, limit);
+        }
+        String query = cursor == null
+                ? ClusterClient.withQuery(ContactController.PATH, "contactPrefix", prefix, "limit", limit)
+                : ClusterClient.withQuery(ContactController.PATH, "contactPrefix", prefix, "limit", limit,
+                        "cursor", cursor.encode());
+        List<ContactPage> shards = gather(
+                () -> contactService.readByPrefix(prefix, cursor, limit),
+                query,
+                response -> new ContactPage(
+                        contacts(response),
+                        response.headers().firstValue(ContactController.NEXT_CURSOR_HEADER)
+                                .map(SearchCursor::decode)
+                                .orElse(null)));
+        List<List<Contact>> lists = new ArrayList<>(shards.size());
+        boolean more = false;
+        int matches = 0;
+        for (ContactPage shard : shards) {
+            lists.add(shard.getContacts());
+            more |= shard.getNextCursor() != null;
+            matches += shard.getContacts().size();
+        }
+        List<Contact> page = SortedMerge.merge(lists, BY_NAME, limit);
+        Contact last = page.isEmpty() ? null : page.get(page.size() - 1);
+        boolean hasNext = last != null && (more || matches > page.size());
+        return new ContactPage(page, hasNext ? new SearchCursor(last.getName(), last.getId()) : null);
+    }
+
+    /** @see ContactService#countByPrefix(String) */
+    public long countByPrefix(String prefix) {
+        if (!fansOut()) {
+            return contactService.countByPrefix(prefix);
+        }
+        return gather(
+                () -> contactService.countByPrefix(prefix),
+                ClusterClient.withQuery(ContactController.PATH + "/count", "contactPrefix", prefix),
+                response -> Long.parseLong(new String(response.body(), StandardCharsets.UTF_8).trim()))
+                .stream().mapToLong(Long::longValue).sum();
+    }
+
+    /** @see ContactService#autocomplete(String, int) */
+    public List<Contact> autocomplete(String prefix, int k) {
+        if (!fansOut()) {
+            return contactService.autocomplete(prefix, k);
+        }
+        return SortedMerge.merge(
+                gather(() -> contactService.autocomplete(prefix, k),
+                        ClusterClient.withQuery(ContactController.PATH + "/autocomplete", "prefix", prefix, "k", k),
+                        this::contacts),
+                BY_ID.reversed(),
+                k);
+    }
+
+    /** @see ContactService#fuzzySearch(String, int, int) */
+    public List<Contact> fuzzySearch(String name, int maxEdits, int limit) {
+        if (!fansOut()) {
+            return contactService.fuzzySearch(name, maxEdits, limit);
+        }
+        Comparator<Contact> closestFirst =
+                Comparator.comparingInt((Contact contact) -> distance(name, contact.getName())).thenComparing(BY_NAME);
+        return SortedMerge.merge(
+                gather(() -> contactService.fuzzySearch(name, maxEdits, limit),
+                        ClusterClient.withQuery(ContactController.PATH, "fuzzy", name, "maxEdits", maxEdits, "limit", limit),
+                        this::contacts),
+                closestFirst,
+                limit);
+    }
+
+    /** @see ContactService#searchByTokens(String, int) */
+    public List<Contact> searchByTokens(String query, int limit) {
+        if (!fansOut()) {
+            return contactService.searchByTokens(query, limit);
+        }
+        return SortedMerge.merge(
+                gather(() -> contactService.searchByTokens(query, limit),
+                        ClusterClient.withQuery(ContactController.PATH, "q", query, "limit", limit),
+                        this::contacts),
+                BY_ID,
+                limit);
+    }
+
+    /** @see ContactService#readByPhone(String, boolean, int) */
+    public List<Contact> readByPhone(String phoneNumber, boolean prefix, int limit) {
+        if (!fansOut()) {
+            return contactService.readByPhone(phoneNumber, prefix, limit);
+        }
+        return SortedMerge.merge(
+                gather(() -> contactService.readByPhone(phoneNumber, prefix, limit),
+                        ClusterClient.withQuery(ContactController.PATH, "phone", phoneNumber, "prefix", prefix,
+                                "limit", limit),
+                        this::contacts),
+                BY_PHONE,
+                limit);
+    }
+
+    /**
+     * Streams every contact whose name starts with {@code prefix} in name order. Across the cluster,
+     * each node's NDJSON stream, this one's included, is merged as it arrives.
+     */
+    public ContactScan scanByPrefix(String prefix) {
+        if (!fansOut()) {
+            return consumer -> contactService.forEachByPrefix(prefix, consumer);
+        }
+        String query = ClusterClient.withQuery(ContactController.PATH, "contactPrefix", prefix);
+        return consumer -> {
+            List<CompletableFuture<InputStream>> calls = new ArrayList<>();
+            for (int node = 0; node < shardMap.getNodeCount(); node++) {
+                calls.add(clusterClient.stream(node, query, MediaType.APPLICATION_NDJSON_VALUE));
+            }
+            List<MappingIterator<Contact>> streams = new ArrayList<>(calls.size());
+            try {
+                for (int node = 0; node < calls.size(); node++) {
+                    streams.add(objectMapper.readerFor(Contact.class).readValues(clusterClient.join(node, calls.get(node))));
+                }
+                SortedMerge.merge(streams, BY_NAME, contact -> {
+                    consumer.accept(contact);
+                    return true;
+                });
+            } finally {
+                for (Closeable stream : streams) {
+                    stream.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * Applies a batch across the cluster: creates and the items of local contacts are applied here,
+     * the items of each other node's contacts are sent to it as one sub-batch, and the results are
+     * put back in request order. Items fail independently here too: the items of a node that does
+     * not answer get a 503 each, since they may or may not have been applied, and the rest keep
+     * their results.
+     */
+    public List<BatchResult> applyBatch(List<BatchOperation> operations) {
+        if (!fansOut()) {
+            return contactService.applyBatch(operations);
+        }
+        List<List<Integer>> indexesByNode = new ArrayList<>();
+        for (int node = 0; node < shardMap.getNodeCount(); node++) {
+            indexesByNode.add(new ArrayList<>());
+        }
+        for (int i = 0; i < operations.size(); i++) {
+            Long id = targetId(operations.get(i));
+            indexesByNode.get(id == null ? shardMap.getLocalNode() : shardMap.ownerOf(id)).add(i);
+        }
+        List<CompletableFuture<HttpResponse<byte[]>>> calls = new ArrayList<>();
+        for (int node = 0; node < indexesByNode.size(); node++) {
+            List<Integer> indexes = indexesByNode.get(node);
+            calls.add(node == shardMap.getLocalNode() || indexes.isEmpty()
+                    ? null
+                    : clusterClient.postJson(node, ContactController.PATH + "/batch", json(select(operations, indexes))));
+        }
+        BatchResult[] results = new BatchResult[operations.size()];
+        List<Integer> localIndexes = indexesByNode.get(shardMap.getLocalNode());
+        place(contactService.applyBatch(select(operations, localIndexes)), localIndexes, results);
+        for (int node = 0; node < calls.size(); node++) {
+            if (calls.get(node) != null) {
+                List<Integer> indexes = indexesByNode.get(node);
+                try {
+                    byte[] body = clusterClient.join(node, calls.get(node)).body();
+                    place(read(body, BATCH_RESULTS), indexes, results);
+                } catch (ShardUnavailableException e) {
+                    for (int index : indexes) {
+                        results[index] = BatchResult.builder()
+                                .index(index)
+                                .status(HttpStatus.SERVICE_UNAVAILABLE.value())
+                                .error(e.getReason())
+                                .build();
+                    }
+                }
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Starts the call to every other node, reads the local shard meanwhile, and returns the answers
+     * indexed by node.
+     */
+    private <T> List<T> gather(Supplier<T> local, String pathAndQuery, Function<HttpResponse<byte[]>, T> remote) {
+        List<CompletableFuture<HttpResponse<byte[]>>> calls = new ArrayList<>();
+        for (int node = 0; node < shardMap.getNodeCount(); node++) {
+            calls.add(node == shardMap.getLocalNode() ? null : clusterClient.get(node, pathAndQuery));
+        }
+        List<T> answers = new ArrayList<>(calls.size());
+        T localAnswer = local.get();
+        for (int node = 0; node < calls.size(); node++) {
+            answers.add(calls.get(node) == null ? localAnswer : remote.apply(clusterClient.join(node, calls.get(node))));
+        }
+        return answers;
+    }
+
+    /** @return whether this request reads the whole cluster rather than the local shard */
+    private boolean fansOut() {
+        if (!shardMap.isEnabled()) {
+            return false;
+        }
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        return !(attributes instanceof ServletRequestAttributes)
+                || ((ServletRequestAttributes) attributes).getRequest().getHeader(ShardMap.LOCAL_HEADER) == null;
+    }
+
+    private List<Contact> contacts(HttpResponse<byte[]> response) {
+        return read(response.body(), CONTACT_LIST);
+    }
+
+    private <T> T read(byte[] json, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(json, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private byte[] json(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** @return the id an update or delete targets, or null for creates and malformed items */
+    private static Long targetId(BatchOperation operation) {
+        if (operation.getType() == BatchOperation.Type.UPDATE && operation.getContact() != null) {
+            return operation.getContact().getId();
+        }
+        return operation.getType() == BatchOperation.Type.DELETE ? operation.getId() : null;
+    }
+
+    private static <T> List<T> select(List<T> items, List<Integer> indexes) {
+        List<T> selected = new ArrayList<>(indexes.size());
+        for (int index : indexes) {
+            selected.add(items.get(index));
+        }
+        return selected;
+    }
+
+    /** Stores the results of a sub-batch at the positions its items had in the whole batch. */
+    private static void place(List<BatchResult> subResults, List<Integer> indexes, BatchResult[] results) {
+        for (BatchResult result : subResults) {
+            int index = indexes.get(result.getIndex());
+            result.setIndex(index);
+            results[index] = result;
+        }
+    }
+
+    /** Levenshtein distance, to order the closest-first answers of the shards against each other. */
+    private static int distance(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,23 @@
+package org.sunbit.addressbook.cluster;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@ConfigurationProperties(prefix = "addressbook.cluster")
+public class ClusterProperties {
+
+    private boolean enabled = false;
+    /** Position of this node in {@code nodes}. */
+    private int nodeId = 0;
+    /** Base URLs of all nodes, e.g. {@code http://10.0.0.1:8080}; every node must list them in the same order. */
+    private List<String> nodes = new ArrayList<>();
+    /** Points per node on the hash ring; more points spread the id blocks more evenly. */
+    private int virtualNodes = 128;
+    /** How long a call to another node may take before the request fails. */
+    private Duration timeout = Duration.ofSeconds(5);
+}
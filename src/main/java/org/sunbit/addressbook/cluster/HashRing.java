@@ -0,0 +1,52 @@
+package org.sunbit.addressbook.cluster;
+
+import java.util.Arrays;
+
+/**
+ * Consistent-hash ring over {@code long} keys. Each node is placed at {@code virtualNodes} pseudo
+ * random points and owns the keys hashing between its points and the previous ones, so adding a
+ * node moves about 1/n of the keys and leaves the rest where they are.
+ */
+public class HashRing {
+
+    private final long[] points;
+    private final int[] owners;
+
+    public HashRing(int nodes, int virtualNodes) {
+        if (nodes < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("a ring needs at least one node and one virtual node");
+        }
+        long[][] placed = new long[nodes * virtualNodes][];
+        for (int node = 0; node < nodes; node++) {
+            for (int replica = 0; replica < virtualNodes; replica++) {
+                placed[node * virtualNodes + replica] = new long[]{mix(((long) node << 32) | replica), node};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[placed.length];
+        owners = new int[placed.length];
+        for (int i = 0; i < placed.length; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    /** @return the node owning {@code key}: the first point at or after its hash, wrapping around */
+    public int ownerOf(long key) {
+        int at = Arrays.binarySearch(points, mix(key + 0x9E3779B97F4A7C15L));
+        if (at < 0) {
+            at = -at - 1;
+        }
+        return owners[at == points.length ? 0 : at];
+    }
+
+    /** MurmurHash3's 64-bit finalizer: every input bit affects every output bit. */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,98 @@
+package org.sunbit.addressbook.cluster;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.sunbit.addressbook.controller.ContactController;
+import org.sunbit.addressbook.exception.ShardUnavailableException;
+import org.sunbit.addressbook.tenant.TenantProperties;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Sends requests for a single contact ({@code /v1/contact/{id}}) that another node owns to that
+ * node and relays its answer as is, status and headers included. Everything else, creates among
+ * them and all requests for a tenant, whose address book is not sharded, is handled by this node.
+ */
+@Log4j2
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ShardForwardingFilter extends OncePerRequestFilter {
+
+    private static final Pattern CONTACT_PATH = Pattern.compile(Pattern.quote(ContactController.PATH) + "/(\\d{1,18})");
+    /** Set by the HTTP client itself, or meaningful for one connection only. */
+    private static final Set<String> UNFORWARDED_HEADERS = Set.of(
+            "connection", "content-length", "date", "expect", "from", "host", "keep-alive", "transfer-encoding",
+            "upgrade", "via", "warning");
+
+    private final ShardMap shardMap;
+    private final ClusterClient clusterClient;
+    private final TenantProperties tenantProperties;
+
+    public ShardForwardingFilter(ShardMap shardMap, ClusterClient clusterClient, TenantProperties tenantProperties) {
+        this.shardMap = shardMap;
+        this.clusterClient = clusterClient;
+        this.tenantProperties = tenantProperties;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !shardMap.isEnabled()
+                || request.getHeader(ShardMap.LOCAL_HEADER) != null
+                || (tenantProperties.isEnabled() && request.getHeader(tenantProperties.getHeader()) != null);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Matcher matcher = CONTACT_PATH.matcher(request.getRequestURI());
+        if (!matcher.matches() || shardMap.isLocal(Long.parseLong(matcher.group(1)))) {
+            chain.doFilter(request, response);
+            return;
+        }
+        int owner = shardMap.ownerOf(Long.parseLong(matcher.group(1)));
+        String pathAndQuery = request.getQueryString() == null
+                ? request.getRequestURI()
+                : request.getRequestURI() + "?" + request.getQueryString();
+        HttpResponse<byte[]> answer;
+        try {
+            answer = clusterClient.join(owner, clusterClient.send(
+                    owner, request.getMethod(), pathAndQuery, request.getInputStream().readAllBytes(), headers(request)));
+        } catch (ShardUnavailableException e) {
+            log.warn("could not forward {} {}: {}", request.getMethod(), pathAndQuery, e.getReason());
+            response.sendError(e.getStatus().value(), e.getReason());
+            return;
+        }
+        response.setStatus(answer.statusCode());
+        answer.headers().map().forEach((name, values) -> {
+            if (!UNFORWARDED_HEADERS.contains(name.toLowerCase(Locale.ROOT)) && !name.startsWith(":")) {
+                values.forEach(value -> response.addHeader(name, value));
+            }
+        });
+        response.getOutputStream().write(answer.body());
+    }
+
+    private static Map<String, List<String>> headers(HttpServletRequest request) {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (String name : Collections.list(request.getHeaderNames())) {
+            if (!UNFORWARDED_HEADERS.contains(name.toLowerCase(Locale.ROOT))) {
+                headers.put(name, Collections.list(request.getHeaders(name)));
+            }
+        }
+        return headers;
+    }
+}
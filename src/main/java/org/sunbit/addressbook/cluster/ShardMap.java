@@ -0,0 +1,67 @@
+package org.sunbit.addressbook.cluster;
+
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.MyKeyValueStorage;
+
+import java.util.List;
+
+/**
+ * Which node owns which contact. Ids are placed on the {@link HashRing} by block of
+ * 2^{@value MyKeyValueStorage#ID_BLOCK_SHIFT} consecutive ids rather than one by one: each node
+ * hands out ids only from the blocks it owns, so creates never leave the node, ids stay unique
+ * without coordination, and every node's share of the id space stays dense for its store.
+ *
+ * <p>Membership is static: all nodes must be configured with the same node list, and changing it
+ * moves blocks between nodes without moving their contacts.
+ */
+@Component
+public class ShardMap {
+
+    /** Marks a request sent by another node: it is answered from the local shard only, never forwarded. */
+    public static final String LOCAL_HEADER = "X-Shard-Local";
+
+    private final boolean enabled;
+    private final int localNode;
+    private final List<String> nodes;
+    private final HashRing ring;
+
+    public ShardMap(ClusterProperties properties) {
+        this.enabled = properties.isEnabled();
+        this.localNode = properties.getNodeId();
+        this.nodes = List.copyOf(properties.getNodes());
+        if (enabled && (nodes.isEmpty() || localNode < 0 || localNode >= nodes.size())) {
+            throw new IllegalStateException(
+                    "addressbook.cluster.node-id " + localNode + " is not a position in addressbook.cluster.nodes " + nodes);
+        }
+        this.ring = enabled ? new HashRing(nodes.size(), properties.getVirtualNodes()) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getLocalNode() {
+        return localNode;
+    }
+
+    public int getNodeCount() {
+        return enabled ? nodes.size() : 1;
+    }
+
+    public String urlOf(int node) {
+        return nodes.get(node);
+    }
+
+    public int ownerOf(long id) {
+        return enabled ? ring.ownerOf(id >>> MyKeyValueStorage.ID_BLOCK_SHIFT) : localNode;
+    }
+
+    public boolean isLocal(long id) {
+        return ownerOf(id) == localNode;
+    }
+
+    /** @see MyKeyValueStorage#MyKeyValueStorage(org.sunbit.addressbook.storage.EntityStore, java.util.function.LongPredicate) */
+    public boolean ownsIdBlock(long block) {
+        return !enabled || ring.ownerOf(block) == localNode;
+    }
+}
@@ -0,0 +1,68 @@
+package org.sunbit.addressbook.cluster;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/** K-way merge of sorted sequences through a heap holding the head of each. */
+final class SortedMerge {
+
+    private SortedMerge() {
+    }
+
+    /**
+     * Hands the elements of the sorted {@code sources} to {@code consumer} in {@code order} until
+     * they run out or the consumer returns {@code false}. Each source is advanced only when its
+     * head is taken, so lazily produced sources are read as the merge goes.
+     */
+    static <T> void merge(List<? extends Iterator<T>> sources, Comparator<? super T> order, Predicate<? super T> consumer) {
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>(Math.max(sources.size(), 1),
+                (a, b) -> order.compare(a.value, b.value));
+        for (Iterator<T> source : sources) {
+            if (source.hasNext()) {
+                heads.add(new Head<>(source.next(), source));
+            }
+        }
+        while (!heads.isEmpty()) {
+            Head<T> head = heads.poll();
+            if (!consumer.test(head.value)) {
+                return;
+            }
+            if (head.source.hasNext()) {
+                head.value = head.source.next();
+                heads.add(head);
+            }
+        }
+    }
+
+    /** @return the first {@code limit} elements of the sorted {@code lists} in {@code order} */
+    static <T> List<T> merge(List<List<T>> lists, Comparator<? super T> order, int limit) {
+        List<Iterator<T>> sources = new ArrayList<>(lists.size());
+        int total = 0;
+        for (List<T> list : lists) {
+            sources.add(list.iterator());
+            total += list.size();
+        }
+        List<T> merged = new ArrayList<>(Math.min(total, limit));
+        if (limit > 0) {
+            merge(sources, order, value -> {
+                merged.add(value);
+                return merged.size() < limit;
+            });
+        }
+        return merged;
+    }
+
+    private static final class Head<T> {
+        T value;
+        final Iterator<T> source;
+
+        Head(T value, Iterator<T> source) {
+            this.value = value;
+            this.source = source;
+        }
+    }
+}
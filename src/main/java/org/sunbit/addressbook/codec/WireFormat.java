@@ -0,0 +1,60 @@
+package org.sunbit.addressbook.codec;
+
+import org.springframework.http.MediaType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The formats the contact endpoints read and write, picked by {@code Content-Type} and
+ * {@code Accept}. Both carry the same documents; see {@link WireMappers}.
+ */
+public enum WireFormat {
+
+    JSON(MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON),
+    /**
+     * Jackson's binary JSON. Property names are written once and then referred back to, and
+     * numbers and string lengths are binary, so a contact list is smaller and cheaper to write and
+     * read.
+     * A stream is a sequence of Smile values, one per contact, with no separator.
+     */
+    SMILE(MediaType.valueOf(WireFormat.SMILE_VALUE), MediaType.valueOf(WireFormat.SMILE_STREAM_VALUE));
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    /** The streaming type WebFlux's Smile encoder already knows. */
+    public static final String SMILE_STREAM_VALUE = "application/stream+x-jackson-smile";
+
+    private final MediaType mediaType;
+    private final MediaType streamMediaType;
+
+    WireFormat(MediaType mediaType, MediaType streamMediaType) {
+        this.mediaType = mediaType;
+        this.streamMediaType = streamMediaType;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public MediaType getStreamMediaType() {
+        return streamMediaType;
+    }
+
+    /**
+     * @return the format the most preferred of {@code accept} names; JSON for wildcards, for
+     *     anything JSON-compatible and when nothing is accepted explicitly
+     */
+    public static WireFormat negotiate(List<MediaType> accept) {
+        List<MediaType> sorted = new ArrayList<>(accept);
+        MediaType.sortBySpecificityAndQuality(sorted);
+        for (MediaType mediaType : sorted) {
+            if (SMILE.mediaType.equalsTypeAndSubtype(mediaType)) {
+                return SMILE;
+            }
+            if (mediaType.isCompatibleWith(JSON.mediaType)) {
+                return JSON;
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,21 @@
+package org.sunbit.addressbook.codec;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Has Spring MVC read and write {@link WireFormat#SMILE} bodies with the Smile mapper of
+ * {@link WireMappers}, in place of the unconfigured one it registers by default. The reactive
+ * stack keeps WebFlux's default Smile codecs, which custom codecs cannot replace.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class WireFormatWebConfig {
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(WireMappers wireMappers) {
+        return new MappingJackson2SmileHttpMessageConverter(wireMappers.get(WireFormat.SMILE));
+    }
+}
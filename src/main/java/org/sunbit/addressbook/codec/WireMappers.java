@@ -0,0 +1,28 @@
+package org.sunbit.addressbook.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+
+/**
+ * The object mapper of each {@link WireFormat}. The Smile one is built from the same
+ * {@code spring.jackson.*} settings and modules as the application's JSON mapper, so a contact
+ * comes out with the same properties either way.
+ */
+@Component
+public class WireMappers {
+
+    private final ObjectMapper json;
+    private final ObjectMapper smile;
+
+    /** @param builder a fresh builder, configured the way the JSON mapper was built */
+    public WireMappers(ObjectMapper objectMapper, Jackson2ObjectMapperBuilder builder) {
+        this.json = objectMapper;
+        this.smile = builder.createXmlMapper(false).factory(new SmileFactory()).build();
+    }
+
+    public ObjectMapper get(WireFormat format) {
+        return format == WireFormat.SMILE ? smile : json;
+    }
+}
@@ -1,6 +1,12 @@
 package org.sunbit.addressbook.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -12,62 +18,354 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.bulk.BulkFormat;
+import org.sunbit.addressbook.bulk.ContactExporter;
+import org.sunbit.addressbook.bulk.ContactImporter;
+import org.sunbit.addressbook.cluster.ClusterContactService;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.exception.VersionConflictException;
+import org.sunbit.addressbook.feed.ChangeStreams;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.index.TokenIndex;
+import org.sunbit.addressbook.model.BatchOperation;
+import org.sunbit.addressbook.model.BatchResult;
 import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ContactPage;
+import org.sunbit.addressbook.model.ImportResult;
+import org.sunbit.addressbook.model.SearchCursor;
+import org.sunbit.addressbook.tenant.AddressBook;
+import org.sunbit.addressbook.tenant.AddressBooks;
 import org.sunbit.addressbook.validator.CreateGroup;
 import org.sunbit.addressbook.validator.UpdateGroup;
 
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 
+/**
+ * Every endpoint serves the address book of the request's tenant, see {@link AddressBooks}, or the
+ * default one.
+ *
+ * <p>Bodies are JSON or, by {@code Content-Type} and {@code Accept}, Smile; see {@link WireFormat}.
+ */
 @Log4j2
 @RestController
-@RequestMapping(value = "/v1/contact", produces = MediaType.APPLICATION_JSON_VALUE)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping(value = ContactController.PATH, produces = {MediaType.APPLICATION_JSON_VALUE, WireFormat.SMILE_VALUE})
 public class ContactController {
 
-  private final ContactService contactService;
+  public static final String PATH = "/v1/contact";
+  public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+  public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+  public static final int MAX_BATCH_SIZE = 10_000;
+  public static final int MAX_FUZZY_EDITS = 2;
 
-  public ContactController(ContactService contactService) {
-    this.contactService = contactService;
+  private final ChangeStreams changeStreams;
+  private final WireMappers wireMappers;
+  private final ContactImporter contactImporter;
+  private final ContactExporter contactExporter;
+
+  public ContactController(
+      ChangeStreams changeStreams,
+      WireMappers wireMappers,
+      ContactImporter contactImporter,
+      ContactExporter contactExporter) {
+    this.changeStreams = changeStreams;
+    this.wireMappers = wireMappers;
+    this.contactImporter = contactImporter;
+    this.contactExporter = contactExporter;
   }
 
   @PostMapping
   public ResponseEntity create(
+      AddressBook book,
       @RequestBody @Validated(value = {CreateGroup.class}) Contact contact) {
-    return new ResponseEntity<>(contactService.create(contact), HttpStatus.CREATED);
+    Contact created = book.getContactService().create(contact);
+    return ResponseEntity.status(HttpStatus.CREATED).eTag(eTag(created.getVersion())).body(created);
+  }
+
+  /**
+   * Applies up to {@value #MAX_BATCH_SIZE} create/update/delete operations in one request. The
+   * response lists the outcome of every item in request order; items fail independently.
+   */
+  @PostMapping("/batch")
+  public ResponseEntity<List<BatchResult>> batch(
+      AddressBook book,
+      @RequestBody @NotNull(message = "operations must not be null") List<BatchOperation> operations) {
+    if (operations.size() > MAX_BATCH_SIZE) return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+
+    return new ResponseEntity<>(book.getClusterContactService().applyBatch(operations), HttpStatus.OK);
+  }
+
+  /**
+   * Imports a CSV or newline-delimited JSON body as it streams in; see {@link ContactImporter}.
+   * Invalid records are skipped and listed in the result. In a cluster the contacts get ids owned
+   * by this node.
+   */
+  @PostMapping(
+      value = "/import",
+      consumes = {BulkFormat.CSV_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+  public ResponseEntity<ImportResult> importContacts(
+      AddressBook book, @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType, InputStream body)
+      throws IOException {
+    return ResponseEntity.ok(
+        contactImporter.importContacts(body, BulkFormat.of(contentType), book.getContactService()));
   }
 
+  /** Streams every contact of this node as CSV; see {@link ContactExporter}. */
+  @GetMapping(value = "/export", produces = BulkFormat.CSV_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportCsv(AddressBook book) {
+    return export(book, BulkFormat.CSV);
+  }
+
+  /** Streams every contact of this node as newline-delimited JSON; see {@link ContactExporter}. */
+  @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportNdjson(AddressBook book) {
+    return export(book, BulkFormat.NDJSON);
+  }
+
+  /**
+   * With {@code If-Match}, the contact is only replaced while it is still at one of the listed
+   * versions; otherwise the answer is 412 and nothing is written.
+   */
   @PutMapping("/{contactId}")
   public ResponseEntity<Contact> update(
+      AddressBook book,
       @PathVariable(value = "contactId") long contactId,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
       @RequestBody
           @Validated(value = {UpdateGroup.class})
           @NotNull(message = "contact must not be null")
           Contact contact) {
     if (hasContactIdMismatch(contactId, contact)) return ResponseEntity.badRequest().build();
 
-    return new ResponseEntity<>(contactService.update(contact), HttpStatus.OK);
+    ContactService contactService = book.getContactService();
+    Contact updated = contactService.update(contact, expectedVersion(contactService, contactId, ifMatch));
+    return ResponseEntity.ok().eTag(eTag(updated.getVersion())).body(updated);
   }
 
+  /** Honours {@code If-Match} like {@link #update}. */
   @DeleteMapping("/{contactId}")
-  public ResponseEntity delete(@PathVariable(value = "contactId") long contactId) {
-    contactService.remove(contactId);
+  public ResponseEntity delete(
+      AddressBook book,
+      @PathVariable(value = "contactId") long contactId,
+      @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    ContactService contactService = book.getContactService();
+    contactService.remove(contactId, expectedVersion(contactService, contactId, ifMatch));
     return new ResponseEntity("deleted contactId successfully", HttpStatus.NO_CONTENT);
   }
 
+  /** Returns how many contacts have a name starting with {@code contactPrefix}. */
+  @GetMapping("/count")
+  public ResponseEntity<Long> countContactByPrefix(
+      AddressBook book, @RequestParam("contactPrefix") String contactPrefix) {
+    return new ResponseEntity<>(book.getClusterContactService().countByPrefix(contactPrefix), HttpStatus.OK);
+  }
+
+  /** Returns the {@code k} most recently created contacts whose name starts with {@code prefix}. */
+  @GetMapping("/autocomplete")
+  public ResponseEntity<List<Contact>> autocomplete(
+      AddressBook book,
+      @RequestParam("prefix") String prefix,
+      @RequestParam(value = "k", defaultValue = "" + ContactService.MAX_AUTOCOMPLETE) int k) {
+    if (k < 1 || k > ContactService.MAX_AUTOCOMPLETE) return ResponseEntity.badRequest().build();
+
+    return new ResponseEntity<>(book.getClusterContactService().autocomplete(prefix, k), HttpStatus.OK);
+  }
+
+  /**
+   * The contact's version is its ETag; Spring answers a matching {@code If-None-Match} with a 304
+   * and no body.
+   */
   @GetMapping("/{contactId}")
-  public ResponseEntity<Contact> read(@PathVariable(value = "contactId") long contactId) {
-    return new ResponseEntity<>(contactService.get(contactId), HttpStatus.OK);
+  public ResponseEntity<Contact> read(AddressBook book, @PathVariable(value = "contactId") long contactId) {
+    Contact contact = book.getContactService().get(contactId);
+    return ResponseEntity.ok().eTag(eTag(contact.getVersion())).body(contact);
+  }
+
+  /**
+   * Without {@code limit} and {@code cursor} every match is returned, from the response cache,
+   * which keeps the JSON and the Smile body apart. Otherwise one page is returned with the number of all matches in the
+   * {@value #TOTAL_COUNT_HEADER} header and, when more matches follow, the token for the next page
+   * in the {@value #NEXT_CURSOR_HEADER} header.
+   */
+  @GetMapping(params = "contactPrefix")
+  public ResponseEntity<?> readContactByPrefix(
+      AddressBook book,
+      @RequestParam("contactPrefix") String contactPrefix,
+      @RequestParam(value = "limit", required = false) Integer limit,
+      @RequestParam(value = "cursor", required = false) String cursor,
+      @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+    ClusterContactService clusterContactService = book.getClusterContactService();
+    if (limit == null && cursor == null) {
+      WireFormat format = WireFormat.negotiate(MediaType.parseMediaTypes(accept));
+      return ResponseEntity.ok()
+          .contentType(format.getMediaType())
+          .body(clusterContactService.readByPrefixBody(contactPrefix, format));
+    }
+    if (limit != null && limit < 1) return ResponseEntity.badRequest().build();
+
+    ContactPage page =
+        clusterContactService.readByPrefix(
+            contactPrefix,
+            cursor == null ? null : SearchCursor.decode(cursor),
+            limit == null ? Integer.MAX_VALUE : limit);
+    HttpHeaders headers = new HttpHeaders();
+    headers.set(TOTAL_COUNT_HEADER, Long.toString(clusterContactService.countByPrefix(contactPrefix)));
+    if (page.getNextCursor() != null) {
+      headers.set(NEXT_CURSOR_HEADER, page.getNextCursor().encode());
+    }
+    return new ResponseEntity<>(page.getContacts(), headers, HttpStatus.OK);
+  }
+
+  /**
+   * Finds contacts whose name is within {@code maxEdits} (1 to {@value #MAX_FUZZY_EDITS}) typos
+   * of {@code fuzzy}, closest first.
+   */
+  @GetMapping(params = "fuzzy")
+  public ResponseEntity<List<Contact>> fuzzySearchContacts(
+      AddressBook book,
+      @RequestParam("fuzzy") String fuzzy,
+      @RequestParam(value = "maxEdits", defaultValue = "" + MAX_FUZZY_EDITS) int maxEdits,
+      @RequestParam(value = "limit", required = false) Integer limit) {
+    if (maxEdits < 1 || maxEdits > MAX_FUZZY_EDITS) return ResponseEntity.badRequest().build();
+    if (limit != null && limit < 1) return ResponseEntity.badRequest().build();
+
+    return new ResponseEntity<>(
+        book.getClusterContactService().fuzzySearch(fuzzy, maxEdits, limit == null ? Integer.MAX_VALUE : limit),
+        HttpStatus.OK);
+  }
+
+  /**
+   * Finds contacts whose name has a word starting with each word of {@code q}, ignoring case and
+   * accents, in id order.
+   */
+  @GetMapping(params = "q")
+  public ResponseEntity<List<Contact>> searchContacts(
+      AddressBook book,
+      @RequestParam("q") String q,
+      @RequestParam(value = "limit", required = false) Integer limit) {
+    if (TokenIndex.tokens(q).isEmpty()) return ResponseEntity.badRequest().build();
+    if (limit != null && limit < 1) return ResponseEntity.badRequest().build();
+
+    return new ResponseEntity<>(
+        book.getClusterContactService().searchByTokens(q, limit == null ? Integer.MAX_VALUE : limit), HttpStatus.OK);
+  }
+
+  /**
+   * Looks contacts up by phone number. Only the digits count, so any formatting matches; with
+   * {@code prefix=true} every number starting with those digits matches.
+   */
+  @GetMapping(params = "phone")
+  public ResponseEntity<List<Contact>> readContactByPhone(
+      AddressBook book,
+      @RequestParam("phone") String phone,
+      @RequestParam(value = "prefix", defaultValue = "false") boolean prefix,
+      @RequestParam(value = "limit", required = false) Integer limit) {
+    if (PhoneIndex.normalize(phone) == null) return ResponseEntity.badRequest().build();
+    if (limit != null && limit < 1) return ResponseEntity.badRequest().build();
+
+    return new ResponseEntity<>(
+        book.getClusterContactService().readByPhone(phone, prefix, limit == null ? Integer.MAX_VALUE : limit),
+        HttpStatus.OK);
+  }
+
+  /**
+   * Streams every match as newline-delimited JSON while walking the name index. Contacts go
+   * through the generator's fixed-size buffer straight to the response, and a slow client blocks
+   * the walk instead of piling up output, so memory stays flat however many contacts match. In a
+   * cluster the nodes' streams are merged the same way, one contact at a time.
+   */
+  @GetMapping(params = "contactPrefix", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamContactByPrefix(
+      AddressBook book, @RequestParam("contactPrefix") String contactPrefix) {
+    return stream(book, contactPrefix, WireFormat.JSON);
+  }
+
+  /**
+   * Streams every match like {@link #streamContactByPrefix}, as a sequence of Smile values, one
+   * per contact. Property names are written once for the whole stream and referred back to after
+   * that, so each further contact costs little more than its values.
+   */
+  @GetMapping(params = "contactPrefix", produces = WireFormat.SMILE_STREAM_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamContactByPrefixSmile(
+      AddressBook book, @RequestParam("contactPrefix") String contactPrefix) {
+    return stream(book, contactPrefix, WireFormat.SMILE);
+  }
+
+  /**
+   * Streams every contact write as a Server-Sent Event whose id is its sequence. Resumes after
+   * {@code Last-Event-ID}, or after {@code since}, while the events are still retained; without
+   * either the stream starts with the next write. In a cluster each node streams its own writes.
+   */
+  @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter changes(
+      AddressBook book,
+      @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+      @RequestParam(value = "since", required = false) Long since) {
+    return changeStreams.subscribe(book.getChangeFeed(), lastEventId != null ? lastEventId : since);
   }
 
-  // paging ?
-    @GetMapping
-    public ResponseEntity<List<Contact>> readContactByPrefix(
-        @RequestParam("contactPrefix") String contactPrefix) {
-      return new ResponseEntity<>(contactService.readByPrefix(contactPrefix), HttpStatus.OK);
+  private ResponseEntity<StreamingResponseBody> stream(AddressBook book, String contactPrefix, WireFormat format) {
+    ObjectMapper objectMapper = wireMappers.get(format);
+    ObjectWriter writer =
+        objectMapper.writerFor(Contact.class).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    ClusterContactService.ContactScan scan = book.getClusterContactService().scanByPrefix(contactPrefix);
+    StreamingResponseBody body =
+        out -> {
+          try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            if (format == WireFormat.JSON) {
+              generator.setRootValueSeparator(null);
+            }
+            scan.forEach(
+                contact -> {
+                  try {
+                    writer.writeValue(generator, contact);
+                    if (format == WireFormat.JSON) {
+                      generator.writeRaw('\n');
+                    }
+                  } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                  }
+                });
+          } catch (UncheckedIOException e) {
+            throw e.getCause();
+          }
+        };
+    return ResponseEntity.ok().contentType(format.getStreamMediaType()).body(body);
+  }
+
+  private ResponseEntity<StreamingResponseBody> export(AddressBook book, BulkFormat format) {
+    StreamingResponseBody body = out -> contactExporter.export(out, format, book.getContactService());
+    return ResponseEntity.ok().contentType(format.getMediaType()).body(body);
+  }
+
+  static String eTag(Long version) {
+    return "\"" + version + "\"";
+  }
+
+  /**
+   * @return the version an {@code If-Match} header allows a write to replace: none without the
+   *     header or for {@code *}, else the current one if it is among the listed entity tags
+   */
+  static Long expectedVersion(ContactService contactService, long contactId, String ifMatch) {
+    if (ifMatch == null || ifMatch.trim().equals("*")) return null;
+
+    Long current = contactService.get(contactId).getVersion();
+    for (String tag : ifMatch.split(",")) {
+      if (tag.trim().equals(eTag(current))) return current;
     }
+    throw new VersionConflictException(contactId, current);
+  }
 
   private boolean hasContactIdMismatch(long contactId, Contact contact) {
     return ((contact.getId() == null) || (!contact.getId().equals(contactId)));
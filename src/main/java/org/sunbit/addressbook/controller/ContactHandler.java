@@ -0,0 +1,334 @@
+package org.sunbit.addressbook.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.feed.ChangeEvent;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.feed.ChangeFeedProperties;
+import org.sunbit.addressbook.feed.ChangeStreams;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.index.TokenIndex;
+import org.sunbit.addressbook.model.BatchOperation;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ContactPage;
+import org.sunbit.addressbook.model.SearchCursor;
+import org.sunbit.addressbook.validator.CreateGroup;
+import org.sunbit.addressbook.validator.UpdateGroup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * The {@link ContactController} API for the reactive stack, served by {@link ContactRouter}.
+ * Reads only touch the in-memory indexes and run right on the event loop; writes may wait for a
+ * stripe lock or a write-ahead log sync, so they run on the bounded elastic scheduler instead.
+ * Responses and status codes are the controller's, on this node only: the cluster needs the
+ * servlet stack, and so do bulk import and export, which stream through blocking I/O, and tenant
+ * address books: this stack always serves the default book.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ContactHandler {
+
+  /** Contacts read from the name index per step of a streamed prefix search. */
+  static final int STREAM_PAGE = 256;
+  private static final int READ_BATCH = 256;
+  private static final int SLICE_BYTES = 2 * 1024;
+  private static final ParameterizedTypeReference<List<BatchOperation>> OPERATIONS =
+      new ParameterizedTypeReference<>() {};
+
+  private final ContactService contactService;
+  private final ChangeFeed changeFeed;
+  private final ChangeFeedProperties changeFeedProperties;
+  private final Validator validator;
+
+  public ContactHandler(
+      ContactService contactService,
+      ChangeFeed changeFeed,
+      ChangeFeedProperties changeFeedProperties,
+      Validator validator) {
+    this.contactService = contactService;
+    this.changeFeed = changeFeed;
+    this.changeFeedProperties = changeFeedProperties;
+    this.validator = validator;
+  }
+
+  public Mono<ServerResponse> create(ServerRequest request) {
+    return contact(request, CreateGroup.class)
+        .flatMap(contact -> write(() -> contactService.create(contact)))
+        .flatMap(created -> respond(HttpStatus.CREATED, request)
+            .eTag(ContactController.eTag(created.getVersion()))
+            .bodyValue(created));
+  }
+
+  public Mono<ServerResponse> batch(ServerRequest request) {
+    return request.bodyToMono(OPERATIONS)
+        .switchIfEmpty(Mono.error(() -> new ServerWebInputException("operations must not be null")))
+        .flatMap(operations -> operations.size() > ContactController.MAX_BATCH_SIZE
+            ? ServerResponse.status(HttpStatus.PAYLOAD_TOO_LARGE).build()
+            : write(() -> contactService.applyBatch(operations))
+                .flatMap(results -> respond(HttpStatus.OK, request).bodyValue(results)));
+  }
+
+  public Mono<ServerResponse> update(ServerRequest request) {
+    long contactId = contactId(request);
+    String ifMatch = request.headers().firstHeader(HttpHeaders.IF_MATCH);
+    return contact(request, UpdateGroup.class)
+        .flatMap(contact -> contact.getId() == null || contact.getId() != contactId
+            ? ServerResponse.badRequest().build()
+            : write(() -> contactService.update(
+                    contact, ContactController.expectedVersion(contactService, contactId, ifMatch)))
+                .flatMap(updated -> respond(HttpStatus.OK, request)
+                    .eTag(ContactController.eTag(updated.getVersion()))
+                    .bodyValue(updated)));
+  }
+
+  public Mono<ServerResponse> delete(ServerRequest request) {
+    long contactId = contactId(request);
+    String ifMatch = request.headers().firstHeader(HttpHeaders.IF_MATCH);
+    return write(() -> {
+          contactService.remove(contactId, ContactController.expectedVersion(contactService, contactId, ifMatch));
+          return contactId;
+        })
+        .then(ServerResponse.noContent().build());
+  }
+
+  /** Answers a matching {@code If-None-Match} with a 304 like the controller. */
+  public Mono<ServerResponse> read(ServerRequest request) {
+    Contact contact = contactService.get(contactId(request));
+    String eTag = ContactController.eTag(contact.getVersion());
+    return request.checkNotModified(eTag)
+        .switchIfEmpty(Mono.defer(() -> respond(HttpStatus.OK, request).eTag(eTag).bodyValue(contact)));
+  }
+
+  public Mono<ServerResponse> count(ServerRequest request) {
+    return respond(HttpStatus.OK, request)
+        .bodyValue(contactService.countByPrefix(requiredParam(request, "contactPrefix")));
+  }
+
+  public Mono<ServerResponse> autocomplete(ServerRequest request) {
+    int k = intParam(request, "k", ContactService.MAX_AUTOCOMPLETE);
+    if (k < 1 || k > ContactService.MAX_AUTOCOMPLETE) return ServerResponse.badRequest().build();
+
+    return respond(HttpStatus.OK, request).bodyValue(contactService.autocomplete(requiredParam(request, "prefix"), k));
+  }
+
+  /**
+   * Full results come from the response cache; with {@code limit} or {@code cursor} one page. The
+   * cached array goes out in {@value #SLICE_BYTES} byte slices: Netty copies what is written into
+   * direct memory and takes up to 128 items ahead of a slow client, so whole responses would hold
+   * megabytes of it per connection where slices hold at most 256KB.
+   */
+  public Mono<ServerResponse> readByPrefix(ServerRequest request) {
+    String contactPrefix = requiredParam(request, "contactPrefix");
+    String cursor = request.queryParam("cursor").orElse(null);
+    if (request.queryParam("limit").isEmpty() && cursor == null) {
+      WireFormat format = WireFormat.negotiate(request.headers().accept());
+      byte[] body = contactService.readByPrefixBody(contactPrefix, format);
+      return ServerResponse.ok()
+          .contentType(format.getMediaType())
+          .contentLength(body.length)
+          .body(slices(body), DataBuffer.class);
+    }
+    int limit = intParam(request, "limit", Integer.MAX_VALUE);
+    if (limit < 1) return ServerResponse.badRequest().build();
+
+    ContactPage page =
+        contactService.readByPrefix(contactPrefix, cursor == null ? null : SearchCursor.decode(cursor), limit);
+    ServerResponse.BodyBuilder response = respond(HttpStatus.OK, request)
+        .header(ContactController.TOTAL_COUNT_HEADER, Long.toString(contactService.countByPrefix(contactPrefix)));
+    if (page.getNextCursor() != null) {
+      response.header(ContactController.NEXT_CURSOR_HEADER, page.getNextCursor().encode());
+    }
+    return response.bodyValue(page.getContacts());
+  }
+
+  /**
+   * Emits every match as newline-delimited JSON or, for {@value WireFormat#SMILE_STREAM_VALUE}, as
+   * a sequence of Smile values. The name index is read {@value #STREAM_PAGE} contacts at a time,
+   * and only as the client takes them, so a slow client holds neither a thread nor a growing
+   * buffer.
+   */
+  public Mono<ServerResponse> streamByPrefix(ServerRequest request, WireFormat format) {
+    String contactPrefix = requiredParam(request, "contactPrefix");
+    Flux<Contact> contacts = Mono.fromSupplier(() -> contactService.readByPrefix(contactPrefix, null, STREAM_PAGE))
+        .expand(page -> page.getNextCursor() == null
+            ? Mono.empty()
+            : Mono.fromSupplier(() -> contactService.readByPrefix(contactPrefix, page.getNextCursor(), STREAM_PAGE)))
+        .concatMapIterable(ContactPage::getContacts);
+    return ServerResponse.ok().contentType(format.getStreamMediaType()).body(contacts, Contact.class);
+  }
+
+  public Mono<ServerResponse> fuzzySearch(ServerRequest request) {
+    int maxEdits = intParam(request, "maxEdits", ContactController.MAX_FUZZY_EDITS);
+    int limit = intParam(request, "limit", Integer.MAX_VALUE);
+    if (maxEdits < 1 || maxEdits > ContactController.MAX_FUZZY_EDITS) return ServerResponse.badRequest().build();
+    if (limit < 1) return ServerResponse.badRequest().build();
+
+    return respond(HttpStatus.OK, request)
+        .bodyValue(contactService.fuzzySearch(requiredParam(request, "fuzzy"), maxEdits, limit));
+  }
+
+  public Mono<ServerResponse> searchByTokens(ServerRequest request) {
+    String q = requiredParam(request, "q");
+    int limit = intParam(request, "limit", Integer.MAX_VALUE);
+    if (TokenIndex.tokens(q).isEmpty()) return ServerResponse.badRequest().build();
+    if (limit < 1) return ServerResponse.badRequest().build();
+
+    return respond(HttpStatus.OK, request).bodyValue(contactService.searchByTokens(q, limit));
+  }
+
+  public Mono<ServerResponse> readByPhone(ServerRequest request) {
+    String phone = requiredParam(request, "phone");
+    boolean prefix = Boolean.parseBoolean(request.queryParam("prefix").orElse("false"));
+    int limit = intParam(request, "limit", Integer.MAX_VALUE);
+    if (PhoneIndex.normalize(phone) == null) return ServerResponse.badRequest().build();
+    if (limit < 1) return ServerResponse.badRequest().build();
+
+    return respond(HttpStatus.OK, request).bodyValue(contactService.readByPhone(phone, prefix, limit));
+  }
+
+  /**
+   * The change feed as Server-Sent Events, with the events, gaps and heartbeats of
+   * {@link ChangeStreams}. The feed is polled on a timer instead of by a thread per subscriber, so
+   * open streams cost no threads and {@code max-subscribers} does not apply.
+   */
+  public Mono<ServerResponse> changes(ServerRequest request) {
+    String lastEventId = request.headers().firstHeader("Last-Event-ID");
+    Long lastSeen = lastEventId != null ? parseLong("Last-Event-ID", lastEventId)
+        : request.queryParam("since").map(since -> parseLong("since", since)).orElse(null);
+    Flux<ServerSentEvent<Object>> events = Flux.defer(() -> {
+      FeedPosition position = new FeedPosition(lastSeen == null ? changeFeed.lastSequence() + 1 : lastSeen + 1);
+      return Flux.interval(changeFeedProperties.getPollInterval())
+          .onBackpressureDrop()
+          .concatMap(tick -> Flux.fromIterable(poll(position)), 1);
+    });
+    return ServerResponse.ok()
+        .contentType(MediaType.TEXT_EVENT_STREAM)
+        .body(BodyInserters.fromServerSentEvents(events));
+  }
+
+  private List<ServerSentEvent<Object>> poll(FeedPosition position) {
+    List<ServerSentEvent<Object>> events = new ArrayList<>();
+    long oldest = changeFeed.oldestSequence();
+    if (position.next < oldest || position.next > changeFeed.lastSequence() + 1) {
+      events.add(ServerSentEvent.builder()
+          .event(ChangeStreams.EVENT_GAP)
+          .id(Long.toString(oldest - 1))
+          .data((Object) Map.of("requested", position.next, "next", oldest))
+          .build());
+      position.next = oldest;
+    }
+    position.next = changeFeed.read(position.next, READ_BATCH, event -> events.add(change(event)));
+    long now = System.nanoTime();
+    if (!events.isEmpty()) {
+      position.idleSince = now;
+    } else if (now - position.idleSince >= changeFeedProperties.getHeartbeat().toNanos()) {
+      events.add(ServerSentEvent.builder().comment("heartbeat").build());
+      position.idleSince = now;
+    }
+    return events;
+  }
+
+  private static ServerSentEvent<Object> change(ChangeEvent event) {
+    return ServerSentEvent.builder()
+        .event(ChangeStreams.EVENT_CHANGE)
+        .id(Long.toString(event.getSequence()))
+        .data((Object) event)
+        .build();
+  }
+
+  /** Reads and validates the request's contact. */
+  private Mono<Contact> contact(ServerRequest request, Class<?> group) {
+    return request.bodyToMono(Contact.class)
+        .switchIfEmpty(Mono.error(() -> new ServerWebInputException("contact must not be null")))
+        .doOnNext(contact -> {
+          List<String> violations = validator.validate(contact, group).stream()
+              .map(ConstraintViolation::getMessage)
+              .sorted()
+              .collect(Collectors.toList());
+          if (!violations.isEmpty()) {
+            throw new ServerWebInputException(String.join(", ", violations));
+          }
+        });
+  }
+
+  /**
+   * A response in the format {@code Accept} picks. Unlike the controller's, functional responses
+   * are not negotiated: without a content type they go to the first writer of the body's type.
+   */
+  private static ServerResponse.BodyBuilder respond(HttpStatus status, ServerRequest request) {
+    return ServerResponse.status(status).contentType(WireFormat.negotiate(request.headers().accept()).getMediaType());
+  }
+
+  private static Flux<DataBuffer> slices(byte[] bytes) {
+    return Flux.range(0, (bytes.length + SLICE_BYTES - 1) / SLICE_BYTES)
+        .map(slice -> DefaultDataBufferFactory.sharedInstance.wrap(ByteBuffer.wrap(
+            bytes, slice * SLICE_BYTES, Math.min(SLICE_BYTES, bytes.length - slice * SLICE_BYTES))));
+  }
+
+  private static <T> Mono<T> write(Callable<T> write) {
+    return Mono.fromCallable(write).subscribeOn(Schedulers.boundedElastic());
+  }
+
+  private static long contactId(ServerRequest request) {
+    return parseLong("contactId", request.pathVariable("contactId"));
+  }
+
+  private static String requiredParam(ServerRequest request, String name) {
+    return request.queryParam(name)
+        .orElseThrow(() -> new ServerWebInputException("missing request parameter " + name));
+  }
+
+  private static int intParam(ServerRequest request, String name, int defaultValue) {
+    String value = request.queryParam(name).orElse(null);
+    if (value == null) return defaultValue;
+
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new ServerWebInputException("request parameter " + name + " is not a number: " + value);
+    }
+  }
+
+  private static long parseLong(String name, String value) {
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new ServerWebInputException(name + " is not a number: " + value);
+    }
+  }
+
+  /** A change stream's next sequence; only touched by one poll at a time. */
+  private static final class FeedPosition {
+
+    private long next;
+    private long idleSince = System.nanoTime();
+
+    private FeedPosition(long next) {
+      this.next = next;
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package org.sunbit.addressbook.controller;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.sunbit.addressbook.cluster.ShardMap;
+import org.sunbit.addressbook.codec.WireFormat;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
+
+/**
+ * Routes the contact API to {@link ContactHandler} when the application runs on the reactive
+ * stack ({@code spring.main.web-application-type=reactive}), on Netty.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ContactRouter {
+
+  private static final String CONTACT = ContactController.PATH + "/{contactId}";
+
+  /** Tomcat is on the classpath for the servlet stack; the reactive one runs on an event loop. */
+  @Bean
+  public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+    return new NettyReactiveWebServerFactory();
+  }
+
+  @Bean
+  public RouterFunction<ServerResponse> contactRoutes(ContactHandler handler, ShardMap shardMap) {
+    if (shardMap.isEnabled()) {
+      throw new IllegalStateException("addressbook.cluster needs the servlet stack");
+    }
+    return RouterFunctions.route()
+        .POST(ContactController.PATH, handler::create)
+        .POST(ContactController.PATH + "/batch", handler::batch)
+        .GET(ContactController.PATH + "/count", handler::count)
+        .GET(ContactController.PATH + "/autocomplete", handler::autocomplete)
+        .GET(ContactController.PATH + "/changes", handler::changes)
+        .GET(CONTACT, handler::read)
+        .PUT(CONTACT, handler::update)
+        .DELETE(CONTACT, handler::delete)
+        .GET(ContactController.PATH, present("contactPrefix").and(acceptsExactly(MediaType.APPLICATION_NDJSON)),
+            request -> handler.streamByPrefix(request, WireFormat.JSON))
+        .GET(ContactController.PATH,
+            present("contactPrefix").and(acceptsExactly(WireFormat.SMILE.getStreamMediaType())),
+            request -> handler.streamByPrefix(request, WireFormat.SMILE))
+        .GET(ContactController.PATH, present("contactPrefix"), handler::readByPrefix)
+        .GET(ContactController.PATH, present("fuzzy"), handler::fuzzySearch)
+        .GET(ContactController.PATH, present("q"), handler::searchByTokens)
+        .GET(ContactController.PATH, present("phone"), handler::readByPhone)
+        .build();
+  }
+
+  private static RequestPredicate present(String name) {
+    return queryParam(name, value -> true);
+  }
+
+  /** Only an explicit streaming {@code Accept} streams; wildcards get the cached JSON array. */
+  private static RequestPredicate acceptsExactly(MediaType mediaType) {
+    return request -> request.headers().accept().stream().anyMatch(mediaType::equalsTypeAndSubtype);
+  }
+}
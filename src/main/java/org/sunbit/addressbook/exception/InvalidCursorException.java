@@ -0,0 +1,11 @@
+package org.sunbit.addressbook.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class InvalidCursorException extends ResponseStatusException {
+
+    public InvalidCursorException(String cursor) {
+        super(HttpStatus.BAD_REQUEST, "invalid cursor " + cursor);
+    }
+}
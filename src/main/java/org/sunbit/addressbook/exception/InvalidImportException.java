@@ -0,0 +1,11 @@
+package org.sunbit.addressbook.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class InvalidImportException extends ResponseStatusException {
+
+    public InvalidImportException(String reason) {
+        super(HttpStatus.BAD_REQUEST, reason);
+    }
+}
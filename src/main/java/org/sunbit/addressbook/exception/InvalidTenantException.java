@@ -0,0 +1,11 @@
+package org.sunbit.addressbook.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class InvalidTenantException extends ResponseStatusException {
+
+    public InvalidTenantException(String tenant) {
+        super(HttpStatus.BAD_REQUEST, "invalid tenant " + tenant);
+    }
+}
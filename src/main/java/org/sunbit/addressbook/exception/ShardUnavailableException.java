@@ -0,0 +1,15 @@
+package org.sunbit.addressbook.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class ShardUnavailableException extends ResponseStatusException {
+
+    public ShardUnavailableException(String node, Throwable cause) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "node " + node + " did not answer", cause);
+    }
+
+    public ShardUnavailableException(String node, int status) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "node " + node + " answered " + status);
+    }
+}
@@ -0,0 +1,11 @@
+package org.sunbit.addressbook.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class SubscriberLimitException extends ResponseStatusException {
+
+    public SubscriberLimitException(int limit) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, "all " + limit + " change-feed subscriptions are taken");
+    }
+}
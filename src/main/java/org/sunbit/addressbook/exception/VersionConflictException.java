@@ -0,0 +1,11 @@
+package org.sunbit.addressbook.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+public class VersionConflictException extends ResponseStatusException {
+
+    public VersionConflictException(long id, Long version) {
+        super(HttpStatus.PRECONDITION_FAILED, "contact id " + id + " is at version " + version);
+    }
+}
@@ -0,0 +1,25 @@
+package org.sunbit.addressbook.feed;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.sunbit.addressbook.model.Contact;
+
+/** A write as seen by change-feed subscribers; {@code contact} is the new state, absent on REMOVE. */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ChangeEvent {
+
+    public enum Type {
+        PUT,
+        REMOVE
+    }
+
+    private long sequence;
+    private Type type;
+    private long id;
+    private Contact contact;
+}
@@ -0,0 +1,126 @@
+package org.sunbit.addressbook.feed;
+
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.model.Contact;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The last {@code capacity} contact writes, numbered from 1 in the order their sequence was
+ * claimed, in a fixed ring of preallocated slots.
+ *
+ * <p>Publishing claims a sequence with one atomic increment and fills the slot it maps to; it
+ * never allocates and never waits for readers. A reader that falls a full lap behind simply finds
+ * its events overwritten and learns about it from {@link #oldestSequence()}.
+ *
+ * <p>Each slot is a seqlock: its sequence is set to {@code WRITING} while the fields change and to
+ * the event's sequence once they are complete, so a reader accepts the fields only if it sees the
+ * same sequence before and after reading them. Two writers meet on a slot only when one of them is
+ * a full lap behind; the later sequence wins.
+ */
+@Component
+public class ChangeFeed {
+
+    private static final long EMPTY = -1;
+    private static final long WRITING = -2;
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(Slot.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong lastClaimed = new AtomicLong();
+
+    public ChangeFeed(ChangeFeedProperties properties) {
+        int capacity = Integer.highestOneBit(Math.max(properties.getCapacity() - 1, 1)) << 1;
+        this.slots = new Slot[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    public void publishPut(Contact contact) {
+        publish(ChangeEvent.Type.PUT, contact.getId(), contact);
+    }
+
+    public void publishRemove(long id) {
+        publish(ChangeEvent.Type.REMOVE, id, null);
+    }
+
+    /** @return the sequence of the latest published or in-flight event, 0 before the first */
+    public long lastSequence() {
+        return lastClaimed.get();
+    }
+
+    /** @return the smallest sequence that may still be read */
+    public long oldestSequence() {
+        return Math.max(lastClaimed.get() - mask, 1);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Hands up to {@code max} events starting at {@code from} to {@code consumer}, in sequence
+     * order, stopping early at an event that is not published yet or was overwritten.
+     *
+     * @return the sequence to read next
+     */
+    public long read(long from, int max, Consumer<ChangeEvent> consumer) {
+        long sequence = from;
+        for (int read = 0; read < max; read++, sequence++) {
+            Slot slot = slots[(int) sequence & mask];
+            if ((long) SEQUENCE.getAcquire(slot) != sequence) {
+                break;
+            }
+            ChangeEvent.Type type = slot.type;
+            long id = slot.id;
+            Contact contact = slot.contact;
+            VarHandle.loadLoadFence();
+            if ((long) SEQUENCE.getAcquire(slot) != sequence) {
+                break;
+            }
+            consumer.accept(new ChangeEvent(sequence, type, id, contact));
+        }
+        return sequence;
+    }
+
+    private void publish(ChangeEvent.Type type, long id, Contact contact) {
+        long sequence = lastClaimed.incrementAndGet();
+        Slot slot = slots[(int) sequence & mask];
+        while (true) {
+            long current = (long) SEQUENCE.getVolatile(slot);
+            if (current > sequence) {
+                // a writer a full lap ahead already reused the slot
+                return;
+            }
+            if (current == WRITING) {
+                Thread.onSpinWait();
+            } else if (SEQUENCE.compareAndSet(slot, current, WRITING)) {
+                break;
+            }
+        }
+        slot.type = type;
+        slot.id = id;
+        slot.contact = contact;
+        SEQUENCE.setRelease(slot, sequence);
+    }
+
+    private static final class Slot {
+        long sequence = EMPTY;
+        ChangeEvent.Type type;
+        long id;
+        Contact contact;
+    }
+}
@@ -0,0 +1,20 @@
+package org.sunbit.addressbook.feed;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "addressbook.change-feed")
+public class ChangeFeedProperties {
+
+    /** Events kept for resuming subscribers; rounded up to a power of two. */
+    private int capacity = 65_536;
+    /** Open event streams; each is served by its own thread. */
+    private int maxSubscribers = 64;
+    /** How long an idle stream waits before looking for new events again. */
+    private Duration pollInterval = Duration.ofMillis(20);
+    /** Idle streams get a comment line this often, so proxies and clients see a live connection. */
+    private Duration heartbeat = Duration.ofSeconds(15);
+}
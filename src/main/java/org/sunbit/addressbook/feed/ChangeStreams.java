@@ -0,0 +1,137 @@
+package org.sunbit.addressbook.feed;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.sunbit.addressbook.exception.SubscriberLimitException;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Serves the {@link ChangeFeed} as Server-Sent Events. Every subscriber gets its own thread that
+ * reads the ring at its own pace, so a slow client only holds up itself; once it falls a full lap
+ * behind it is sent a {@code gap} event with the sequence it asked for and the oldest retained one,
+ * where it continues; the client should then resynchronize through the regular reads.
+ *
+ * <p>Events carry their sequence as the SSE id, so a reconnecting client resumes right after the
+ * last event it saw through the standard {@code Last-Event-ID} header. Sequences restart with the
+ * process; a client resuming past the newest sequence is sent a {@code gap} as well.
+ */
+@Log4j2
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class ChangeStreams {
+
+    public static final String EVENT_CHANGE = "change";
+    public static final String EVENT_GAP = "gap";
+    private static final int READ_BATCH = 256;
+
+    private final ChangeFeed changeFeed;
+    private final ChangeFeedProperties properties;
+    private final Semaphore subscriptions;
+    private final ExecutorService executor;
+
+    public ChangeStreams(ChangeFeed changeFeed, ChangeFeedProperties properties) {
+        this.changeFeed = changeFeed;
+        this.properties = properties;
+        this.subscriptions = new Semaphore(properties.getMaxSubscribers());
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "change-feed-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens a stream of the events after {@code lastSeen}, or of the events published from now on
+     * when it is null.
+     */
+    public SseEmitter subscribe(Long lastSeen) {
+        return subscribe(changeFeed, lastSeen);
+    }
+
+    /** Like {@link #subscribe(Long)}, for another feed, e.g. a tenant's; subscriptions count against one limit. */
+    public SseEmitter subscribe(ChangeFeed changeFeed, Long lastSeen) {
+        if (!subscriptions.tryAcquire()) {
+            throw new SubscriberLimitException(properties.getMaxSubscribers());
+        }
+        long from = lastSeen == null ? changeFeed.lastSequence() + 1 : lastSeen + 1;
+        // no timeout: heartbeats detect clients that went away
+        SseEmitter emitter = new SseEmitter(0L);
+        AtomicBoolean open = new AtomicBoolean(true);
+        emitter.onCompletion(() -> open.set(false));
+        emitter.onTimeout(() -> open.set(false));
+        emitter.onError(e -> open.set(false));
+        try {
+            executor.execute(() -> {
+                try {
+                    stream(changeFeed, emitter, open, from);
+                } finally {
+                    subscriptions.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            subscriptions.release();
+            throw e;
+        }
+        return emitter;
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private void stream(ChangeFeed changeFeed, SseEmitter emitter, AtomicBoolean open, long from) {
+        long next = from;
+        long idleSince = System.nanoTime();
+        try {
+            while (open.get() && !Thread.currentThread().isInterrupted()) {
+                long oldest = changeFeed.oldestSequence();
+                if (next < oldest || next > changeFeed.lastSequence() + 1) {
+                    emitter.send(SseEmitter.event()
+                            .name(EVENT_GAP)
+                            .id(Long.toString(oldest - 1))
+                            .data(Map.of("requested", next, "next", oldest)));
+                    next = oldest;
+                }
+                long read = changeFeed.read(next, READ_BATCH, event -> send(emitter, event));
+                if (read != next) {
+                    next = read;
+                    idleSince = System.nanoTime();
+                } else if (System.nanoTime() - idleSince >= properties.getHeartbeat().toNanos()) {
+                    emitter.send(SseEmitter.event().comment("heartbeat"));
+                    idleSince = System.nanoTime();
+                } else {
+                    LockSupport.parkNanos(properties.getPollInterval().toNanos());
+                }
+            }
+            emitter.complete();
+        } catch (IOException | UncheckedIOException | IllegalStateException e) {
+            log.debug("change-feed subscriber went away at sequence {}", next);
+            emitter.completeWithError(e);
+        }
+    }
+
+    private static void send(SseEmitter emitter, ChangeEvent event) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .name(EVENT_CHANGE)
+                    .id(Long.toString(event.getSequence()))
+                    .data(event));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
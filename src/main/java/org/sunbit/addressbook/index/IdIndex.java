@@ -0,0 +1,50 @@
+package org.sunbit.addressbook.index;
+
+/**
+ * Structure mapping string keys to sorted sets of entity ids, the storage behind a
+ * {@link KeyIndex}. Implementations are safe for concurrent readers and writers, and count their
+ * lookups for the index metrics.
+ */
+public interface IdIndex {
+
+    SecondaryIndex.Structure structure();
+
+    void add(String key, long id);
+
+    void remove(String key, long id);
+
+    /** Moves {@code id} from {@code oldKey} to {@code newKey}. */
+    void replace(String oldKey, String newKey, long id);
+
+    /** Starts collecting changes that are applied together by {@link Batch#apply()}. */
+    Batch batch();
+
+    /** Adds the first {@code count} keys and ids, in any order, in one pass. */
+    void addAll(String[] keys, long[] ids, int count);
+
+    /** @return the ids stored under exactly {@code key}, sorted, empty if none */
+    long[] get(String key);
+
+    /**
+     * Visits every key starting with {@code prefix} in ascending order. The id arrays handed to
+     * the visitor are shared and must not be modified.
+     *
+     * @throws UnsupportedOperationException if the keys are not ordered
+     */
+    void forEachPrefixedBy(String prefix, IdTrie.KeyVisitor visitor);
+
+    /** O(nodes): meant for periodic metrics, not per request. */
+    IndexStats stats();
+
+    /** @return how many lookups were served since creation */
+    long lookups();
+
+    interface Batch {
+
+        Batch add(String key, long id);
+
+        Batch remove(String key, long id);
+
+        void apply();
+    }
+}
@@ -0,0 +1,876 @@
+package org.sunbit.addressbook.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Concurrent radix trie mapping string keys to sorted postings of entity ids.
+ *
+ * <p>Published nodes are never modified. A write copies the path from the root to the touched node
+ * and publishes the new root with a single volatile store, so readers work on a consistent snapshot
+ * and never block or retry (wait-free), no matter how many writes happen during a scan. Writers are
+ * serialized among themselves; a write costs O(key length + fan-out along the path).
+ *
+ * <p>Every write session carries an edit token, and nodes copied in that session are tagged with
+ * it and mutated in place for the rest of the session. A {@link Batch} therefore copies each shared
+ * node once rather than once per change, and publishes once.
+ *
+ * <p>When created with a {@code topK}, every node whose subtree holds more than {@code topK} ids
+ * also caches the {@code topK} highest (most recently created) of them. Writes merge the id into
+ * the caches along the path they copy anyway, in O(topK) per node, and only recompute a cache from
+ * the node's children when they remove one of its ids. A smaller subtree has fewer than
+ * {@code 2 * topK} nodes, so {@link #topIds} costs O(prefix length + topK) however many keys share
+ * the prefix.
+ */
+public class IdTrie implements IdIndex {
+
+    private static final long[] NO_IDS = new long[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+    private static final int PARALLEL_BUILD_THRESHOLD = 1 << 16;
+
+    private final int topK;
+    private volatile Node root = new Node("", NO_IDS, NO_CHILDREN, null);
+    private final LongAdder lookups = new LongAdder();
+
+    public IdTrie() {
+        this(0);
+    }
+
+    /** @param topK how many of the highest ids each node caches for {@link #topIds}; 0 disables it */
+    public IdTrie(int topK) {
+        if (topK < 0) {
+            throw new IllegalArgumentException("topK must not be negative: " + topK);
+        }
+        this.topK = topK;
+    }
+
+    @Override
+    public SecondaryIndex.Structure structure() {
+        return SecondaryIndex.Structure.TRIE;
+    }
+
+    @Override
+    public synchronized void add(String key, long id) {
+        root = insert(root, key, 0, id, new Object());
+    }
+
+    @Override
+    public synchronized void remove(String key, long id) {
+        root = delete(root, key, 0, id, new Object());
+    }
+
+    /** Moves {@code id} from {@code oldKey} to {@code newKey}; readers see either state, never neither. */
+    @Override
+    public synchronized void replace(String oldKey, String newKey, long id) {
+        Object edit = new Object();
+        root = insert(delete(root, oldKey, 0, id, edit), newKey, 0, id, edit);
+    }
+
+    /**
+     * Replaces the whole content with the first {@code count} entries, which must be sorted by key
+     * and then by id. The trie is built bottom-up in a single pass over the keys, without the
+     * per-entry path copying of {@link #add(String, long)}.
+     */
+    public synchronized void load(String[] keys, long[] ids, int count) {
+        root = count == 0 ? new Node("", NO_IDS, NO_CHILDREN, null) : build(keys, ids, 0, count, 0, "", topK);
+    }
+
+    /**
+     * Adds the first {@code count} entries, in any order; entries already sorted by key and then by
+     * id are taken as they are. They are built bottom-up like {@link #load} and the result is
+     * merged into the current content in a single write session: only the nodes where both hold
+     * keys are copied, every other new subtree is linked in as built.
+     */
+    @Override
+    public void addAll(String[] keys, long[] ids, int count) {
+        if (count == 0) {
+            return;
+        }
+        if (!sorted(keys, ids, count)) {
+            Change[] entries = new Change[count];
+            for (int i = 0; i < count; i++) {
+                entries[i] = new Change(keys[i], ids[i], true);
+            }
+            Arrays.parallelSort(entries, Comparator.comparing((Change e) -> e.key).thenComparingLong(e -> e.id));
+            keys = new String[count];
+            ids = new long[count];
+            for (int i = 0; i < count; i++) {
+                keys[i] = entries[i].key;
+                ids[i] = entries[i].id;
+            }
+        }
+        Node added = build(keys, ids, 0, count, 0, "", topK);
+        synchronized (this) {
+            root = merge(root, added, new Object());
+        }
+    }
+
+    /** Starts collecting changes that are applied together, sorted by key, by {@link Batch#apply()}. */
+    @Override
+    public Batch batch() {
+        return new Batch();
+    }
+
+    private synchronized void apply(List<Change> changes) {
+        Object edit = new Object();
+        Node node = root;
+        for (Change change : changes) {
+            node = change.add
+                    ? insert(node, change.key, 0, change.id, edit)
+                    : delete(node, change.key, 0, change.id, edit);
+        }
+        root = node;
+    }
+
+    /** @return a copy of the ids stored under exactly {@code key}, empty if none */
+    @Override
+    public long[] get(String key) {
+        lookups.increment();
+        Node node = root;
+        int pos = 0;
+        while (pos < key.length()) {
+            Node child = node.child(key.charAt(pos));
+            if (child == null || !key.startsWith(child.label, pos)) {
+                return NO_IDS;
+            }
+            pos += child.label.length();
+            node = child;
+        }
+        return node.ids.clone();
+    }
+
+    /** @return how many ids are stored under keys starting with {@code prefix}, in O(prefix length) */
+    public long count(String prefix) {
+        lookups.increment();
+        Node node = nodeCovering(prefix);
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * Walks the current snapshot for its node count and estimated heap size. O(nodes), but off the
+     * write path: meant for periodic metrics, not per request.
+     */
+    @Override
+    public Stats stats() {
+        Stats stats = new Stats();
+        addStats(root, stats);
+        return stats;
+    }
+
+    /** @return how many lookups, prefix scans and fuzzy walks were served since creation */
+    @Override
+    public long lookups() {
+        return lookups.sum();
+    }
+
+    private static void addStats(Node node, Stats stats) {
+        stats.nodes++;
+        stats.bytes += Stats.NODE_BYTES + Stats.STRING_BYTES + Stats.array(node.label.length(), 1);
+        if (node.ids != NO_IDS) {
+            stats.bytes += Stats.array(node.ids.length, Long.BYTES);
+        }
+        if (node.top != null) {
+            stats.bytes += Stats.array(node.top.length, Long.BYTES);
+        }
+        if (node.children != NO_CHILDREN) {
+            stats.bytes += Stats.array(node.children.length, Stats.REFERENCE_BYTES);
+        }
+        for (Node child : node.children) {
+            addStats(child, stats);
+        }
+    }
+
+    /** @return the topmost node whose keys all start with {@code prefix}, or null if there are none */
+    private Node nodeCovering(String prefix) {
+        Node node = root;
+        int pos = 0;
+        while (pos < prefix.length()) {
+            Node child = node.child(prefix.charAt(pos));
+            if (child == null) {
+                return null;
+            }
+            int len = Math.min(child.label.length(), prefix.length() - pos);
+            if (!child.label.regionMatches(0, prefix, pos, len)) {
+                return null;
+            }
+            pos += child.label.length();
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * @return up to {@code k} of the highest ids stored under keys starting with {@code prefix},
+     *     highest first
+     */
+    public long[] topIds(String prefix, int k) {
+        if (k < 0 || k > topK) {
+            throw new IllegalArgumentException("k must be between 0 and " + topK + ": " + k);
+        }
+        lookups.increment();
+        Node node = nodeCovering(prefix);
+        if (node == null) {
+            return NO_IDS;
+        }
+        long[] ascending = node.top;
+        if (ascending == null) {
+            IdCollector collector = new IdCollector();
+            collectSubtree(node, collector);
+            ascending = collector.sortedDistinct();
+        }
+        long[] result = new long[Math.min(k, ascending.length)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ascending[ascending.length - 1 - i];
+        }
+        return result;
+    }
+
+    /**
+     * Visits every key starting with {@code prefix} in ascending order, on a snapshot of the trie
+     * taken at call time. The id arrays handed to the visitor are shared and must not be modified.
+     */
+    @Override
+    public void forEachPrefixedBy(String prefix, KeyVisitor visitor) {
+        forEachPrefixedBy(prefix, null, visitor);
+    }
+
+    /**
+     * Like {@link #forEachPrefixedBy(String, KeyVisitor)} but starts at the first key that is
+     * greater than or equal to {@code fromKey}. Subtrees before {@code fromKey} are skipped without
+     * being walked, so resuming a scan costs O(key length) rather than O(keys already seen).
+     */
+    public void forEachPrefixedBy(String prefix, String fromKey, KeyVisitor visitor) {
+        lookups.increment();
+        if (fromKey != null && !fromKey.startsWith(prefix)) {
+            if (fromKey.compareTo(prefix) > 0) {
+                return;
+            }
+            fromKey = null;
+        }
+        Node node = root;
+        StringBuilder path = new StringBuilder();
+        int pos = 0;
+        while (pos < prefix.length()) {
+            Node child = node.child(prefix.charAt(pos));
+            if (child == null) {
+                return;
+            }
+            int len = Math.min(child.label.length(), prefix.length() - pos);
+            if (!child.label.regionMatches(0, prefix, pos, len)) {
+                return;
+            }
+            path.append(child.label);
+            pos += child.label.length();
+            node = child;
+        }
+        if (fromKey == null) {
+            visit(node, path, visitor);
+            return;
+        }
+        int position = compareToBound(path, fromKey);
+        if (position > 0) {
+            visit(node, path, visitor);
+        } else if (position == 0) {
+            visitFrom(node, path, fromKey, visitor);
+        }
+    }
+
+    /**
+     * Visits every key within Levenshtein distance {@code maxDistance} of {@code query}, in
+     * ascending key order, on a snapshot of the trie.
+     *
+     * <p>The walk carries the edit-distance row of the current path against the query and extends
+     * it by one row per label char, so the rows act as a Levenshtein automaton. A subtree is pruned
+     * as soon as no cell of the row is within {@code maxDistance}, because every key below it is
+     * then too far as well. Only O(query length * maxDistance) paths near the query survive, so the
+     * cost stays close to that of a prefix lookup instead of growing with the number of keys.
+     */
+    public void forEachWithinDistance(String query, int maxDistance, DistanceVisitor visitor) {
+        lookups.increment();
+        int[] row = new int[query.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        visitWithinDistance(root, new StringBuilder(), row, query, maxDistance, visitor);
+    }
+
+    /** {@code row} is the distance row of {@code path}, before {@code node}'s label is appended. */
+    private static boolean visitWithinDistance(
+            Node node, StringBuilder path, int[] row, String query, int maxDistance, DistanceVisitor visitor) {
+        int mark = path.length();
+        for (int i = 0; i < node.label.length(); i++) {
+            char c = node.label.charAt(i);
+            int[] next = new int[row.length];
+            next[0] = row[0] + 1;
+            int min = next[0];
+            for (int j = 1; j < row.length; j++) {
+                int substitution = row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1);
+                next[j] = Math.min(substitution, Math.min(row[j] + 1, next[j - 1] + 1));
+                min = Math.min(min, next[j]);
+            }
+            path.append(c);
+            row = next;
+            if (min > maxDistance) {
+                path.setLength(mark);
+                return true;
+            }
+        }
+        int distance = row[row.length - 1];
+        boolean proceed = node.ids.length == 0 || distance > maxDistance || visitor.visit(path, distance, node.ids);
+        for (int i = 0; proceed && i < node.children.length; i++) {
+            proceed = visitWithinDistance(node.children[i], path, row, query, maxDistance, visitor);
+        }
+        path.setLength(mark);
+        return proceed;
+    }
+
+    private static boolean visit(Node node, StringBuilder path, KeyVisitor visitor) {
+        if (node.ids.length > 0 && !visitor.visit(path, node.ids)) {
+            return false;
+        }
+        for (Node child : node.children) {
+            int mark = path.length();
+            path.append(child.label);
+            boolean proceed = visit(child, path, visitor);
+            path.setLength(mark);
+            if (!proceed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Visits the keys below {@code node} that are >= {@code fromKey}; {@code path} is a prefix of it. */
+    private static boolean visitFrom(Node node, StringBuilder path, String fromKey, KeyVisitor visitor) {
+        if (path.length() == fromKey.length()) {
+            return visit(node, path, visitor);
+        }
+        for (Node child : node.children) {
+            int mark = path.length();
+            path.append(child.label);
+            int position = compareToBound(path, fromKey);
+            boolean proceed = true;
+            if (position > 0) {
+                proceed = visit(child, path, visitor);
+            } else if (position == 0) {
+                proceed = visitFrom(child, path, fromKey, visitor);
+            }
+            path.setLength(mark);
+            if (!proceed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 0 if {@code path} is a prefix of {@code bound} (the subtree straddles it), a positive
+     * value if every key under {@code path} is greater than {@code bound}, negative if all are less
+     */
+    private static int compareToBound(CharSequence path, String bound) {
+        int max = Math.min(path.length(), bound.length());
+        for (int i = 0; i < max; i++) {
+            int diff = path.charAt(i) - bound.charAt(i);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return path.length() > bound.length() ? 1 : 0;
+    }
+
+    /**
+     * Builds the node for keys[from, to), which all share their first {@code depth} chars. Large
+     * ranges build their child subtrees in parallel.
+     */
+    private static Node build(String[] keys, long[] ids, int from, int to, int depth, String label, int topK) {
+        int end = from;
+        while (end < to && keys[end].length() == depth) {
+            end++;
+        }
+        long[] nodeIds = end == from ? NO_IDS : Arrays.copyOfRange(ids, from, end);
+        List<int[]> runs = new ArrayList<>();
+        for (int i = end; i < to; ) {
+            char c = keys[i].charAt(depth);
+            int j = i + 1;
+            while (j < to && keys[j].charAt(depth) == c) {
+                j++;
+            }
+            runs.add(new int[]{i, j});
+            i = j;
+        }
+        Stream<int[]> stream = to - from >= PARALLEL_BUILD_THRESHOLD ? runs.parallelStream() : runs.stream();
+        Node[] children = stream.map(run -> {
+            // keys are sorted, so the common prefix of the run is that of its first and last key
+            int childDepth = mismatchFrom(keys[run[0]], keys[run[1] - 1], depth + 1);
+            return build(keys, ids, run[0], run[1], childDepth, keys[run[0]].substring(depth, childDepth), topK);
+        }).toArray(Node[]::new);
+        Node node = new Node(label, nodeIds, children.length == 0 ? NO_CHILDREN : children, null);
+        refreshTop(node, topK);
+        return node;
+    }
+
+    private Node insert(Node node, String key, int pos, long id, Object edit) {
+        if (pos == key.length()) {
+            if (Arrays.binarySearch(node.ids, id) >= 0) {
+                return node;
+            }
+            Node editable = node.editable(edit);
+            editable.ids = addSorted(editable.ids, id);
+            editable.recount();
+            addToTop(editable, id);
+            return editable;
+        }
+        Node editable = node.editable(edit);
+        int i = editable.indexOf(key.charAt(pos));
+        if (i < 0) {
+            editable.insertChild(-i - 1, new Node(key.substring(pos), new long[]{id}, NO_CHILDREN, edit));
+            editable.recount();
+            addToTop(editable, id);
+            return editable;
+        }
+        Node child = editable.children[i];
+        int common = commonPrefixLength(child.label, key, pos);
+        if (common < child.label.length()) {
+            String upperLabel = child.label.substring(0, common);
+            Node lower = child.editable(edit);
+            lower.label = lower.label.substring(common);
+            child = new Node(upperLabel, NO_IDS, new Node[]{lower}, edit);
+            child.top = lower.top;
+        }
+        editable.children[i] = insert(child, key, pos + common, id, edit);
+        editable.recount();
+        addToTop(editable, id);
+        return editable;
+    }
+
+    private Node delete(Node node, String key, int pos, long id, Object edit) {
+        if (pos == key.length()) {
+            if (Arrays.binarySearch(node.ids, id) < 0) {
+                return node;
+            }
+            Node editable = node.editable(edit);
+            editable.ids = removeSorted(editable.ids, id);
+            editable.recount();
+            removeFromTop(editable, id);
+            return editable;
+        }
+        int i = node.indexOf(key.charAt(pos));
+        if (i < 0) {
+            return node;
+        }
+        Node child = node.children[i];
+        if (!key.startsWith(child.label, pos)) {
+            return node;
+        }
+        Node updated = delete(child, key, pos + child.label.length(), id, edit);
+        if (updated.edit != edit) {
+            // nothing below was touched in this session
+            return node;
+        }
+        Node editable = node.editable(edit);
+        if (updated.ids.length == 0 && updated.children.length == 0) {
+            editable.removeChild(i);
+        } else if (updated.ids.length == 0 && updated.children.length == 1) {
+            Node only = updated.children[0].editable(edit);
+            only.label = updated.label + only.label;
+            editable.children[i] = only;
+        } else {
+            editable.children[i] = updated;
+        }
+        editable.recount();
+        removeFromTop(editable, id);
+        return editable;
+    }
+
+    /** Merges {@code added} into {@code node}; both stand for the same path. */
+    private Node merge(Node node, Node added, Object edit) {
+        Node editable = node.editable(edit);
+        editable.ids = unionSorted(editable.ids, added.ids);
+        for (Node child : added.children) {
+            int i = editable.indexOf(child.label.charAt(0));
+            if (i < 0) {
+                editable.insertChild(-i - 1, child);
+                continue;
+            }
+            Node existing = editable.children[i];
+            int common = commonPrefixLength(existing.label, child.label, 0);
+            editable.children[i] = merge(split(existing, common, edit), split(child, common, edit), edit);
+        }
+        editable.recount();
+        refreshTop(editable, topK);
+        return editable;
+    }
+
+    /**
+     * @return {@code node} if its label is {@code length} chars long, else a node labeled with
+     *     the first {@code length} chars whose only child is {@code node} with the rest of its label
+     */
+    private Node split(Node node, int length, Object edit) {
+        if (length == node.label.length()) {
+            return node;
+        }
+        Node lower = node.editable(edit);
+        lower.label = node.label.substring(length);
+        Node upper = new Node(node.label.substring(0, length), NO_IDS, new Node[]{lower}, edit);
+        upper.top = lower.top;
+        return upper;
+    }
+
+    /** Updates the cached top ids of {@code node} after {@code id} was added somewhere below it. */
+    private void addToTop(Node node, long id) {
+        if (topK == 0) {
+            return;
+        }
+        long[] top = node.top;
+        if (top == null) {
+            // the subtree was small, so recomputing is cheap and tells whether it outgrew topK
+            refreshTop(node, topK);
+            return;
+        }
+        int at = Arrays.binarySearch(top, id);
+        if (id < top[0] || at >= 0) {
+            return;
+        }
+        // drop the lowest and insert id in order; published arrays are never modified
+        int insertion = -at - 1;
+        long[] next = new long[top.length];
+        System.arraycopy(top, 1, next, 0, insertion - 1);
+        next[insertion - 1] = id;
+        System.arraycopy(top, insertion, next, insertion, top.length - insertion);
+        node.top = next;
+    }
+
+    /**
+     * Updates the cached top ids of {@code node} after {@code id} was removed somewhere below it.
+     * Removing an id that is not cached leaves the cache right; otherwise it is recomputed.
+     */
+    private void removeFromTop(Node node, long id) {
+        if (node.top != null && Arrays.binarySearch(node.top, id) >= 0) {
+            refreshTop(node, topK);
+        }
+    }
+
+    /**
+     * Recomputes the cached top ids of {@code node} from its own ids and its children: a child
+     * either has its own cache or a subtree small enough to collect.
+     */
+    private static void refreshTop(Node node, int topK) {
+        if (topK == 0) {
+            return;
+        }
+        boolean large = node.ids.length > topK;
+        IdCollector collector = new IdCollector();
+        collector.addTail(node.ids, topK);
+        for (Node child : node.children) {
+            if (child.top != null) {
+                large = true;
+                collector.addTail(child.top, topK);
+            } else {
+                collectSubtree(child, collector);
+            }
+        }
+        long[] distinct = collector.sortedDistinct();
+        node.top = large || distinct.length > topK
+                ? Arrays.copyOfRange(distinct, distinct.length - topK, distinct.length)
+                : null;
+    }
+
+    private static void collectSubtree(Node node, IdCollector collector) {
+        collector.addTail(node.ids, node.ids.length);
+        for (Node child : node.children) {
+            collectSubtree(child, collector);
+        }
+    }
+
+    private static int commonPrefixLength(String label, String key, int pos) {
+        int max = Math.min(label.length(), key.length() - pos);
+        int i = 0;
+        while (i < max && label.charAt(i) == key.charAt(pos + i)) {
+            i++;
+        }
+        return i;
+    }
+
+    /** @return the first index at or after {@code from} where {@code a} and {@code b} differ or one ends */
+    private static int mismatchFrom(String a, String b, int from) {
+        int max = Math.min(a.length(), b.length());
+        int i = from;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        return i;
+    }
+
+    private static long[] addSorted(long[] ids, long id) {
+        int i = Arrays.binarySearch(ids, id);
+        if (i >= 0) {
+            return ids;
+        }
+        int at = -i - 1;
+        long[] result = new long[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        result[at] = id;
+        System.arraycopy(ids, at, result, at + 1, ids.length - at);
+        return result;
+    }
+
+    private static boolean sorted(String[] keys, long[] ids, int count) {
+        for (int i = 1; i < count; i++) {
+            int order = keys[i - 1].compareTo(keys[i]);
+            if (order > 0 || (order == 0 && ids[i - 1] > ids[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long[] unionSorted(long[] a, long[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        if (a.length == 0) {
+            return b;
+        }
+        long[] result = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            long next = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i++] : b[j++];
+            if (n == 0 || result[n - 1] != next) {
+                result[n++] = next;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static long[] removeSorted(long[] ids, long id) {
+        int at = Arrays.binarySearch(ids, id);
+        if (at < 0) {
+            return ids;
+        }
+        if (ids.length == 1) {
+            return NO_IDS;
+        }
+        long[] result = new long[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        System.arraycopy(ids, at + 1, result, at, ids.length - at - 1);
+        return result;
+    }
+
+    /** Collects changes and applies them in one write session and a single publish. */
+    public final class Batch implements IdIndex.Batch {
+
+        private final List<Change> changes = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        @Override
+        public Batch add(String key, long id) {
+            changes.add(new Change(key, id, true));
+            return this;
+        }
+
+        @Override
+        public Batch remove(String key, long id) {
+            changes.add(new Change(key, id, false));
+            return this;
+        }
+
+        public Batch replace(String oldKey, String newKey, long id) {
+            return remove(oldKey, id).add(newKey, id);
+        }
+
+        public int size() {
+            return changes.size();
+        }
+
+        /**
+         * Applies the changes grouped by key, so consecutive changes share the already-copied path.
+         * The sort is stable and changes to different keys commute, so the result equals applying
+         * them in the order they were added.
+         */
+        @Override
+        public void apply() {
+            if (changes.isEmpty()) {
+                return;
+            }
+            changes.sort(Comparator.comparing((Change change) -> change.key));
+            IdTrie.this.apply(changes);
+        }
+    }
+
+    /**
+     * Size of a trie snapshot. Bytes are estimated for a 64-bit JVM with compressed oops and
+     * Latin-1 labels, without the objects shared between snapshots.
+     */
+    public static final class Stats implements IndexStats {
+        private static final int NODE_BYTES = 40;
+        private static final int STRING_BYTES = 24;
+        private static final int REFERENCE_BYTES = 4;
+
+        private long nodes;
+        private long bytes;
+
+        private Stats() {
+        }
+
+        @Override
+        public long getNodes() {
+            return nodes;
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes;
+        }
+
+        /** @return the size of an array, header included, rounded up to 8 bytes */
+        private static long array(int length, int elementBytes) {
+            return (16L + (long) length * elementBytes + 7) & ~7L;
+        }
+    }
+
+    /** Growable buffer of candidate ids. */
+    private static final class IdCollector {
+        private long[] ids = new long[32];
+        private int size;
+
+        /** Adds the last {@code count} (highest) ids of the sorted {@code source}. */
+        void addTail(long[] source, int count) {
+            int n = Math.min(count, source.length);
+            if (size + n > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, size + n));
+            }
+            System.arraycopy(source, source.length - n, ids, size, n);
+            size += n;
+        }
+
+        long[] sortedDistinct() {
+            Arrays.sort(ids, 0, size);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || ids[i] != ids[distinct - 1]) {
+                    ids[distinct++] = ids[i];
+                }
+            }
+            return Arrays.copyOf(ids, distinct);
+        }
+    }
+
+    private static final class Change {
+        final String key;
+        final long id;
+        final boolean add;
+
+        Change(String key, long id, boolean add) {
+            this.key = key;
+            this.id = id;
+            this.add = add;
+        }
+    }
+
+    /** Takes the first {@code count} entries, sorted by key and then by id, as {@link #load} does. */
+    @FunctionalInterface
+    public interface SortedEntries {
+        void accept(String[] keys, long[] ids, int count);
+    }
+
+    @FunctionalInterface
+    public interface KeyVisitor {
+        /** @return {@code false} to stop the scan */
+        boolean visit(CharSequence key, long[] ids);
+    }
+
+    @FunctionalInterface
+    public interface DistanceVisitor {
+        /** @return {@code false} to stop the scan */
+        boolean visit(CharSequence key, int distance, long[] ids);
+    }
+
+    /**
+     * Trie node. Fields are only written while the node is owned by the running write session
+     * ({@code edit}); the volatile publish of the root makes those writes visible to readers.
+     */
+    private static final class Node {
+        String label;
+        long[] ids;
+        Node[] children;
+        /** The highest ids of the subtree, ascending, if it holds more than topK ids; otherwise null. */
+        long[] top;
+        /** Number of ids in the subtree, this node's included. */
+        long count;
+        final Object edit;
+
+        Node(String label, long[] ids, Node[] children, Object edit) {
+            this.label = label;
+            this.ids = ids;
+            this.children = children;
+            this.edit = edit;
+            recount();
+        }
+
+        void recount() {
+            long total = ids.length;
+            for (Node child : children) {
+                total += child.count;
+            }
+            count = total;
+        }
+
+        Node editable(Object session) {
+            if (edit == session) {
+                return this;
+            }
+            Node copy = new Node(label, ids, children.clone(), session);
+            copy.top = top;
+            return copy;
+        }
+
+        Node child(char c) {
+            int i = indexOf(c);
+            return i < 0 ? null : children[i];
+        }
+
+        int indexOf(char c) {
+            int low = 0;
+            int high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char midChar = children[mid].label.charAt(0);
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        void insertChild(int i, Node child) {
+            Node[] copy = new Node[children.length + 1];
+            System.arraycopy(children, 0, copy, 0, i);
+            copy[i] = child;
+            System.arraycopy(children, i, copy, i + 1, children.length - i);
+            children = copy;
+        }
+
+        void removeChild(int i) {
+            if (children.length == 1) {
+                children = NO_CHILDREN;
+                return;
+            }
+            Node[] copy = new Node[children.length - 1];
+            System.arraycopy(children, 0, copy, 0, i);
+            System.arraycopy(children, i + 1, copy, i, children.length - i - 1);
+            children = copy;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package org.sunbit.addressbook.index;
+
+/** Size of an index: its nodes (trie nodes, or keys of a map) and their estimated heap bytes. */
+public interface IndexStats {
+
+    long getNodes();
+
+    long getBytes();
+}
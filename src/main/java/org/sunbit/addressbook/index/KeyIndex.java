@@ -0,0 +1,158 @@
+package org.sunbit.addressbook.index;
+
+import org.sunbit.addressbook.model.BaseEntity;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * {@link SecondaryIndex} that files every entity under the keys its key extractor returns, in an
+ * {@link IdIndex} of the declared structure. An entity whose extractor returns no keys is not
+ * indexed.
+ *
+ * @param <V> the entity type
+ */
+public class KeyIndex<V extends BaseEntity> implements SecondaryIndex<V> {
+
+    private final String name;
+    private final Function<? super V, ? extends Collection<String>> keys;
+    private final IdIndex index;
+
+    public KeyIndex(String name, Function<? super V, ? extends Collection<String>> keys, IdIndex index) {
+        this.name = name;
+        this.keys = keys;
+        this.index = index;
+    }
+
+    /** @return an index of a new structure of the given type, with at most one key per entity */
+    public static <V extends BaseEntity> KeyIndex<V> of(String name, Structure structure, Function<? super V, String> key) {
+        IdIndex index;
+        switch (structure) {
+            case TRIE:
+                index = new IdTrie();
+                break;
+            case SORTED:
+                index = new MapIdIndex(true);
+                break;
+            default:
+                index = new MapIdIndex(false);
+        }
+        return new KeyIndex<>(name, singleKey(key), index);
+    }
+
+    /** @return an extractor of the one key {@code key} returns, or of none when that is null */
+    public static <V> Function<V, Collection<String>> singleKey(Function<? super V, String> key) {
+        return entity -> {
+            String value = key.apply(entity);
+            return value == null ? Collections.emptyList() : Collections.singletonList(value);
+        };
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Structure structure() {
+        return index.structure();
+    }
+
+    /** @see IdIndex#get */
+    public long[] get(String key) {
+        return index.get(key);
+    }
+
+    /** @see IdIndex#forEachPrefixedBy */
+    public void forEachPrefixedBy(String prefix, IdTrie.KeyVisitor visitor) {
+        index.forEachPrefixedBy(prefix, visitor);
+    }
+
+    @Override
+    public void update(long id, V old, V current) {
+        Collection<String> oldKeys = keysOf(old);
+        Collection<String> newKeys = keysOf(current);
+        if (oldKeys.size() > 1 || newKeys.size() > 1) {
+            Batch<V> batch = batch();
+            batch.update(id, old, current);
+            batch.apply();
+            return;
+        }
+        String oldKey = oldKeys.isEmpty() ? null : oldKeys.iterator().next();
+        String newKey = newKeys.isEmpty() ? null : newKeys.iterator().next();
+        if (Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        if (oldKey == null) {
+            index.add(newKey, id);
+        } else if (newKey == null) {
+            index.remove(oldKey, id);
+        } else {
+            index.replace(oldKey, newKey, id);
+        }
+    }
+
+    @Override
+    public Batch<V> batch() {
+        IdIndex.Batch changes = index.batch();
+        return new Batch<V>() {
+            @Override
+            public void update(long id, V old, V current) {
+                Collection<String> oldKeys = keysOf(old);
+                Collection<String> newKeys = keysOf(current);
+                for (String key : oldKeys) {
+                    if (!newKeys.contains(key)) {
+                        changes.remove(key, id);
+                    }
+                }
+                for (String key : newKeys) {
+                    if (!oldKeys.contains(key)) {
+                        changes.add(key, id);
+                    }
+                }
+            }
+
+            @Override
+            public void apply() {
+                changes.apply();
+            }
+        };
+    }
+
+    @Override
+    public void addAll(List<? extends V> entities) {
+        String[] allKeys = new String[entities.size()];
+        long[] ids = new long[entities.size()];
+        int count = 0;
+        for (V entity : entities) {
+            for (String key : keysOf(entity)) {
+                if (count == allKeys.length) {
+                    allKeys = Arrays.copyOf(allKeys, Math.max(16, count * 2));
+                    ids = Arrays.copyOf(ids, allKeys.length);
+                }
+                allKeys[count] = key;
+                ids[count] = entity.getId();
+                count++;
+            }
+        }
+        index.addAll(allKeys, ids, count);
+    }
+
+    @Override
+    public IndexStats stats() {
+        return index.stats();
+    }
+
+    @Override
+    public long lookups() {
+        return index.lookups();
+    }
+
+    private Collection<String> keysOf(V entity) {
+        return entity == null ? Collections.emptyList() : keys.apply(entity);
+    }
+}
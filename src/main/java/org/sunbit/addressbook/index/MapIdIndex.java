@@ -0,0 +1,220 @@
+package org.sunbit.addressbook.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link IdIndex} over a concurrent map from key to a sorted id array: a
+ * {@link ConcurrentHashMap} for {@link SecondaryIndex.Structure#HASH}, a
+ * {@link ConcurrentSkipListMap} for {@link SecondaryIndex.Structure#SORTED}. Arrays are replaced,
+ * never modified, so readers never lock; writes to one key are atomic, a {@link Batch} is not
+ * atomic across keys. Cheaper to write than an {@link IdTrie}, but every key is stored in full.
+ */
+public class MapIdIndex implements IdIndex {
+
+    private static final long[] NO_IDS = new long[0];
+
+    private final ConcurrentMap<String, long[]> map;
+    private final LongAdder lookups = new LongAdder();
+
+    /** @param sorted whether to keep the keys ordered, for prefix lookups */
+    public MapIdIndex(boolean sorted) {
+        this.map = sorted ? new ConcurrentSkipListMap<>() : new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public SecondaryIndex.Structure structure() {
+        return map instanceof ConcurrentNavigableMap
+                ? SecondaryIndex.Structure.SORTED
+                : SecondaryIndex.Structure.HASH;
+    }
+
+    @Override
+    public void add(String key, long id) {
+        map.compute(key, (k, ids) -> ids == null ? new long[]{id} : insertSorted(ids, id));
+    }
+
+    @Override
+    public void remove(String key, long id) {
+        map.computeIfPresent(key, (k, ids) -> {
+            long[] rest = removeSorted(ids, id);
+            return rest.length == 0 ? null : rest;
+        });
+    }
+
+    @Override
+    public void replace(String oldKey, String newKey, long id) {
+        add(newKey, id);
+        remove(oldKey, id);
+    }
+
+    @Override
+    public Batch batch() {
+        List<Change> changes = new ArrayList<>();
+        return new Batch() {
+            @Override
+            public Batch add(String key, long id) {
+                changes.add(new Change(key, id, true));
+                return this;
+            }
+
+            @Override
+            public Batch remove(String key, long id) {
+                changes.add(new Change(key, id, false));
+                return this;
+            }
+
+            @Override
+            public void apply() {
+                for (Change change : changes) {
+                    if (change.add) {
+                        MapIdIndex.this.add(change.key, change.id);
+                    } else {
+                        MapIdIndex.this.remove(change.key, change.id);
+                    }
+                }
+            }
+        };
+    }
+
+    /** Sorts the entries by key, then writes each key once with all its new ids. */
+    @Override
+    public void addAll(String[] keys, long[] ids, int count) {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.parallelSort(order, Comparator.comparing((Integer i) -> keys[i]).thenComparingLong(i -> ids[i]));
+        int from = 0;
+        while (from < count) {
+            String key = keys[order[from]];
+            int to = from;
+            while (to < count && keys[order[to]].equals(key)) {
+                to++;
+            }
+            long[] added = new long[to - from];
+            for (int i = from; i < to; i++) {
+                added[i - from] = ids[order[i]];
+            }
+            map.merge(key, added, MapIdIndex::union);
+            from = to;
+        }
+    }
+
+    @Override
+    public long[] get(String key) {
+        lookups.increment();
+        long[] ids = map.get(key);
+        return ids == null ? NO_IDS : ids.clone();
+    }
+
+    @Override
+    public void forEachPrefixedBy(String prefix, IdTrie.KeyVisitor visitor) {
+        if (!(map instanceof ConcurrentNavigableMap)) {
+            throw new UnsupportedOperationException("a hash index has no key order");
+        }
+        lookups.increment();
+        ConcurrentNavigableMap<String, long[]> sorted = (ConcurrentNavigableMap<String, long[]>) map;
+        for (Map.Entry<String, long[]> entry : sorted.tailMap(prefix).entrySet()) {
+            if (!entry.getKey().startsWith(prefix) || !visitor.visit(entry.getKey(), entry.getValue())) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Bytes are estimated for a 64-bit JVM with compressed oops and Latin-1 keys: the map node
+     * and its share of the table or skip list index, the key string and the id array.
+     */
+    @Override
+    public IndexStats stats() {
+        Stats stats = new Stats();
+        for (Map.Entry<String, long[]> entry : map.entrySet()) {
+            stats.nodes++;
+            stats.bytes += 48 + 24 + array(entry.getKey().length(), 1) + array(entry.getValue().length, Long.BYTES);
+        }
+        return stats;
+    }
+
+    @Override
+    public long lookups() {
+        return lookups.sum();
+    }
+
+    private static long array(int length, int elementBytes) {
+        return (16L + (long) length * elementBytes + 7) & ~7L;
+    }
+
+    private static long[] insertSorted(long[] ids, long id) {
+        int at = Arrays.binarySearch(ids, id);
+        if (at >= 0) {
+            return ids;
+        }
+        at = -at - 1;
+        long[] result = new long[ids.length + 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        result[at] = id;
+        System.arraycopy(ids, at, result, at + 1, ids.length - at);
+        return result;
+    }
+
+    private static long[] removeSorted(long[] ids, long id) {
+        int at = Arrays.binarySearch(ids, id);
+        if (at < 0) {
+            return ids;
+        }
+        long[] result = new long[ids.length - 1];
+        System.arraycopy(ids, 0, result, 0, at);
+        System.arraycopy(ids, at + 1, result, at, ids.length - at - 1);
+        return result;
+    }
+
+    private static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < a.length || j < b.length) {
+            long next = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i++] : b[j++];
+            if (n == 0 || result[n - 1] != next) {
+                result[n++] = next;
+            }
+        }
+        return n == result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    private static final class Stats implements IndexStats {
+        private long nodes;
+        private long bytes;
+
+        @Override
+        public long getNodes() {
+            return nodes;
+        }
+
+        @Override
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    private static final class Change {
+        final String key;
+        final long id;
+        final boolean add;
+
+        Change(String key, long id, boolean add) {
+            this.key = key;
+            this.id = id;
+            this.add = add;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.sunbit.addressbook.index;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+/**
+ * Reverse index from phone numbers to contact ids. Numbers are reduced to their digits first, so
+ * {@code "+1 (555) 010-0100"} and {@code "15550100100"} are the same key, and numbers without any
+ * digit are not indexed. Lookups by exact number or by number prefix cost O(digits) however many
+ * contacts there are.
+ *
+ * <p>As an {@link IdIndex}, it is written with phone numbers as entered and looked up by digits.
+ */
+public class PhoneIndex implements IdIndex {
+
+    private final IdTrie trie = new IdTrie();
+
+    /** @return the decimal digits of {@code phoneNumber} in ASCII, or {@code null} if it has none */
+    public static String normalize(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(phoneNumber.length());
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            int digit = Character.digit(phoneNumber.charAt(i), 10);
+            if (digit >= 0) {
+                digits.append((char) ('0' + digit));
+            }
+        }
+        return digits.length() == 0 ? null : digits.toString();
+    }
+
+    @Override
+    public void add(String phoneNumber, long id) {
+        String key = normalize(phoneNumber);
+        if (key != null) {
+            trie.add(key, id);
+        }
+    }
+
+    @Override
+    public void remove(String phoneNumber, long id) {
+        String key = normalize(phoneNumber);
+        if (key != null) {
+            trie.remove(key, id);
+        }
+    }
+
+    @Override
+    public void replace(String oldPhoneNumber, String newPhoneNumber, long id) {
+        String oldKey = normalize(oldPhoneNumber);
+        String newKey = normalize(newPhoneNumber);
+        if (Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        if (oldKey == null) {
+            trie.add(newKey, id);
+        } else if (newKey == null) {
+            trie.remove(oldKey, id);
+        } else {
+            trie.replace(oldKey, newKey, id);
+        }
+    }
+
+    /**
+     * Replaces the whole content with the first {@code count} numbers and their ids, in any order.
+     */
+    public void load(String[] phoneNumbers, long[] ids, int count) {
+        sort(phoneNumbers, ids, count, trie::load);
+    }
+
+    /** Adds the first {@code count} numbers and their ids, in any order; see {@link IdTrie#addAll}. */
+    @Override
+    public void addAll(String[] phoneNumbers, long[] ids, int count) {
+        sort(phoneNumbers, ids, count, trie::addAll);
+    }
+
+    private static void sort(String[] phoneNumbers, long[] ids, int count, IdTrie.SortedEntries target) {
+        Entry[] entries = new Entry[count];
+        int indexed = 0;
+        for (int i = 0; i < count; i++) {
+            String key = normalize(phoneNumbers[i]);
+            if (key != null) {
+                entries[indexed++] = new Entry(key, ids[i]);
+            }
+        }
+        Arrays.parallelSort(entries, 0, indexed, Comparator.comparing((Entry e) -> e.key).thenComparingLong(e -> e.id));
+        String[] keys = new String[indexed];
+        long[] sortedIds = new long[indexed];
+        for (int i = 0; i < indexed; i++) {
+            keys[i] = entries[i].key;
+            sortedIds[i] = entries[i].id;
+        }
+        target.accept(keys, sortedIds, indexed);
+    }
+
+    @Override
+    public SecondaryIndex.Structure structure() {
+        return SecondaryIndex.Structure.TRIE;
+    }
+
+    /** @see IdTrie#stats() */
+    @Override
+    public IdTrie.Stats stats() {
+        return trie.stats();
+    }
+
+    @Override
+    public long lookups() {
+        return trie.lookups();
+    }
+
+    @Override
+    public Batch batch() {
+        return new Batch(trie.batch());
+    }
+
+    /** @return a copy of the ids of the contacts whose number has exactly the given digits */
+    @Override
+    public long[] get(String digits) {
+        return trie.get(digits);
+    }
+
+    /** Visits the numbers starting with the given digits in ascending order; see {@link IdTrie#forEachPrefixedBy}. */
+    @Override
+    public void forEachPrefixedBy(String digits, IdTrie.KeyVisitor visitor) {
+        trie.forEachPrefixedBy(digits, visitor);
+    }
+
+    /** {@link IdTrie.Batch} that takes phone numbers as entered. */
+    public static final class Batch implements IdIndex.Batch {
+
+        private final IdTrie.Batch changes;
+
+        private Batch(IdTrie.Batch changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public Batch add(String phoneNumber, long id) {
+            String key = normalize(phoneNumber);
+            if (key != null) {
+                changes.add(key, id);
+            }
+            return this;
+        }
+
+        @Override
+        public Batch remove(String phoneNumber, long id) {
+            String key = normalize(phoneNumber);
+            if (key != null) {
+                changes.remove(key, id);
+            }
+            return this;
+        }
+
+        public Batch replace(String oldPhoneNumber, String newPhoneNumber, long id) {
+            return remove(oldPhoneNumber, id).add(newPhoneNumber, id);
+        }
+
+        @Override
+        public void apply() {
+            changes.apply();
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final long id;
+
+        Entry(String key, long id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+}
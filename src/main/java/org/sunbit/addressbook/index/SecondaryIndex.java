@@ -0,0 +1,60 @@
+package org.sunbit.addressbook.index;
+
+import org.sunbit.addressbook.model.BaseEntity;
+
+import java.util.List;
+
+/**
+ * Secondary index over the entities of a {@link org.sunbit.addressbook.MyKeyValueStorage}. Once
+ * registered with the storage, it is told about every write together with the primary one: the
+ * storage calls {@link #update} with what the entity was before and after, under the entity's
+ * write lock, so the index sees the writes of one entity in the order they were stored and cannot
+ * drift from the stored data. New query paths only need a new index, not changes to every write.
+ *
+ * <p>Readers look the index up directly; it may briefly trail a write that is still in progress,
+ * so they check the entity they read back, as they would with any snapshot.
+ *
+ * @param <V> the entity type
+ */
+public interface SecondaryIndex<V extends BaseEntity> {
+
+    enum Structure {
+        /** Exact key lookups only. */
+        HASH,
+        /** Exact and ordered lookups: key ranges and prefixes. */
+        SORTED,
+        /** Exact and prefix lookups, shared prefixes stored once; the one for prefix search. */
+        TRIE
+    }
+
+    /** Names the index in metrics. */
+    String name();
+
+    Structure structure();
+
+    /**
+     * Moves entity {@code id} from the keys of {@code old} to those of {@code current}; {@code old}
+     * is null for a create, {@code current} for a remove.
+     */
+    void update(long id, V old, V current);
+
+    /** Starts collecting updates that are applied together by {@link Batch#apply()}. */
+    Batch<V> batch();
+
+    /** Adds entities that are not indexed yet, in any order, in one pass. */
+    void addAll(List<? extends V> entities);
+
+    /** @see IdIndex#stats() */
+    IndexStats stats();
+
+    /** @return how many lookups were served since creation */
+    long lookups();
+
+    interface Batch<V extends BaseEntity> {
+
+        /** @see SecondaryIndex#update */
+        void update(long id, V old, V current);
+
+        void apply();
+    }
+}
@@ -0,0 +1,294 @@
+package org.sunbit.addressbook.index;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Index from the words of a name to contact ids. Names are split on anything that is not a letter
+ * or digit, and each token is case-folded and stripped of accents, so {@code "Zoë O'Brien"} is
+ * found by {@code "zoe"}, {@code "o"} and {@code "brien"}. Postings are the sorted id arrays of an
+ * {@link IdTrie}.
+ *
+ * <p>A query matches the contacts that have, for every query token, a name token starting with it.
+ * Each query token's postings are merged from its trie subtree, and the resulting lists are
+ * intersected smallest first, so the cost is driven by the most selective token.
+ *
+ * <p>As an {@link IdIndex}, it is written with whole names and looked up by normalized tokens.
+ */
+public class TokenIndex implements IdIndex {
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final long[] NO_IDS = new long[0];
+
+    private final IdTrie trie = new IdTrie();
+
+    /** @return the distinct normalized tokens of {@code text} in order of appearance */
+    public static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        String folded = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("")
+                .toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean wordChar = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /** @return whether every query token is a prefix of one of the {@code tokens} */
+    public static boolean matches(Set<String> tokens, Set<String> queryTokens) {
+        for (String queryToken : queryTokens) {
+            boolean found = false;
+            for (String token : tokens) {
+                if (token.startsWith(queryToken)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void add(String name, long id) {
+        for (String token : tokens(name)) {
+            trie.add(token, id);
+        }
+    }
+
+    @Override
+    public void remove(String name, long id) {
+        for (String token : tokens(name)) {
+            trie.remove(token, id);
+        }
+    }
+
+    @Override
+    public void replace(String oldName, String newName, long id) {
+        Set<String> oldTokens = tokens(oldName);
+        Set<String> newTokens = tokens(newName);
+        if (oldTokens.equals(newTokens)) {
+            return;
+        }
+        IdTrie.Batch changes = trie.batch();
+        for (String token : oldTokens) {
+            if (!newTokens.contains(token)) {
+                changes.remove(token, id);
+            }
+        }
+        for (String token : newTokens) {
+            if (!oldTokens.contains(token)) {
+                changes.add(token, id);
+            }
+        }
+        changes.apply();
+    }
+
+    /** Replaces the whole content with the tokens of the first {@code count} names, in any order. */
+    public void load(String[] names, long[] ids, int count) {
+        sort(names, ids, count, trie::load);
+    }
+
+    /** Adds the tokens of the first {@code count} names, in any order; see {@link IdTrie#addAll}. */
+    @Override
+    public void addAll(String[] names, long[] ids, int count) {
+        sort(names, ids, count, trie::addAll);
+    }
+
+    private static void sort(String[] names, long[] ids, int count, IdTrie.SortedEntries target) {
+        List<Entry> entries = new ArrayList<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            for (String token : tokens(names[i])) {
+                entries.add(new Entry(token, ids[i]));
+            }
+        }
+        Entry[] sorted = entries.toArray(new Entry[0]);
+        Arrays.parallelSort(sorted, Comparator.comparing((Entry e) -> e.key).thenComparingLong(e -> e.id));
+        String[] keys = new String[sorted.length];
+        long[] sortedIds = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keys[i] = sorted[i].key;
+            sortedIds[i] = sorted[i].id;
+        }
+        target.accept(keys, sortedIds, sorted.length);
+    }
+
+    @Override
+    public SecondaryIndex.Structure structure() {
+        return SecondaryIndex.Structure.TRIE;
+    }
+
+    /** @see IdTrie#stats() */
+    @Override
+    public IdTrie.Stats stats() {
+        return trie.stats();
+    }
+
+    @Override
+    public long lookups() {
+        return trie.lookups();
+    }
+
+    /** @return a copy of the ids of the names that have exactly the normalized {@code token} */
+    @Override
+    public long[] get(String token) {
+        return trie.get(token);
+    }
+
+    /** Visits the normalized tokens starting with {@code prefix} in ascending order. */
+    @Override
+    public void forEachPrefixedBy(String prefix, IdTrie.KeyVisitor visitor) {
+        trie.forEachPrefixedBy(prefix, visitor);
+    }
+
+    @Override
+    public Batch batch() {
+        return new Batch(trie.batch());
+    }
+
+    /**
+     * @return the sorted ids of the contacts that have a token starting with each of
+     *     {@code queryTokens}; the array may be shared and must not be modified
+     */
+    public long[] search(Set<String> queryTokens) {
+        if (queryTokens.isEmpty()) {
+            return NO_IDS;
+        }
+        List<long[]> postings = new ArrayList<>(queryTokens.size());
+        for (String queryToken : queryTokens) {
+            long[] ids = postingsPrefixedBy(queryToken);
+            if (ids.length == 0) {
+                return NO_IDS;
+            }
+            postings.add(ids);
+        }
+        postings.sort(Comparator.comparingInt(ids -> ids.length));
+        long[] result = postings.get(0);
+        for (int i = 1; i < postings.size() && result.length > 0; i++) {
+            result = intersect(result, postings.get(i));
+        }
+        return result;
+    }
+
+    /** @return the union of the postings of every token starting with {@code prefix}, sorted and distinct */
+    private long[] postingsPrefixedBy(String prefix) {
+        List<long[]> lists = new ArrayList<>();
+        int[] total = {0};
+        trie.forEachPrefixedBy(prefix, (token, ids) -> {
+            lists.add(ids);
+            total[0] += ids.length;
+            return true;
+        });
+        if (lists.isEmpty()) {
+            return NO_IDS;
+        }
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        long[] merged = new long[total[0]];
+        int at = 0;
+        for (long[] ids : lists) {
+            System.arraycopy(ids, 0, merged, at, ids.length);
+            at += ids.length;
+        }
+        Arrays.sort(merged);
+        int distinct = 0;
+        for (int i = 0; i < merged.length; i++) {
+            if (i == 0 || merged[i] != merged[i - 1]) {
+                merged[distinct++] = merged[i];
+            }
+        }
+        return distinct == merged.length ? merged : Arrays.copyOf(merged, distinct);
+    }
+
+    /**
+     * Intersects two sorted id arrays, {@code small} being the shorter one. Each of its ids is
+     * located in {@code large} by galloping from the previous match, so the cost is
+     * O(small * log(large / small)) rather than O(small + large).
+     */
+    static long[] intersect(long[] small, long[] large) {
+        long[] result = new long[small.length];
+        int count = 0;
+        int from = 0;
+        for (long id : small) {
+            int bound = 1;
+            while (from + bound < large.length && large[from + bound] < id) {
+                bound <<= 1;
+            }
+            int found = Arrays.binarySearch(large, from, Math.min(from + bound + 1, large.length), id);
+            if (found >= 0) {
+                result[count++] = id;
+                from = found + 1;
+            } else {
+                from = -found - 1;
+            }
+            if (from >= large.length) {
+                break;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    /** {@link IdTrie.Batch} that takes names and indexes their tokens. */
+    public static final class Batch implements IdIndex.Batch {
+
+        private final IdTrie.Batch changes;
+
+        private Batch(IdTrie.Batch changes) {
+            this.changes = changes;
+        }
+
+        @Override
+        public Batch add(String name, long id) {
+            for (String token : tokens(name)) {
+                changes.add(token, id);
+            }
+            return this;
+        }
+
+        @Override
+        public Batch remove(String name, long id) {
+            for (String token : tokens(name)) {
+                changes.remove(token, id);
+            }
+            return this;
+        }
+
+        public Batch replace(String oldName, String newName, long id) {
+            return remove(oldName, id).add(newName, id);
+        }
+
+        @Override
+        public void apply() {
+            changes.apply();
+        }
+    }
+
+    private static final class Entry {
+        final String key;
+        final long id;
+
+        Entry(String key, long id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+}
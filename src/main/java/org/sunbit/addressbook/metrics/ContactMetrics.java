@@ -0,0 +1,68 @@
+package org.sunbit.addressbook.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of every {@link org.sunbit.addressbook.ContactService} operation under
+ * {@code contact.service}, tagged by operation, and the number of contacts each prefix read
+ * returned under {@code contact.prefix.results}. Meters are registered once up front, so recording
+ * is a clock read and a histogram update, with no lookup or allocation.
+ */
+@Component
+public class ContactMetrics {
+
+    public enum Operation {
+        CREATE("create"),
+        UPDATE("update"),
+        REMOVE("remove"),
+        BATCH("batch"),
+        BULK_LOAD("bulkLoad"),
+        GET("get"),
+        READ_BY_PREFIX("readByPrefix"),
+        READ_BY_PREFIX_PAGE("readByPrefixPage"),
+        READ_BY_PREFIX_JSON("readByPrefixJson"),
+        COUNT_BY_PREFIX("countByPrefix"),
+        AUTOCOMPLETE("autocomplete"),
+        FUZZY_SEARCH("fuzzySearch"),
+        SEARCH_BY_TOKENS("searchByTokens"),
+        READ_BY_PHONE("readByPhone");
+
+        private final String tag;
+
+        Operation(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    private final Map<Operation, Timer> timers = new EnumMap<>(Operation.class);
+    private final DistributionSummary prefixResults;
+
+    public ContactMetrics(MeterRegistry meterRegistry) {
+        for (Operation operation : Operation.values()) {
+            timers.put(operation, Timer.builder("contact.service")
+                    .description("Latency of contact service operations")
+                    .tag("operation", operation.tag)
+                    .register(meterRegistry));
+        }
+        this.prefixResults = DistributionSummary.builder("contact.prefix.results")
+                .description("Contacts returned by a prefix read")
+                .baseUnit("contacts")
+                .register(meterRegistry);
+    }
+
+    /** Records an operation that started at {@code startedNanos}, a {@link System#nanoTime()} value. */
+    public void record(Operation operation, long startedNanos) {
+        timers.get(operation).record(System.nanoTime() - startedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordPrefixResults(int count) {
+        prefixResults.record(count);
+    }
+}
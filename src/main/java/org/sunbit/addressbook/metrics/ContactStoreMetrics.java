@@ -0,0 +1,90 @@
+package org.sunbit.addressbook.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.index.IndexStats;
+import org.sunbit.addressbook.index.SecondaryIndex;
+import org.sunbit.addressbook.model.Contact;
+
+import java.util.List;
+
+/**
+ * Gauges for the size of the contact store and its indexes: {@code contact.storage.entries},
+ * {@code contact.storage.footprint}, and per {@link SecondaryIndex} {@code contact.index.nodes},
+ * {@code contact.index.memory} and the counter {@code contact.index.lookups}, tagged by index and
+ * structure. Index sizes come from walking the index, which is reused for
+ * {@value #STATS_TTL_MILLIS} ms so that one scrape walks each index once.
+ */
+@Component
+public class ContactStoreMetrics implements MeterBinder {
+
+    private static final long STATS_TTL_MILLIS = 5_000;
+
+    private final MyKeyValueStorage<Contact> myKeyValueStorage;
+    private final List<SecondaryIndex<Contact>> indexes;
+
+    /** The store is injected lazily: it is timed through the meter registry this binder is bound to. */
+    public ContactStoreMetrics(
+            @Lazy MyKeyValueStorage<Contact> myKeyValueStorage,
+            List<SecondaryIndex<Contact>> indexes) {
+        this.myKeyValueStorage = myKeyValueStorage;
+        this.indexes = indexes;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("contact.storage.entries", myKeyValueStorage, MyKeyValueStorage::size)
+                .description("Contacts in the store")
+                .register(registry);
+        Gauge.builder("contact.storage.footprint", myKeyValueStorage, MyKeyValueStorage::footprintBytes)
+                .description("Estimated memory held by the contact store")
+                .baseUnit("bytes")
+                .register(registry);
+        indexes.forEach(index -> bindIndex(registry, index));
+    }
+
+    private static void bindIndex(MeterRegistry registry, SecondaryIndex<?> index) {
+        String structure = index.structure().name().toLowerCase();
+        CachedStats cached = new CachedStats(index);
+        Gauge.builder("contact.index.nodes", cached, c -> c.get().getNodes())
+                .description("Nodes or keys in the index")
+                .tag("index", index.name())
+                .tag("structure", structure)
+                .register(registry);
+        Gauge.builder("contact.index.memory", cached, c -> c.get().getBytes())
+                .description("Estimated heap held by the index")
+                .tag("index", index.name())
+                .tag("structure", structure)
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("contact.index.lookups", index, SecondaryIndex::lookups)
+                .description("Lookups served by the index")
+                .tag("index", index.name())
+                .tag("structure", structure)
+                .register(registry);
+    }
+
+    private static final class CachedStats {
+        private final SecondaryIndex<?> index;
+        private volatile IndexStats stats;
+        private volatile long takenAt;
+
+        CachedStats(SecondaryIndex<?> index) {
+            this.index = index;
+        }
+
+        IndexStats get() {
+            long now = System.currentTimeMillis();
+            if (stats == null || now - takenAt > STATS_TTL_MILLIS) {
+                stats = index.stats();
+                takenAt = now;
+            }
+            return stats;
+        }
+    }
+}
@@ -3,4 +3,6 @@ package org.sunbit.addressbook.model;
 public interface BaseEntity {
     Long getId();
     void setId(Long Id);
+    Long getVersion();
+    void setVersion(Long version);
 }
@@ -0,0 +1,24 @@
+package org.sunbit.addressbook.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** One item of a batch request; {@code id} is used by DELETE, {@code contact} by CREATE and UPDATE. */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class BatchOperation {
+
+  public enum Type {
+    CREATE,
+    UPDATE,
+    DELETE
+  }
+
+  private Type type;
+  private Long id;
+  private Contact contact;
+}
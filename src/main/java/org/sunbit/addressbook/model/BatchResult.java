@@ -0,0 +1,21 @@
+package org.sunbit.addressbook.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** Outcome of the batch item at {@code index}, with the HTTP status the single call would return. */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchResult {
+
+  private int index;
+  private int status;
+  private Contact contact;
+  private String error;
+}
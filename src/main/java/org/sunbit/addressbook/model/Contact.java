@@ -1,5 +1,6 @@
 package org.sunbit.addressbook.model;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -28,4 +29,12 @@ public class Contact implements BaseEntity{
 
   @NotBlank(message = "phoneNumber must not be blank")
   private String phoneNumber;
+
+  /** Set by the storage on every write, starting at 1; a version sent by a client is ignored. */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Long version;
+
+  public Contact(Long id, String name, String phoneNumber) {
+    this(id, name, phoneNumber, null);
+  }
 }
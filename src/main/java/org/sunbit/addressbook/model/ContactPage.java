@@ -0,0 +1,15 @@
+package org.sunbit.addressbook.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/** One page of a prefix search; {@code nextCursor} is null on the last page. */
+@Data
+@AllArgsConstructor
+public class ContactPage {
+
+  private List<Contact> contacts;
+  private SearchCursor nextCursor;
+}
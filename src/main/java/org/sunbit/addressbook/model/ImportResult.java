@@ -0,0 +1,28 @@
+package org.sunbit.addressbook.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Outcome of an import: how many records were imported and rejected, and why the first few were. */
+@Data
+@NoArgsConstructor
+public class ImportResult {
+
+  private long imported;
+  private long rejected;
+  private List<Rejection> errors = new ArrayList<>();
+
+  /** A record that was not imported, by the input line it starts on. */
+  @Data
+  @AllArgsConstructor
+  @NoArgsConstructor
+  public static class Rejection {
+
+    private long line;
+    private String error;
+  }
+}
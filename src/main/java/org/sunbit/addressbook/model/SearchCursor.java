@@ -0,0 +1,35 @@
+package org.sunbit.addressbook.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.sunbit.addressbook.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last contact returned by a prefix search, handed to clients as an opaque token.
+ * A search resumed from it returns the contacts strictly after (name, id) in name order.
+ */
+@Data
+@AllArgsConstructor
+public class SearchCursor {
+
+  private String name;
+  private long id;
+
+  public String encode() {
+    byte[] raw = (id + ":" + name).getBytes(StandardCharsets.UTF_8);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+  }
+
+  public static SearchCursor decode(String token) {
+    try {
+      String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+      int separator = raw.indexOf(':');
+      return new SearchCursor(raw.substring(separator + 1), Long.parseLong(raw.substring(0, separator)));
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      throw new InvalidCursorException(token);
+    }
+  }
+}
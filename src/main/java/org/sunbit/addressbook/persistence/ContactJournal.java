@@ -0,0 +1,213 @@
+package org.sunbit.addressbook.persistence;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.model.Contact;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Makes contact mutations durable through a {@link WriteAheadLog}, periodically compacts the log
+ * into a {@link SnapshotFile}, and rebuilds the storage and its indexes from both on startup.
+ * A no-op unless {@code addressbook.wal.enabled} is set.
+ */
+@Component
+@Log4j2
+public class ContactJournal {
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+    private static final Comparator<Contact> BY_NAME =
+            Comparator.comparing(Contact::getName).thenComparing(Contact::getId);
+
+    private final WalProperties properties;
+    private final MyKeyValueStorage<Contact> myKeyValueStorage;
+    private Path directory;
+    private WriteAheadLog wal;
+    private ScheduledExecutorService ownSnapshotter;
+    private ScheduledFuture<?> snapshots;
+
+    public ContactJournal(WalProperties properties, MyKeyValueStorage<Contact> myKeyValueStorage) {
+        this.properties = properties;
+        this.myKeyValueStorage = myKeyValueStorage;
+    }
+
+    @PostConstruct
+    public void recover() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        ownSnapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-snapshotter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recover(null, ownSnapshotter);
+    }
+
+    /**
+     * Like {@link #recover()}, but on executors shared with other journals instead of threads of
+     * its own: the log is written on {@code writers}, see {@link WriteAheadLog#start(ScheduledExecutorService)},
+     * and snapshots are taken on {@code snapshotter}. A snapshot waits for the log to roll, so the
+     * two must not be the same executor.
+     */
+    public void recover(ScheduledExecutorService writers, ScheduledExecutorService snapshotter) throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        directory = Paths.get(properties.getDirectory());
+        Files.createDirectories(directory);
+        wal = new WriteAheadLog(directory, properties.getDurability(), properties.getFlushInterval());
+
+        long started = System.nanoTime();
+        long firstSegment = loadLatestSnapshot();
+        MyKeyValueStorage<Contact>.Batch changes = myKeyValueStorage.batch();
+        long records = wal.replay(firstSegment, record -> {
+            if (record.getOp() == WalRecord.Op.PUT) {
+                changes.restore(record.getId(), record.getContact());
+            } else {
+                changes.removeById(record.getId());
+                myKeyValueStorage.advanceGeneratorTo(record.getId() + 1);
+            }
+        });
+        changes.apply();
+        log.info("recovered {} contacts ({} wal records replayed) in {} ms",
+                myKeyValueStorage.size(), records, (System.nanoTime() - started) / 1_000_000);
+
+        if (writers == null) {
+            wal.start();
+        } else {
+            wal.start(writers);
+        }
+        long interval = properties.getSnapshotInterval().toMillis();
+        snapshots = snapshotter.scheduleWithFixedDelay(this::snapshotQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public void logPut(Contact contact) {
+        if (wal != null) {
+            wal.append(WalRecord.put(contact));
+        }
+    }
+
+    public void logRemove(long id) {
+        if (wal != null) {
+            wal.append(WalRecord.remove(id));
+        }
+    }
+
+    public void logAll(List<WalRecord> records) {
+        if (wal != null) {
+            wal.append(records);
+        }
+    }
+
+    /**
+     * Writes a snapshot while writes continue, then drops the log segments and snapshots it makes
+     * redundant.
+     *
+     * <p>The log is rolled first, so every record in the older segments was applied in memory
+     * before the snapshot starts and is contained in it. The contacts are read from the storage,
+     * not the name index, which lags behind it while a bulk load has contacts waiting for their
+     * index pass, then sorted by name for a fast recovery; a contact updated, removed or added
+     * during the read may be seen either way, but its record lands in the new segment and is
+     * replayed on top of the snapshot. Replaying a record twice is harmless.
+     */
+    public synchronized void snapshot() throws IOException {
+        if (wal == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        long segment = wal.roll();
+        Path target = snapshotPath(segment);
+        long nextId = myKeyValueStorage.nextId();
+        List<Contact> contacts = new ArrayList<>(Math.toIntExact(myKeyValueStorage.size()));
+        myKeyValueStorage.forEach((id, contact) -> contacts.add(contact));
+        contacts.sort(BY_NAME);
+        long count;
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(target, nextId)) {
+            for (Contact contact : contacts) {
+                writer.write(contact);
+            }
+            writer.commit();
+            count = writer.count();
+        }
+        for (long older : snapshots()) {
+            if (older < segment) {
+                Files.deleteIfExists(snapshotPath(older));
+            }
+        }
+        wal.deleteSegmentsBefore(segment);
+        log.info("wrote snapshot {} with {} contacts in {} ms", target, count, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (snapshots != null) {
+            snapshots.cancel(false);
+        }
+        if (ownSnapshotter != null) {
+            ownSnapshotter.shutdownNow();
+        }
+        if (wal != null) {
+            wal.close();
+        }
+    }
+
+    /** @return the first log segment that is not covered by the loaded snapshot */
+    private long loadLatestSnapshot() throws IOException {
+        List<Long> snapshots = snapshots();
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        long segment = snapshots.get(snapshots.size() - 1);
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(snapshotPath(segment))) {
+            List<Contact> contacts = new ArrayList<>(Math.toIntExact(reader.count()));
+            reader.forEach((contact, i) -> {
+                myKeyValueStorage.restoreUnindexed(contact.getId(), contact);
+                contacts.add(contact);
+            });
+            myKeyValueStorage.advanceGeneratorTo(reader.nextId());
+            // in name order, so the name index merges them without sorting
+            myKeyValueStorage.indexAll(contacts);
+        }
+        return segment;
+    }
+
+    private List<Long> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path snapshotPath(long segment) {
+        return directory.resolve(String.format("%s%010d%s", SNAPSHOT_PREFIX, segment, SNAPSHOT_SUFFIX));
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("snapshot failed, the log keeps growing until the next one succeeds", e);
+        }
+    }
+}
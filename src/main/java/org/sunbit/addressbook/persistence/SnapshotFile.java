@@ -0,0 +1,210 @@
+package org.sunbit.addressbook.persistence;
+
+import org.sunbit.addressbook.model.Contact;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time copy of all contacts, sorted by name and then id so the name index can be bulk
+ * built from it.
+ *
+ * <p>Layout: {@code int magic, int version, long nextId}, then per contact {@code long id},
+ * {@code long contactVersion} and name and phone number as
+ * {@code int byteLength (-1 for null), UTF-8 bytes}, then the trailer
+ * {@code long count, int crc32(everything before the trailer)}. A {@code contactVersion} of
+ * {@code 0} means none; version 1 files, written before contacts were versioned, have no
+ * {@code contactVersion} at all.
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x53424b53;
+    private static final int VERSION = 2;
+    private static final int UNVERSIONED_CONTACTS = 1;
+    private static final int HEADER_BYTES = 2 * Integer.BYTES + Long.BYTES;
+    private static final int TRAILER_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int WINDOW_BYTES = 256 << 20;
+
+    private SnapshotFile() {
+    }
+
+    /** Streams contacts into a new snapshot at {@code target}, which only appears once complete and synced. */
+    static final class Writer implements AutoCloseable {
+
+        private final Path target;
+        private final Path temp;
+        private final CRC32 crc = new CRC32();
+        private final DataOutputStream out;
+        private long count;
+
+        Writer(Path target, long nextId) throws IOException {
+            this.target = target;
+            this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+            OutputStream file = Files.newOutputStream(temp);
+            this.out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(file, crc), 1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(nextId);
+        }
+
+        void write(Contact contact) throws IOException {
+            out.writeLong(contact.getId());
+            out.writeLong(contact.getVersion() == null ? 0 : contact.getVersion());
+            writeString(contact.getName());
+            writeString(contact.getPhoneNumber());
+            count++;
+        }
+
+        /** Writes the trailer, syncs the file and atomically moves it into place. */
+        void commit() throws IOException {
+            out.flush();
+            long checksum = crc.getValue();
+            out.writeLong(count);
+            out.writeInt((int) checksum);
+            out.close();
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.deleteIfExists(temp);
+        }
+
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @FunctionalInterface
+    interface ContactConsumer {
+        void accept(Contact contact, long index);
+    }
+
+    /** Reads a snapshot through memory-mapped windows of the file. */
+    static final class Reader implements AutoCloseable {
+
+        private final Path path;
+        private final FileChannel channel;
+        private final long bodyEnd;
+        private final long nextId;
+        private final long count;
+        private final boolean versionedContacts;
+        private MappedByteBuffer window;
+        private long windowStart;
+
+        Reader(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            long size = channel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) {
+                throw corrupt("too short");
+            }
+            this.bodyEnd = size - TRAILER_BYTES;
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            channel.read(trailer, bodyEnd);
+            this.count = trailer.getLong(0);
+            verifyChecksum(trailer.getInt(Long.BYTES));
+            map(0, HEADER_BYTES);
+            int magic = window.getInt();
+            int version = window.getInt();
+            if (magic != MAGIC || (version != VERSION && version != UNVERSIONED_CONTACTS)) {
+                throw corrupt("unknown format");
+            }
+            this.versionedContacts = version == VERSION;
+            this.nextId = window.getLong();
+        }
+
+        long nextId() {
+            return nextId;
+        }
+
+        long count() {
+            return count;
+        }
+
+        void forEach(ContactConsumer consumer) throws IOException {
+            for (long i = 0; i < count; i++) {
+                ensure(versionedContacts ? 2 * Long.BYTES : Long.BYTES);
+                long id = window.getLong();
+                long version = versionedContacts ? window.getLong() : 0;
+                String name = readString();
+                String phone = readString();
+                consumer.accept(new Contact(id, name, phone, version == 0 ? null : version), i);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private String readString() throws IOException {
+            ensure(Integer.BYTES);
+            int length = window.getInt();
+            if (length < 0) {
+                return null;
+            }
+            ensure(length);
+            byte[] bytes = new byte[length];
+            window.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /** Remaps the window at the current position if fewer than {@code bytes} are left in it. */
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() >= bytes) {
+                return;
+            }
+            long position = windowStart + window.position();
+            if (position + bytes > bodyEnd) {
+                throw corrupt("record runs past the end");
+            }
+            map(position, Math.max(bytes, WINDOW_BYTES));
+        }
+
+        private void map(long position, long size) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size, bodyEnd - position));
+        }
+
+        private void verifyChecksum(int expected) throws IOException {
+            CRC32 crc = new CRC32();
+            for (long position = 0; position < bodyEnd; position += WINDOW_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_BYTES, bodyEnd - position)));
+            }
+            if ((int) crc.getValue() != expected) {
+                throw corrupt("checksum mismatch");
+            }
+        }
+
+        private IOException corrupt(String reason) {
+            return new IOException("corrupt snapshot " + path + ": " + reason);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.sunbit.addressbook.persistence;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "addressbook.wal")
+public class WalProperties {
+
+    public enum Durability {
+        /** A write returns once its record is fsynced; concurrent writes share one fsync. */
+        SYNC,
+        /** A write returns once its record reaches the OS; the log is fsynced every {@code flushInterval}. */
+        INTERVAL,
+        /** A write returns once its record reaches the OS; the OS decides when it hits the disk. */
+        OS
+    }
+
+    private boolean enabled = false;
+    private String directory = "data";
+    private Durability durability = Durability.SYNC;
+    private Duration flushInterval = Duration.ofMillis(10);
+    /** How often a snapshot is written, after which the log segments it covers are deleted. */
+    private Duration snapshotInterval = Duration.ofMinutes(10);
+}
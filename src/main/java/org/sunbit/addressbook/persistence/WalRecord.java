@@ -0,0 +1,113 @@
+package org.sunbit.addressbook.persistence;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.sunbit.addressbook.model.Contact;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * A single logged mutation. Records are idempotent (PUT sets the whole contact, REMOVE deletes by
+ * id), so replaying a record that is already reflected in memory is harmless.
+ *
+ * <p>On disk: {@code int bodyLength, int crc32(body), body}, where body is
+ * {@code byte op, long id} followed for PUT by name and phone number as
+ * {@code int byteLength (-1 for null), UTF-8 bytes} and the contact's {@code long version}
+ * ({@code 0} for none). Records written before versioning end after the phone number.
+ */
+@Data
+@AllArgsConstructor
+public class WalRecord {
+
+    static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    public enum Op {
+        PUT,
+        REMOVE
+    }
+
+    private final Op op;
+    private final long id;
+    private final Contact contact;
+
+    public static WalRecord put(Contact contact) {
+        return new WalRecord(Op.PUT, contact.getId(), contact);
+    }
+
+    public static WalRecord remove(long id) {
+        return new WalRecord(Op.REMOVE, id, null);
+    }
+
+    ByteBuffer encode() {
+        byte[] name = utf8(op == Op.PUT ? contact.getName() : null);
+        byte[] phone = utf8(op == Op.PUT ? contact.getPhoneNumber() : null);
+        int bodyLength = 1 + Long.BYTES;
+        if (op == Op.PUT) {
+            bodyLength += 2 * Integer.BYTES + length(name) + length(phone) + Long.BYTES;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bodyLength);
+        buffer.putInt(bodyLength).putInt(0);
+        buffer.put((byte) op.ordinal()).putLong(id);
+        if (op == Op.PUT) {
+            putBytes(buffer, name);
+            putBytes(buffer, phone);
+            buffer.putLong(contact.getVersion() == null ? 0 : contact.getVersion());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, bodyLength);
+        buffer.putInt(Integer.BYTES, (int) crc.getValue());
+        return buffer.flip();
+    }
+
+    /** Decodes a body whose checksum was already verified. */
+    static WalRecord decode(ByteBuffer body) {
+        try {
+            Op op = Op.values()[body.get()];
+            long id = body.getLong();
+            if (op == Op.REMOVE) {
+                return remove(id);
+            }
+            String name = getString(body);
+            String phone = getString(body);
+            long version = body.remaining() >= Long.BYTES ? body.getLong() : 0;
+            return put(new Contact(id, name, phone, version == 0 ? null : version));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalStateException("malformed wal record", e);
+        }
+    }
+
+    static boolean checksumMatches(ByteBuffer body, int expected) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        return (int) crc.getValue() == expected;
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
@@ -0,0 +1,462 @@
+package org.sunbit.addressbook.persistence;
+
+import lombok.extern.log4j.Log4j2;
+import org.sunbit.addressbook.persistence.WalProperties.Durability;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log with group commit, kept as a directory of numbered segment files.
+ *
+ * <p>Request threads only encode their records and queue them; a single writer thread drains
+ * everything queued so far with one gathering {@link FileChannel#write(ByteBuffer[])} and, in
+ * {@link Durability#SYNC} mode, one {@link FileChannel#force(boolean)}. Under concurrency many
+ * writes therefore share one fsync. Callers block until their records reach the durability level
+ * that was configured.
+ *
+ * <p>The writer is either a thread of its own, see {@link #start()}, or tasks on an executor
+ * shared by many logs, see {@link #start(ScheduledExecutorService)}.
+ *
+ * <p>{@link #roll()} starts a new segment so that older ones can be deleted once a snapshot
+ * covers them.
+ */
+@Log4j2
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final String SEGMENT_PREFIX = "contacts-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    private final Path directory;
+    private final Durability durability;
+    private final long flushIntervalNanos;
+    private FileChannel channel;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasPending = lock.newCondition();
+    private final Condition progressed = lock.newCondition();
+    private List<ByteBuffer> pending = new ArrayList<>();
+    private long enqueuedCount;
+    private long writtenCount;
+    private long durableCount;
+    private long segment;
+    private boolean rollRequested;
+    private IOException failure;
+    private boolean closed;
+    private boolean stopped;
+    private Thread writer;
+    private ScheduledExecutorService executor;
+    /** On an executor: whether a task is queued or running to drain the log. */
+    private boolean drainQueued;
+    private boolean forceScheduled;
+    /** Confined to the writer. */
+    private long lastForce;
+
+    public WriteAheadLog(Path directory, Durability durability, Duration flushInterval) throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        List<Long> segments = segments();
+        this.segment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+        this.channel = openSegment(segment);
+    }
+
+    /**
+     * Feeds every intact record of the segments numbered {@code fromSegment} and above to
+     * {@code consumer} in log order. A torn or corrupt tail (a crash in the middle of a write) is
+     * cut off so that new records are appended after the last good one. Must be called before
+     * {@link #start()}.
+     */
+    public long replay(long fromSegment, Consumer<WalRecord> consumer) throws IOException {
+        long records = 0;
+        for (long number : segments()) {
+            if (number < fromSegment) {
+                continue;
+            }
+            if (number == segment) {
+                records += replay(channel, number, consumer);
+            } else {
+                try (FileChannel old = FileChannel.open(segmentPath(number), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    records += replay(old, number, consumer);
+                }
+            }
+        }
+        channel.position(channel.size());
+        return records;
+    }
+
+    public void start() {
+        lastForce = System.nanoTime();
+        writer = new Thread(this::writeLoop, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Like {@link #start()}, but writes on {@code executor}, which may be shared with other logs,
+     * instead of a thread of its own: a task drains the queue whenever there is something to
+     * write and ends once it is empty. In {@link Durability#INTERVAL} mode the next fsync is
+     * scheduled on it as well. Its tasks never block, so it may be small; the log fails once it
+     * rejects them.
+     */
+    public void start(ScheduledExecutorService executor) {
+        lastForce = System.nanoTime();
+        this.executor = executor;
+    }
+
+    public void append(WalRecord record) {
+        append(List.of(record));
+    }
+
+    /** Appends the records in order and waits until they are durable as configured. */
+    public void append(List<WalRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer> encoded = new ArrayList<>(records.size());
+        for (WalRecord record : records) {
+            encoded.add(record.encode());
+        }
+        lock.lock();
+        try {
+            checkOpen();
+            pending.addAll(encoded);
+            enqueuedCount += encoded.size();
+            long target = enqueuedCount;
+            wake();
+            while (acknowledgedCount() < target && failure == null) {
+                progressed.awaitUninterruptibly();
+            }
+            checkFailure();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the current segment after every record queued so far and continues in a new one.
+     *
+     * @return the number of the new segment; every record appended before this call is in a lower one
+     */
+    public long roll() {
+        lock.lock();
+        try {
+            checkOpen();
+            long target = segment + 1;
+            rollRequested = true;
+            wake();
+            while (segment < target && failure == null) {
+                progressed.awaitUninterruptibly();
+            }
+            checkFailure();
+            return target;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Deletes the segments numbered below {@code firstKept}. */
+    public void deleteSegmentsBefore(long firstKept) throws IOException {
+        for (long number : segments()) {
+            if (number < firstKept) {
+                Files.deleteIfExists(segmentPath(number));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            if (writer != null || executor != null) {
+                wake();
+                long remaining = TimeUnit.SECONDS.toNanos(10);
+                while (!stopped && remaining > 0) {
+                    remaining = progressed.awaitNanos(remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+        channel.close();
+    }
+
+    private long replay(FileChannel file, long number, Consumer<WalRecord> consumer) throws IOException {
+        long position = 0;
+        long size = file.size();
+        long records = 0;
+        ByteBuffer header = ByteBuffer.allocate(WalRecord.HEADER_BYTES);
+        while (position + WalRecord.HEADER_BYTES <= size) {
+            header.clear();
+            readFully(file, header, position);
+            int bodyLength = header.getInt(0);
+            int crc = header.getInt(Integer.BYTES);
+            if (bodyLength <= 0 || position + WalRecord.HEADER_BYTES + bodyLength > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(file, body, position + WalRecord.HEADER_BYTES);
+            body.flip();
+            if (!WalRecord.checksumMatches(body, crc)) {
+                break;
+            }
+            consumer.accept(WalRecord.decode(body));
+            position += WalRecord.HEADER_BYTES + bodyLength;
+            records++;
+        }
+        if (position < size) {
+            log.warn("truncating {} bytes of torn or corrupt records at the end of wal segment {}", size - position, number);
+            file.truncate(position);
+        }
+        return records;
+    }
+
+    private long acknowledgedCount() {
+        return durability == Durability.SYNC ? durableCount : writtenCount;
+    }
+
+    private void checkOpen() {
+        checkFailure();
+        if (closed) {
+            throw new IllegalStateException("write-ahead log is closed");
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("write-ahead log failed", failure);
+        }
+    }
+
+    /** Has the writer pick up what was queued, or the close. Called with the lock held. */
+    private void wake() {
+        if (executor == null) {
+            hasPending.signal();
+        } else if (!drainQueued && !stopped) {
+            drainQueued = true;
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                fail(new IOException("write-ahead log executor rejected the writer", e));
+            }
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            lock.lock();
+            try {
+                while (!hasWork()) {
+                    if (durability == Durability.INTERVAL && writtenCount > durableCount) {
+                        hasPending.awaitNanos(flushIntervalNanos - (System.nanoTime() - lastForce));
+                    } else {
+                        hasPending.awaitUninterruptibly();
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.error("write-ahead log writer interrupted, rejecting further writes");
+                fail(new InterruptedIOException("write-ahead log writer interrupted"));
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (!writeBatch()) {
+                return;
+            }
+        }
+    }
+
+    /** The writer's task on an executor: writes until there is nothing left to write. */
+    private void drain() {
+        while (true) {
+            lock.lock();
+            try {
+                if (!hasWork()) {
+                    drainQueued = false;
+                    if (durability == Durability.INTERVAL && writtenCount > durableCount && !forceScheduled) {
+                        forceScheduled = true;
+                        long delay = flushIntervalNanos - (System.nanoTime() - lastForce);
+                        try {
+                            executor.schedule(this::forceDue, delay, TimeUnit.NANOSECONDS);
+                        } catch (RejectedExecutionException e) {
+                            fail(new IOException("write-ahead log executor rejected the writer", e));
+                        }
+                    }
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!writeBatch()) {
+                return;
+            }
+        }
+    }
+
+    private void forceDue() {
+        lock.lock();
+        try {
+            forceScheduled = false;
+            wake();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Called with the lock held. */
+    private boolean hasWork() {
+        return !pending.isEmpty() || rollRequested || closed || intervalForceDue();
+    }
+
+    /**
+     * Writes everything queued so far, then forces and rolls as requested.
+     *
+     * @return false once the writer is done: the log was closed or failed
+     */
+    private boolean writeBatch() {
+        List<ByteBuffer> batch;
+        long batchEnd;
+        boolean roll;
+        boolean stopping;
+        lock.lock();
+        try {
+            batch = pending;
+            pending = new ArrayList<>();
+            batchEnd = enqueuedCount;
+            roll = rollRequested;
+            rollRequested = false;
+            stopping = closed;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            write(batch);
+            boolean force = roll
+                    || durability == Durability.SYNC
+                    || (durability == Durability.INTERVAL && (stopping || System.nanoTime() - lastForce >= flushIntervalNanos));
+            if (force) {
+                channel.force(false);
+                lastForce = System.nanoTime();
+            }
+            FileChannel next = roll ? openSegment(segment + 1) : null;
+            progress(batchEnd, force, next);
+        } catch (IOException e) {
+            log.error("write-ahead log write failed, rejecting further writes", e);
+            fail(e);
+            return false;
+        }
+        if (stopping && batch.isEmpty()) {
+            lock.lock();
+            try {
+                stopped = true;
+                progressed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private boolean intervalForceDue() {
+        return durability == Durability.INTERVAL
+                && writtenCount > durableCount
+                && System.nanoTime() - lastForce >= flushIntervalNanos;
+    }
+
+    private void write(List<ByteBuffer> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ByteBuffer[] buffers = batch.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+    }
+
+    private void progress(long batchEnd, boolean forced, FileChannel nextSegment) throws IOException {
+        lock.lock();
+        try {
+            writtenCount = batchEnd;
+            if (forced) {
+                durableCount = batchEnd;
+            }
+            if (nextSegment != null) {
+                channel.close();
+                channel = nextSegment;
+                segment++;
+            }
+            progressed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(IOException e) {
+        lock.lock();
+        try {
+            failure = e;
+            closed = true;
+            stopped = true;
+            progressed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Long> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files
+                    .map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        FileChannel opened = FileChannel.open(
+                segmentPath(number), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        opened.position(opened.size());
+        return opened;
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of wal segment");
+            }
+        }
+    }
+}
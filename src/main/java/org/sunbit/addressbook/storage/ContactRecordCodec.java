@@ -0,0 +1,90 @@
+package org.sunbit.addressbook.storage;
+
+import org.sunbit.addressbook.model.Contact;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes a contact as a varint of {@code version + 1} ({@code 0} for null), then its name and
+ * phone number, each a varint of {@code byteLength + 1} ({@code 0} for null) followed by the UTF-8
+ * bytes. The id is the record's key, so it is not stored.
+ */
+public class ContactRecordCodec implements RecordCodec<Contact> {
+
+    @Override
+    public byte[] encode(Contact contact) {
+        byte[] name = utf8(contact.getName());
+        byte[] phoneNumber = utf8(contact.getPhoneNumber());
+        long version = contact.getVersion() == null ? 0 : contact.getVersion() + 1;
+        byte[] record = new byte[varintLength(version) + encodedLength(name) + encodedLength(phoneNumber)];
+        int position = writeVarint(version, record, 0);
+        position = write(name, record, position);
+        write(phoneNumber, record, position);
+        return record;
+    }
+
+    @Override
+    public Contact decode(long id, ByteBuffer record) {
+        long version = readVarint(record);
+        String name = readString(record);
+        String phoneNumber = readString(record);
+        return new Contact(id, name, phoneNumber, version == 0 ? null : version - 1);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int encodedLength(byte[] value) {
+        return value == null ? 1 : varintLength(value.length + 1) + value.length;
+    }
+
+    private static int varintLength(long value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int writeVarint(long value, byte[] record, int position) {
+        while ((value & ~0x7fL) != 0) {
+            record[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        record[position++] = (byte) value;
+        return position;
+    }
+
+    private static long readVarint(ByteBuffer record) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = record.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static int write(byte[] value, byte[] record, int position) {
+        position = writeVarint(value == null ? 0 : value.length + 1, record, position);
+        if (value != null) {
+            System.arraycopy(value, 0, record, position, value.length);
+            position += value.length;
+        }
+        return position;
+    }
+
+    private static String readString(ByteBuffer record) {
+        int length = (int) readVarint(record);
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length - 1];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package org.sunbit.addressbook.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Primitive counterpart of {@link DenseLongMap}: a {@code long} slot per dense, non-negative key,
+ * with {@code 0} meaning absent. Segments are allocated lazily behind a copy-on-write directory, so
+ * reads never lock or allocate.
+ */
+final class DenseLongArray {
+
+    private static final int SEGMENT_SHIFT = 14;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private volatile AtomicLongArray[] segments = new AtomicLongArray[0];
+
+    long get(long key) {
+        AtomicLongArray segment = segmentFor(key);
+        return segment == null ? 0 : segment.get(slot(key));
+    }
+
+    long getAndSet(long key, long value) {
+        AtomicLongArray segment = segmentFor(key);
+        if (segment == null) {
+            if (value == 0) {
+                return 0;
+            }
+            segment = allocateSegment((int) segmentIndex(key));
+        }
+        return segment.getAndSet(slot(key), value);
+    }
+
+    /** Visits every non-zero slot in ascending key order; weakly consistent. */
+    void forEach(LongLongConsumer consumer) {
+        AtomicLongArray[] current = segments;
+        for (int s = 0; s < current.length; s++) {
+            AtomicLongArray segment = current[s];
+            if (segment == null) {
+                continue;
+            }
+            long base = (long) s << SEGMENT_SHIFT;
+            for (int i = 0; i < SEGMENT_SIZE; i++) {
+                long value = segment.get(i);
+                if (value != 0) {
+                    consumer.accept(base + i, value);
+                }
+            }
+        }
+    }
+
+    long footprintBytes() {
+        AtomicLongArray[] current = segments;
+        long allocated = 0;
+        for (AtomicLongArray segment : current) {
+            if (segment != null) {
+                allocated++;
+            }
+        }
+        return (long) current.length * Integer.BYTES + allocated * ((long) SEGMENT_SIZE * Long.BYTES + 32);
+    }
+
+    /** @return the key's segment, or null if it is not allocated or the key is outside the map */
+    private AtomicLongArray segmentFor(long key) {
+        if (key < 0) {
+            return null;
+        }
+        long index = key >>> SEGMENT_SHIFT;
+        AtomicLongArray[] current = segments;
+        return index < current.length ? current[(int) index] : null;
+    }
+
+    private synchronized AtomicLongArray allocateSegment(int index) {
+        AtomicLongArray[] current = segments;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        int length = index < current.length ? current.length : Math.max(index + 1, current.length * 2);
+        AtomicLongArray[] grown = Arrays.copyOf(current, length);
+        AtomicLongArray segment = new AtomicLongArray(SEGMENT_SIZE);
+        grown[index] = segment;
+        segments = grown;
+        return segment;
+    }
+
+    /** Only writes validate keys: reads of keys outside the map find nothing. */
+    private static long segmentIndex(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("key must not be negative: " + key);
+        }
+        long index = key >>> SEGMENT_SHIFT;
+        if (index >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("key out of range: " + key);
+        }
+        return index;
+    }
+
+    private static int slot(long key) {
+        return (int) (key & SEGMENT_MASK);
+    }
+
+    @FunctionalInterface
+    interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+}
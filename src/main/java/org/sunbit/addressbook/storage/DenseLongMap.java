@@ -0,0 +1,162 @@
+package org.sunbit.addressbook.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent map keyed by a primitive, non-negative {@code long} that is expected to be dense
+ * (ids handed out by a sequence generator).
+ *
+ * <p>Values live in fixed-size segments addressed directly by the key, so a lookup is two array
+ * reads and never allocates: no boxed keys, no entry nodes. Segments are allocated lazily and the
+ * segment directory is replaced copy-on-write, so readers never lock. Slots are updated with
+ * volatile writes / CAS, so writers never block each other either.
+ */
+public class DenseLongMap<V> implements EntityStore<V> {
+
+    private static final int SEGMENT_SHIFT = 14;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    @SuppressWarnings("unchecked")
+    private volatile AtomicReferenceArray<V>[] segments = new AtomicReferenceArray[0];
+    private final AtomicLong size = new AtomicLong();
+
+    @Override
+    public V get(long key) {
+        AtomicReferenceArray<V> segment = segmentFor(key);
+        return segment == null ? null : segment.get(slot(key));
+    }
+
+    @Override
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        V previous = segmentForWrite(key).getAndSet(slot(key), value);
+        if (previous == null) {
+            size.incrementAndGet();
+        }
+        return previous;
+    }
+
+    @Override
+    public V remove(long key) {
+        AtomicReferenceArray<V> segment = segmentFor(key);
+        if (segment == null) {
+            return null;
+        }
+        V previous = segment.getAndSet(slot(key), null);
+        if (previous != null) {
+            size.decrementAndGet();
+        }
+        return previous;
+    }
+
+    /** Compares by identity: {@code expected} must be the very instance {@link #get} returned. */
+    @Override
+    public boolean replace(long key, V expected, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        AtomicReferenceArray<V> segment = segmentFor(key);
+        return segment != null && segment.compareAndSet(slot(key), expected, value);
+    }
+
+    /** Compares by identity: {@code expected} must be the very instance {@link #get} returned. */
+    @Override
+    public boolean remove(long key, V expected) {
+        AtomicReferenceArray<V> segment = segmentFor(key);
+        if (segment == null || !segment.compareAndSet(slot(key), expected, null)) {
+            return false;
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public void forEach(LongObjConsumer<? super V> consumer) {
+        AtomicReferenceArray<V>[] current = segments;
+        for (int s = 0; s < current.length; s++) {
+            AtomicReferenceArray<V> segment = current[s];
+            if (segment == null) {
+                continue;
+            }
+            long base = (long) s << SEGMENT_SHIFT;
+            for (int i = 0; i < SEGMENT_SIZE; i++) {
+                V value = segment.get(i);
+                if (value != null) {
+                    consumer.accept(base + i, value);
+                }
+            }
+        }
+    }
+
+    /** Rough number of heap bytes held by the slot arrays, excluding the values themselves. */
+    @Override
+    public long footprintBytes() {
+        AtomicReferenceArray<V>[] current = segments;
+        long allocated = 0;
+        for (AtomicReferenceArray<V> segment : current) {
+            if (segment != null) {
+                allocated++;
+            }
+        }
+        return (long) current.length * Integer.BYTES + allocated * ((long) SEGMENT_SIZE * Integer.BYTES + 32);
+    }
+
+    /** @return the key's segment, or null if it is not allocated or the key is outside the map */
+    private AtomicReferenceArray<V> segmentFor(long key) {
+        if (key < 0) {
+            return null;
+        }
+        long index = key >>> SEGMENT_SHIFT;
+        AtomicReferenceArray<V>[] current = segments;
+        return index < current.length ? current[(int) index] : null;
+    }
+
+    private AtomicReferenceArray<V> segmentForWrite(long key) {
+        AtomicReferenceArray<V> segment = segmentFor(key);
+        return segment != null ? segment : allocateSegment((int) segmentIndex(key));
+    }
+
+    private synchronized AtomicReferenceArray<V> allocateSegment(int index) {
+        AtomicReferenceArray<V>[] current = segments;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        int length = index < current.length ? current.length : Math.max(index + 1, current.length * 2);
+        AtomicReferenceArray<V>[] grown = Arrays.copyOf(current, length);
+        AtomicReferenceArray<V> segment = new AtomicReferenceArray<>(SEGMENT_SIZE);
+        grown[index] = segment;
+        segments = grown;
+        return segment;
+    }
+
+    /** Only writes validate keys: reads of keys outside the map find nothing. */
+    private static long segmentIndex(long key) {
+        if (key < 0) {
+            throw new IllegalArgumentException("key must not be negative: " + key);
+        }
+        long index = key >>> SEGMENT_SHIFT;
+        if (index >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("key out of range: " + key);
+        }
+        return index;
+    }
+
+    private static int slot(long key) {
+        return (int) (key & SEGMENT_MASK);
+    }
+
+    @FunctionalInterface
+    public interface LongObjConsumer<V> {
+        void accept(long key, V value);
+    }
+}
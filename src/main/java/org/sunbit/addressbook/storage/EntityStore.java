@@ -0,0 +1,36 @@
+package org.sunbit.addressbook.storage;
+
+/** Id-addressed value store backing {@link org.sunbit.addressbook.MyKeyValueStorage}. */
+public interface EntityStore<V> {
+
+    /** @return the value, or {@code null} if there is none */
+    V get(long id);
+
+    /** @return the previous value, or {@code null} if there was none */
+    V put(long id, V value);
+
+    /** @return the removed value, or {@code null} if there was none */
+    V remove(long id);
+
+    /**
+     * Replaces the value only if it is still {@code expected}, as returned by {@link #get}.
+     *
+     * @return whether it was replaced
+     */
+    boolean replace(long id, V expected, V value);
+
+    /**
+     * Removes the value only if it is still {@code expected}, as returned by {@link #get}.
+     *
+     * @return whether it was removed
+     */
+    boolean remove(long id, V expected);
+
+    long size();
+
+    /** Weakly consistent iteration in ascending id order; never blocks writers. */
+    void forEach(DenseLongMap.LongObjConsumer<? super V> consumer);
+
+    /** Rough number of bytes held by the store, including the values when it owns their encoding. */
+    long footprintBytes();
+}
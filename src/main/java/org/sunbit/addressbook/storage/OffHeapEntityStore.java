@@ -0,0 +1,293 @@
+package org.sunbit.addressbook.storage;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps values as compact byte records in direct memory, so a large store costs the collector
+ * almost nothing to trace. Values are materialized by the {@link RecordCodec} on every read.
+ *
+ * <p>Records are appended to fixed-size direct "slabs" as {@code int length, payload}; a
+ * {@link DenseLongArray} maps each id to its record's slab and offset. Records are never written
+ * over, so readers follow the location without locking. Writers serialize on a lock, and an
+ * overwritten or removed record just becomes garbage.
+ *
+ * <p>Once garbage makes up more than half of the appended bytes, a background compaction copies
+ * the live records into fresh slabs, repoints each id and then retires the old slabs, which the
+ * collector frees once no reader holds them anymore. Writers wait for a compaction; readers do not.
+ */
+@Log4j2
+public class OffHeapEntityStore<V> implements EntityStore<V> {
+
+    private final RecordCodec<V> codec;
+    private final int slabBytes;
+    private final DenseLongArray locations = new DenseLongArray();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "offheap-compactor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Slab directory, replaced copy-on-write; retired slabs leave a {@code null} behind. */
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+    private volatile long size;
+    private volatile long allocatedBytes;
+    private volatile long appendedBytes;
+    private volatile long liveBytes;
+
+    // guarded by writeLock
+    private ByteBuffer tail;
+    private int tailIndex;
+    private boolean compactionPending;
+
+    public OffHeapEntityStore(RecordCodec<V> codec, int slabBytes) {
+        if (slabBytes < 1024) {
+            throw new IllegalArgumentException("slab size must be at least 1KB: " + slabBytes);
+        }
+        this.codec = codec;
+        this.slabBytes = slabBytes;
+    }
+
+    @Override
+    public V get(long id) {
+        while (true) {
+            long location = locations.get(id);
+            if (location == 0) {
+                return null;
+            }
+            ByteBuffer slab = slabs[slabIndex(location)];
+            if (slab != null) {
+                return read(id, slab, offset(location));
+            }
+            // a compaction retired the slab after moving the record: its new location is already visible
+        }
+    }
+
+    @Override
+    public V put(long id, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        ByteBuffer payload = ByteBuffer.wrap(codec.encode(value));
+        writeLock.lock();
+        try {
+            long previous = locations.getAndSet(id, append(payload));
+            liveBytes += recordBytes(payload.limit());
+            if (previous == 0) {
+                size++;
+                return null;
+            }
+            return release(id, previous);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(long id) {
+        writeLock.lock();
+        try {
+            long previous = locations.getAndSet(id, 0);
+            if (previous == 0) {
+                return null;
+            }
+            size--;
+            return release(id, previous);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Compares by value: the stored record must hold the bytes {@code expected} encodes to. */
+    @Override
+    public boolean replace(long id, V expected, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null");
+        }
+        ByteBuffer expectedPayload = ByteBuffer.wrap(codec.encode(expected));
+        ByteBuffer payload = ByteBuffer.wrap(codec.encode(value));
+        writeLock.lock();
+        try {
+            long current = locations.get(id);
+            if (current == 0 || !record(current).equals(expectedPayload)) {
+                return false;
+            }
+            locations.getAndSet(id, append(payload));
+            liveBytes += recordBytes(payload.limit());
+            discard(current);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Compares by value: the stored record must hold the bytes {@code expected} encodes to. */
+    @Override
+    public boolean remove(long id, V expected) {
+        ByteBuffer expectedPayload = ByteBuffer.wrap(codec.encode(expected));
+        writeLock.lock();
+        try {
+            long current = locations.get(id);
+            if (current == 0 || !record(current).equals(expectedPayload)) {
+                return false;
+            }
+            locations.getAndSet(id, 0);
+            size--;
+            discard(current);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public long size() {
+        return size;
+    }
+
+    @Override
+    public void forEach(DenseLongMap.LongObjConsumer<? super V> consumer) {
+        locations.forEach((id, location) -> {
+            V value = get(id);
+            if (value != null) {
+                consumer.accept(id, value);
+            }
+        });
+    }
+
+    /** Direct memory held by the slabs plus the heap held by the id index. */
+    @Override
+    public long footprintBytes() {
+        return allocatedBytes + locations.footprintBytes();
+    }
+
+    /** Bytes of appended records that were since overwritten or removed. */
+    public long garbageBytes() {
+        return appendedBytes - liveBytes;
+    }
+
+    /** Copies the live records into fresh slabs and drops the old ones. Blocks writers meanwhile. */
+    public void compact() {
+        writeLock.lock();
+        try {
+            long started = System.nanoTime();
+            long before = allocatedBytes;
+            int retiredUpTo = slabs.length;
+            tail = null;
+            appendedBytes = 0;
+            locations.forEach((id, location) -> {
+                ByteBuffer record = slabs[slabIndex(location)].duplicate();
+                int offset = offset(location);
+                record.position(offset + Integer.BYTES).limit(offset + Integer.BYTES + record.getInt(offset));
+                locations.getAndSet(id, append(record));
+            });
+            ByteBuffer[] retired = slabs.clone();
+            long freed = 0;
+            for (int i = 0; i < retiredUpTo; i++) {
+                if (retired[i] != null) {
+                    freed += retired[i].capacity();
+                    retired[i] = null;
+                }
+            }
+            slabs = retired;
+            allocatedBytes -= freed;
+            log.info("compacted {} records from {} to {} bytes in {} ms",
+                    size, before, allocatedBytes, (System.nanoTime() - started) / 1_000_000);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private V read(long id, ByteBuffer slab, int offset) {
+        ByteBuffer record = slab.duplicate();
+        record.position(offset + Integer.BYTES).limit(offset + Integer.BYTES + slab.getInt(offset));
+        return codec.decode(id, record);
+    }
+
+    /** @return the payload of the record at {@code location}; only while holding the write lock */
+    private ByteBuffer record(long location) {
+        ByteBuffer slab = slabs[slabIndex(location)];
+        int offset = offset(location);
+        ByteBuffer record = slab.duplicate();
+        record.position(offset + Integer.BYTES).limit(offset + Integer.BYTES + slab.getInt(offset));
+        return record;
+    }
+
+    /** Accounts for a record that no id points to anymore and returns what it held. */
+    private V release(long id, long location) {
+        V previous = codec.decode(id, record(location));
+        discard(location);
+        return previous;
+    }
+
+    /** Accounts for a record that no id points to anymore. */
+    private void discard(long location) {
+        liveBytes -= recordBytes(record(location).remaining());
+        scheduleCompactionIfWasteful();
+    }
+
+    /** Appends the remaining bytes of {@code payload} as a record and returns its location. */
+    private long append(ByteBuffer payload) {
+        int length = payload.remaining();
+        int recordBytes = recordBytes(length);
+        if (tail == null || tail.remaining() < recordBytes) {
+            allocateSlab(recordBytes);
+        }
+        int offset = tail.position();
+        tail.putInt(length).put(payload);
+        appendedBytes += recordBytes;
+        return location(tailIndex, offset);
+    }
+
+    private void allocateSlab(int atLeast) {
+        ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(slabBytes, atLeast));
+        ByteBuffer[] grown = Arrays.copyOf(slabs, slabs.length + 1);
+        grown[grown.length - 1] = slab;
+        slabs = grown;
+        tail = slab.duplicate();
+        tailIndex = grown.length - 1;
+        allocatedBytes += slab.capacity();
+    }
+
+    private void scheduleCompactionIfWasteful() {
+        long garbage = garbageBytes();
+        if (compactionPending || garbage < slabBytes || garbage * 2 < appendedBytes) {
+            return;
+        }
+        compactionPending = true;
+        compactor.execute(() -> {
+            try {
+                compact();
+            } catch (RuntimeException | OutOfMemoryError e) {
+                log.error("off-heap compaction failed", e);
+            } finally {
+                writeLock.lock();
+                compactionPending = false;
+                writeLock.unlock();
+            }
+        });
+    }
+
+    private static int recordBytes(int payloadLength) {
+        return Integer.BYTES + payloadLength;
+    }
+
+    /** Slab index is stored plus one, so no location is ever {@code 0} (absent). */
+    private static long location(int slabIndex, int offset) {
+        return ((long) (slabIndex + 1) << 32) | offset;
+    }
+
+    private static int slabIndex(long location) {
+        return (int) (location >>> 32) - 1;
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+}
@@ -0,0 +1,12 @@
+package org.sunbit.addressbook.storage;
+
+import java.nio.ByteBuffer;
+
+/** Turns values into the compact byte records an {@link OffHeapEntityStore} keeps, and back. */
+public interface RecordCodec<V> {
+
+    byte[] encode(V value);
+
+    /** Materializes the value stored under {@code id} from the remaining bytes of {@code record}. */
+    V decode(long id, ByteBuffer record);
+}
@@ -0,0 +1,35 @@
+package org.sunbit.addressbook.storage;
+
+import org.springframework.boot.actuate.info.Info;
+import org.springframework.boot.actuate.info.InfoContributor;
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.model.Contact;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Reports the contact store's mode and footprint under {@code storage} in /actuator/info. */
+@Component
+public class StorageInfoContributor implements InfoContributor {
+
+    private final StorageProperties properties;
+    private final MyKeyValueStorage<Contact> myKeyValueStorage;
+
+    public StorageInfoContributor(StorageProperties properties, MyKeyValueStorage<Contact> myKeyValueStorage) {
+        this.properties = properties;
+        this.myKeyValueStorage = myKeyValueStorage;
+    }
+
+    @Override
+    public void contribute(Info.Builder builder) {
+        long contacts = myKeyValueStorage.size();
+        long footprint = myKeyValueStorage.footprintBytes();
+        Map<String, Object> storage = new LinkedHashMap<>();
+        storage.put("mode", properties.getMode());
+        storage.put("contacts", contacts);
+        storage.put("footprintBytes", footprint);
+        storage.put("bytesPerContact", contacts == 0 ? 0 : footprint / contacts);
+        builder.withDetail("storage", storage);
+    }
+}
@@ -0,0 +1,21 @@
+package org.sunbit.addressbook.storage;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+@Data
+@ConfigurationProperties(prefix = "addressbook.storage")
+public class StorageProperties {
+
+    public enum Mode {
+        /** Contacts are plain objects on the heap. */
+        HEAP,
+        /** Contacts are compact records in direct memory, materialized per read. */
+        OFF_HEAP
+    }
+
+    private Mode mode = Mode.HEAP;
+    /** Size of each direct buffer the off-heap mode allocates; counts against -XX:MaxDirectMemorySize. */
+    private DataSize slabSize = DataSize.ofMegabytes(64);
+}
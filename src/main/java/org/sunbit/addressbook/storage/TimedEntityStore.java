@@ -0,0 +1,123 @@
+package org.sunbit.addressbook.storage;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the calls into another {@link EntityStore} under {@code contact.storage}, tagged by
+ * operation. Calls take tens of nanoseconds and a prefix read makes one per match, so only a
+ * sample is timed: one read in {@value #SAMPLE_READS_EVERY} and one write in
+ * {@value #SAMPLE_WRITES_EVERY}. The distribution stays representative while the untimed calls pay
+ * for a single random draw; timer counts are the sampled calls only.
+ */
+public class TimedEntityStore<V> implements EntityStore<V> {
+
+    static final int SAMPLE_READS_EVERY = 1024;
+    static final int SAMPLE_WRITES_EVERY = 64;
+
+    private final EntityStore<V> store;
+    private final Timer getTimer;
+    private final Timer putTimer;
+    private final Timer removeTimer;
+
+    public TimedEntityStore(EntityStore<V> store, MeterRegistry meterRegistry) {
+        this.store = store;
+        this.getTimer = timer(meterRegistry, "get");
+        this.putTimer = timer(meterRegistry, "put");
+        this.removeTimer = timer(meterRegistry, "remove");
+    }
+
+    @Override
+    public V get(long id) {
+        if (!sampled(SAMPLE_READS_EVERY)) {
+            return store.get(id);
+        }
+        long started = System.nanoTime();
+        try {
+            return store.get(id);
+        } finally {
+            getTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public V put(long id, V value) {
+        if (!sampled(SAMPLE_WRITES_EVERY)) {
+            return store.put(id, value);
+        }
+        long started = System.nanoTime();
+        try {
+            return store.put(id, value);
+        } finally {
+            putTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public V remove(long id) {
+        if (!sampled(SAMPLE_WRITES_EVERY)) {
+            return store.remove(id);
+        }
+        long started = System.nanoTime();
+        try {
+            return store.remove(id);
+        } finally {
+            removeTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean replace(long id, V expected, V value) {
+        if (!sampled(SAMPLE_WRITES_EVERY)) {
+            return store.replace(id, expected, value);
+        }
+        long started = System.nanoTime();
+        try {
+            return store.replace(id, expected, value);
+        } finally {
+            putTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public boolean remove(long id, V expected) {
+        if (!sampled(SAMPLE_WRITES_EVERY)) {
+            return store.remove(id, expected);
+        }
+        long started = System.nanoTime();
+        try {
+            return store.remove(id, expected);
+        } finally {
+            removeTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public long size() {
+        return store.size();
+    }
+
+    @Override
+    public void forEach(DenseLongMap.LongObjConsumer<? super V> consumer) {
+        store.forEach(consumer);
+    }
+
+    @Override
+    public long footprintBytes() {
+        return store.footprintBytes();
+    }
+
+    private static boolean sampled(int every) {
+        return ThreadLocalRandom.current().nextInt(every) == 0;
+    }
+
+    private static Timer timer(MeterRegistry meterRegistry, String operation) {
+        return Timer.builder("contact.storage")
+                .description("Sampled latency of contact store calls")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+}
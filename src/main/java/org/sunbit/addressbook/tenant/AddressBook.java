@@ -0,0 +1,159 @@
+package org.sunbit.addressbook.tenant;
+
+import lombok.extern.log4j.Log4j2;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.cluster.ClusterContactService;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.index.SecondaryIndex;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.persistence.ContactJournal;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One address book: its contacts, their indexes and the services over them. The default book is
+ * the application's own; a tenant's book is opened by {@link AddressBooks} and has its storage,
+ * indexes, journal and change feed to itself, so its searches only walk its own contacts.
+ */
+@Log4j2
+public class AddressBook {
+
+    private static final int CLOSED = -1;
+    private static final long FOOTPRINT_TTL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final String tenant;
+    private final MyKeyValueStorage<Contact> storage;
+    private final ContactService contactService;
+    private final ClusterContactService clusterContactService;
+    private final ChangeFeed changeFeed;
+    private final ContactJournal journal;
+    /** Requests and streams using the book, or {@link #CLOSED}. */
+    private final AtomicInteger users = new AtomicInteger();
+    private volatile long lastUsed = System.nanoTime();
+    private volatile long footprint = -1;
+    private volatile long measuredAt;
+
+    /** @param journal the tenant's own journal, closed with the book; null for the default book */
+    AddressBook(
+            String tenant,
+            MyKeyValueStorage<Contact> storage,
+            ContactService contactService,
+            ClusterContactService clusterContactService,
+            ChangeFeed changeFeed,
+            ContactJournal journal) {
+        this.tenant = tenant;
+        this.storage = storage;
+        this.contactService = contactService;
+        this.clusterContactService = clusterContactService;
+        this.changeFeed = changeFeed;
+        this.journal = journal;
+    }
+
+    /** @return the tenant, or null for the default book */
+    public String getTenant() {
+        return tenant;
+    }
+
+    public ContactService getContactService() {
+        return contactService;
+    }
+
+    /** The queries over the whole cluster for the default book; a tenant's book is this node's alone. */
+    public ClusterContactService getClusterContactService() {
+        return clusterContactService;
+    }
+
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    public long size() {
+        return storage.size();
+    }
+
+    /**
+     * @return the estimated memory held by the contacts and their indexes; index sizes come from
+     *     walking the indexes, so an estimate is reused for five seconds
+     */
+    public long footprintBytes() {
+        long now = System.nanoTime();
+        if (footprint < 0 || now - measuredAt > FOOTPRINT_TTL_NANOS) {
+            long bytes = storage.footprintBytes();
+            for (SecondaryIndex<Contact> index : storage.indexes()) {
+                bytes += index.stats().getBytes();
+            }
+            footprint = bytes;
+            measuredAt = now;
+        }
+        return footprint;
+    }
+
+    /**
+     * Marks the book in use until {@link #release}, so that it is not evicted under a request or
+     * an open stream. The default book is never evicted and not counted.
+     *
+     * @return false if it was closed and must not be used
+     */
+    boolean acquire() {
+        if (tenant == null) {
+            return true;
+        }
+        if (users.getAndUpdate(n -> n == CLOSED ? CLOSED : n + 1) == CLOSED) {
+            return false;
+        }
+        lastUsed = System.nanoTime();
+        return true;
+    }
+
+    /** Ends a use begun by a successful {@link #acquire}; the idle time counts from here. */
+    void release() {
+        if (tenant == null) {
+            return;
+        }
+        lastUsed = System.nanoTime();
+        users.updateAndGet(n -> n == CLOSED ? CLOSED : n - 1);
+    }
+
+    /**
+     * Closes the book if nothing uses it and it went unused for {@code idleNanos}: a snapshot is
+     * written and the journal closed. A later {@link #acquire} fails.
+     *
+     * @return whether it was closed
+     */
+    boolean closeIfIdle(long idleNanos) {
+        if (System.nanoTime() - lastUsed < idleNanos || !users.compareAndSet(0, CLOSED)) {
+            return false;
+        }
+        closeJournal();
+        return true;
+    }
+
+    /**
+     * Closes the book even while it is in use, on shutdown.
+     *
+     * @return whether it was closed, false if it was closed already
+     */
+    boolean close() {
+        if (users.getAndSet(CLOSED) == CLOSED) {
+            return false;
+        }
+        closeJournal();
+        return true;
+    }
+
+    private void closeJournal() {
+        try {
+            journal.snapshot();
+        } catch (IOException | RuntimeException e) {
+            log.error("could not snapshot tenant {}, it is recovered from its log instead", tenant, e);
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.error("could not close the log of tenant {}", tenant, e);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package org.sunbit.addressbook.tenant;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Component;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.cache.PrefixCacheProperties;
+import org.sunbit.addressbook.cache.PrefixResponseCache;
+import org.sunbit.addressbook.cluster.ClusterClient;
+import org.sunbit.addressbook.cluster.ClusterContactService;
+import org.sunbit.addressbook.cluster.ClusterProperties;
+import org.sunbit.addressbook.cluster.ShardMap;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.exception.InvalidTenantException;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.feed.ChangeFeedProperties;
+import org.sunbit.addressbook.index.IdTrie;
+import org.sunbit.addressbook.index.KeyIndex;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.index.TokenIndex;
+import org.sunbit.addressbook.metrics.ContactMetrics;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.persistence.ContactJournal;
+import org.sunbit.addressbook.persistence.WalProperties;
+
+import javax.annotation.PreDestroy;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * The address books of all tenants, picked per request by the {@code addressbook.tenants.header}
+ * header; requests without it, and every request while tenants are disabled, use the default
+ * book, the application's own.
+ *
+ * <p>A tenant's book is opened on its first request, from the snapshot and log in its directory
+ * under {@code addressbook.tenants.directory}, and written back there once it has gone unused for
+ * {@code addressbook.tenants.idle-timeout}: a snapshot is taken and its memory released. A book is
+ * in use, and not evicted, from the start of a request until its response is complete, including
+ * streamed exports and change-feed subscriptions; the idle time counts from the end of the last
+ * one. A request for a tenant that is being opened or evicted waits for that, then uses it or
+ * opens it again; other tenants never wait for it.
+ *
+ * <p>Tenants share their threads: one schedules eviction and every tenant's periodic snapshots, and
+ * a pool sized to the processors writes their logs.
+ *
+ * <p>Tenant books live on the node that serves them: they are not sharded, and their full prefix
+ * reads are not cached, the response cache being bounded for the default book. While a tenant is
+ * open, {@code contact.tenant.entries} and {@code contact.tenant.memory} tagged with it report its
+ * size; {@code contact.tenant.active}, {@code contact.tenant.loads} and
+ * {@code contact.tenant.evictions} count the tenants.
+ */
+@Log4j2
+@Component
+public class AddressBooks {
+
+    private static final Pattern TENANT = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    /** To a tenant book's queries the cluster is this node alone. */
+    private static final ShardMap NODE_LOCAL = new ShardMap(new ClusterProperties());
+    private static final long MIN_EVICTION_CHECK_MILLIS = 1_000;
+
+    private final TenantProperties properties;
+    private final AddressBook defaultBook;
+    private final Validator validator;
+    private final WireMappers wireMappers;
+    private final ContactMetrics contactMetrics;
+    private final ClusterClient clusterClient;
+    private final MeterRegistry meterRegistry;
+    /** Opening, open and closing tenants; a book is opened and written out outside the map's locks. */
+    private final ConcurrentMap<String, Slot> books = new ConcurrentHashMap<>();
+    private final Map<String, List<Meter>> tenantMeters = new ConcurrentHashMap<>();
+    private final Counter loads;
+    private final Counter evictions;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService walWriters;
+
+    public AddressBooks(
+            TenantProperties properties,
+            MyKeyValueStorage<Contact> myKeyValueStorage,
+            ContactService contactService,
+            ClusterContactService clusterContactService,
+            ChangeFeed changeFeed,
+            Validator validator,
+            WireMappers wireMappers,
+            ContactMetrics contactMetrics,
+            ClusterClient clusterClient,
+            MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.defaultBook = new AddressBook(
+                null, myKeyValueStorage, contactService, clusterContactService, changeFeed, null);
+        this.validator = validator;
+        this.wireMappers = wireMappers;
+        this.contactMetrics = contactMetrics;
+        this.clusterClient = clusterClient;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("contact.tenant.active", books, Map::size)
+                .description("Tenants whose address book is in memory")
+                .register(meterRegistry);
+        this.loads = Counter.builder("contact.tenant.loads")
+                .description("Tenant address books opened from disk")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("contact.tenant.evictions")
+                .description("Idle tenant address books written to disk and dropped from memory")
+                .register(meterRegistry);
+        if (properties.isEnabled()) {
+            long interval = Math.max(MIN_EVICTION_CHECK_MILLIS, properties.getIdleTimeout().toMillis() / 4);
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tenant-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::evictIdleQuietly, interval, interval, TimeUnit.MILLISECONDS);
+            AtomicInteger threads = new AtomicInteger();
+            walWriters = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+                Thread thread = new Thread(runnable, "tenant-wal-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            scheduler = null;
+            walWriters = null;
+        }
+    }
+
+    /**
+     * @param tenant the tenant header's value, or null for the default book
+     * @return the tenant's book, in use until {@link AddressBook#release()}
+     * @throws InvalidTenantException unless the tenant is 1 to 64 letters, digits, {@code -} or {@code _}
+     */
+    public AddressBook acquire(String tenant) {
+        if (tenant == null || !properties.isEnabled()) {
+            return defaultBook;
+        }
+        if (!TENANT.matcher(tenant).matches()) {
+            throw new InvalidTenantException(tenant);
+        }
+        while (true) {
+            Slot opening = new Slot();
+            Slot slot = books.putIfAbsent(tenant, opening);
+            if (slot == null) {
+                slot = opening;
+                try {
+                    opening.opened.complete(open(tenant));
+                } catch (RuntimeException e) {
+                    books.remove(tenant, opening);
+                    opening.opened.completeExceptionally(e);
+                    throw e;
+                }
+            }
+            AddressBook book = slot.book();
+            if (book.acquire()) {
+                return book;
+            }
+            // being evicted: wait until the eviction has written it and removed it
+            slot.closed.join();
+            books.remove(tenant, slot);
+        }
+    }
+
+    /** @return the tenants whose books are in memory */
+    public List<String> active() {
+        return List.copyOf(books.keySet());
+    }
+
+    /**
+     * Writes the tenants that nothing uses and that went unused for {@code idleFor} to disk and
+     * drops them from memory.
+     *
+     * @return how many were evicted
+     */
+    public int evictIdle(Duration idleFor) {
+        long idleNanos = idleFor.toNanos();
+        return evict(book -> book.closeIfIdle(idleNanos));
+    }
+
+    /** Writes every tenant to disk, in use or not. */
+    @PreDestroy
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        evict(AddressBook::close);
+        if (walWriters != null) {
+            walWriters.shutdown();
+        }
+    }
+
+    /** @param closer closes a book, writing it to disk, and tells whether it did; runs once per book */
+    private int evict(Predicate<AddressBook> closer) {
+        int evicted = 0;
+        for (Map.Entry<String, Slot> entry : books.entrySet()) {
+            String tenant = entry.getKey();
+            Slot slot = entry.getValue();
+            AddressBook book = slot.opened.isDone() && !slot.opened.isCompletedExceptionally()
+                    ? slot.opened.join()
+                    : null;
+            if (book == null || !closer.test(book)) {
+                continue;
+            }
+            tenantMeters.remove(tenant).forEach(meterRegistry::remove);
+            books.remove(tenant, slot);
+            slot.closed.complete(null);
+            evictions.increment();
+            evicted++;
+            log.info("evicted tenant {}", tenant);
+        }
+        return evicted;
+    }
+
+    private AddressBook open(String tenant) {
+        long started = System.nanoTime();
+        IdTrie names = new IdTrie(ContactService.MAX_AUTOCOMPLETE);
+        PhoneIndex phones = new PhoneIndex();
+        TokenIndex tokens = new TokenIndex();
+        MyKeyValueStorage<Contact> storage = new MyKeyValueStorage<>();
+        storage.addIndex(new KeyIndex<>("name", KeyIndex.singleKey(Contact::getName), names));
+        storage.addIndex(new KeyIndex<>("phone", KeyIndex.singleKey(Contact::getPhoneNumber), phones));
+        storage.addIndex(new KeyIndex<>("token", KeyIndex.singleKey(Contact::getName), tokens));
+
+        WalProperties wal = new WalProperties();
+        wal.setEnabled(true);
+        wal.setDirectory(Paths.get(properties.getDirectory(), tenant).toString());
+        wal.setDurability(properties.getDurability());
+        ContactJournal journal = new ContactJournal(wal, storage);
+        try {
+            journal.recover(walWriters, scheduler);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not open tenant " + tenant, e);
+        }
+        PrefixCacheProperties uncached = new PrefixCacheProperties();
+        uncached.setEnabled(false);
+        ChangeFeedProperties feed = new ChangeFeedProperties();
+        feed.setCapacity(properties.getFeedCapacity());
+        ChangeFeed changeFeed = new ChangeFeed(feed);
+        ContactService contactService = new ContactService(
+                names,
+                phones,
+                tokens,
+                storage,
+                validator,
+                journal,
+                new PrefixResponseCache(wireMappers, uncached, meterRegistry),
+                contactMetrics,
+                changeFeed);
+        AddressBook book = new AddressBook(
+                tenant,
+                storage,
+                contactService,
+                new ClusterContactService(contactService, NODE_LOCAL, clusterClient, wireMappers),
+                changeFeed,
+                journal);
+
+        tenantMeters.put(tenant, List.of(
+                Gauge.builder("contact.tenant.entries", book, AddressBook::size)
+                        .description("Contacts in the tenant's address book")
+                        .tag("tenant", tenant)
+                        .register(meterRegistry),
+                Gauge.builder("contact.tenant.memory", book, AddressBook::footprintBytes)
+                        .description("Estimated memory held by the tenant's contacts and indexes")
+                        .tag("tenant", tenant)
+                        .baseUnit("bytes")
+                        .register(meterRegistry)));
+        loads.increment();
+        log.info("opened tenant {} with {} contacts in {} ms",
+                tenant, storage.size(), (System.nanoTime() - started) / 1_000_000);
+        return book;
+    }
+
+    private void evictIdleQuietly() {
+        try {
+            evictIdle(properties.getIdleTimeout());
+        } catch (RuntimeException e) {
+            log.error("evicting idle tenants failed", e);
+        }
+    }
+
+    /**
+     * A tenant's entry in {@link #books}: put there before its book is opened, and removed once
+     * the book is written to disk, so that the map is never locked for either.
+     */
+    private static final class Slot {
+
+        private final CompletableFuture<AddressBook> opened = new CompletableFuture<>();
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+
+        /** Waits for the book to be opened. */
+        AddressBook book() {
+            try {
+                return opened.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+}
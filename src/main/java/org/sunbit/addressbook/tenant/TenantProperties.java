@@ -0,0 +1,23 @@
+package org.sunbit.addressbook.tenant;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.sunbit.addressbook.persistence.WalProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "addressbook.tenants")
+public class TenantProperties {
+
+    private boolean enabled = false;
+    /** Request header naming the tenant; requests without it use the default address book. */
+    private String header = "X-Tenant-Id";
+    /** Each tenant keeps its snapshots and log in a subdirectory named after it. */
+    private String directory = "data/tenants";
+    private WalProperties.Durability durability = WalProperties.Durability.INTERVAL;
+    /** How long a tenant may go without requests before it is written to disk and dropped from memory. */
+    private Duration idleTimeout = Duration.ofMinutes(30);
+    /** Recent writes each tenant keeps for change-feed subscribers; rounded up to a power of two. */
+    private int feedCapacity = 1024;
+}
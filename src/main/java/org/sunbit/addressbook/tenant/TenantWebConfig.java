@@ -0,0 +1,86 @@
+package org.sunbit.addressbook.tenant;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import java.util.List;
+
+/**
+ * Lets handler methods take the request's {@link AddressBook} as a parameter, picked by the tenant
+ * header. The book is released once the response is complete: when the handler returns, or for an
+ * asynchronous response such as a streamed export or a change-feed subscription, when it ends.
+ * Servlet stack only; the reactive stack serves the default book.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class TenantWebConfig implements WebMvcConfigurer {
+
+    private final TenantProperties properties;
+    private final AddressBooks addressBooks;
+
+    public TenantWebConfig(TenantProperties properties, AddressBooks addressBooks) {
+        this.properties = properties;
+        this.addressBooks = addressBooks;
+    }
+
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new HandlerMethodArgumentResolver() {
+            @Override
+            public boolean supportsParameter(MethodParameter parameter) {
+                return parameter.getParameterType() == AddressBook.class;
+            }
+
+            @Override
+            public AddressBook resolveArgument(
+                    MethodParameter parameter,
+                    ModelAndViewContainer mavContainer,
+                    NativeWebRequest webRequest,
+                    WebDataBinderFactory binderFactory) {
+                AddressBook book = addressBooks.acquire(webRequest.getHeader(properties.getHeader()));
+                webRequest.registerDestructionCallback(
+                        AddressBook.class.getName(),
+                        () -> releaseWhenComplete(book, webRequest.getNativeRequest(HttpServletRequest.class)),
+                        RequestAttributes.SCOPE_REQUEST);
+                return book;
+            }
+        });
+    }
+
+    /** Called when the handler has returned. */
+    private static void releaseWhenComplete(AddressBook book, HttpServletRequest request) {
+        if (request == null || !request.isAsyncStarted()) {
+            book.release();
+            return;
+        }
+        request.getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+                book.release();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+                event.getAsyncContext().addListener(this);
+            }
+        });
+    }
+}
@@ -1,133 +1,128 @@
 package org.sunbit.addressbook;
 
-import com.github.veqryn.collect.Trie;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.sunbit.addressbook.cache.PrefixResponseCache;
 import org.sunbit.addressbook.exception.ResourceNotFoundException;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.feed.ChangeFeedProperties;
+import org.sunbit.addressbook.index.IdTrie;
+import org.sunbit.addressbook.index.KeyIndex;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.index.TokenIndex;
+import org.sunbit.addressbook.metrics.ContactMetrics;
 import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.persistence.ContactJournal;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import javax.validation.Validation;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
-import static org.mockito.Mockito.verifyNoMoreInteractions;
-import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class ContactServiceTest {
 
-    @InjectMocks
-    private ContactService contactService;
+    private final IdTrie contactTireByName = new IdTrie(ContactService.MAX_AUTOCOMPLETE);
+    private final PhoneIndex phoneIndex = new PhoneIndex();
+    private final TokenIndex tokenIndex = new TokenIndex();
+    private final MyKeyValueStorage<Contact> myKeyValueStorage = new MyKeyValueStorage<>();
     @Mock
-    private Trie<String, HashMap<Long, Contact>> contactTireByName;
+    private ContactJournal contactJournal;
     @Mock
-    private MyKeyValueStorage<Contact> myKeyValueStorage;
+    private PrefixResponseCache prefixResponseCache;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @Spy
+    private ContactMetrics contactMetrics = new ContactMetrics(meterRegistry);
+    @Spy
+    private ChangeFeed changeFeed = new ChangeFeed(new ChangeFeedProperties());
+    private ContactService contactService;
+
+    @BeforeEach
+    void setUp() {
+        myKeyValueStorage.addIndex(new KeyIndex<>("name", KeyIndex.singleKey(Contact::getName), contactTireByName));
+        myKeyValueStorage.addIndex(new KeyIndex<>("phone", KeyIndex.singleKey(Contact::getPhoneNumber), phoneIndex));
+        myKeyValueStorage.addIndex(new KeyIndex<>("token", KeyIndex.singleKey(Contact::getName), tokenIndex));
+        contactService = new ContactService(
+                contactTireByName,
+                phoneIndex,
+                tokenIndex,
+                myKeyValueStorage,
+                Validation.buildDefaultValidatorFactory().getValidator(),
+                contactJournal,
+                prefixResponseCache,
+                contactMetrics,
+                changeFeed);
+    }
 
     @Test
     @DisplayName("create contact ")
     void create() {
-        Contact expected = Contact.builder().name("Dodo").phoneNumber("0542357223").id(1L).build();
         Contact input = Contact.builder().name("Dodo").phoneNumber("0542357223").build();
 
-        when(myKeyValueStorage.create(input)).thenReturn(expected);
-        when(contactTireByName.get(input.getName())).thenReturn(null);
-
         Contact contact = contactService.create(input);
 
-        verify(myKeyValueStorage).create(input);
-        verify(contactTireByName)
-                .put(
-                        expected.getName(),
-                        new HashMap<>() {
-                            {
-                                this.put(expected.getId(), expected);
-                            }
-                        });
-        assertThat(contact).isEqualTo(expected);
+        assertThat(contact).isEqualTo(new Contact(1L, "Dodo", "0542357223", 1L));
+        assertThat(myKeyValueStorage.getById(1L)).isEqualTo(contact);
+        verify(contactJournal).logPut(contact);
+        verify(changeFeed).publishPut(contact);
+        verify(prefixResponseCache).invalidateName("Dodo");
+        assertThat(contactTireByName.get("Dodo")).containsExactly(1L);
+        assertThat(phoneIndex.get("0542357223")).containsExactly(1L);
+        assertThat(tokenIndex.get("dodo")).containsExactly(1L);
     }
 
     @Test
     void create_duplicateName_twoContactsShouldExist() {
-        Contact expected = Contact.builder().name("Dodo").phoneNumber("0542357223").id(2L).build();
-        Contact input = Contact.builder().name("Dodo").phoneNumber("0542357223").build();
-
-        when(myKeyValueStorage.create(input)).thenReturn(expected);
-        when(contactTireByName.get(input.getName()))
-                .thenReturn(
-                        new HashMap<>() {
-                            {
-                                this.put(
-                                        1L, Contact.builder().name("Dodo").phoneNumber("9992357223").id(1L).build());
-                            }
-                        });
-        Contact contact = contactService.create(input);
-
-        verify(myKeyValueStorage).create(input);
-        verifyNoMoreInteractions(contactTireByName);
-        assertThat(contact).isEqualTo(expected);
+        contactService.create(Contact.builder().name("Dodo").phoneNumber("0542357223").build());
+        Contact contact = contactService.create(Contact.builder().name("Dodo").phoneNumber("0542357223").build());
 
+        assertThat(contact.getId()).isEqualTo(2L);
+        assertThat(contactTireByName.get("Dodo")).containsExactly(1L, 2L);
+        assertThat(myKeyValueStorage.size()).isEqualTo(2L);
     }
 
     @Test
     void update_differentPhoneNumber() {
-        Contact contactToReplace =
-                Contact.builder().name("Dodo").phoneNumber("0542351234").id(1L).build();
-        Contact existingContact =
-                Contact.builder().name("Dodo").phoneNumber("7777777777").id(9L).build();
+        contactService.create(Contact.builder().name("Dodo").phoneNumber("0542351234").build());
+        contactService.create(Contact.builder().name("Dodo").phoneNumber("0500000000").build());
         Contact input = Contact.builder().name("Dodo").phoneNumber("99999999999").id(1L).build();
-        HashMap<Long, Contact> map =
-                new HashMap<>() {
-                    {
-                        this.put(contactToReplace.getId(), contactToReplace);
-                        this.put(existingContact.getId(), existingContact);
-                    }
-                };
-
-        when(myKeyValueStorage.getById(1L)).thenReturn(contactToReplace);
-        when(contactTireByName.get(contactToReplace.getName())).thenReturn(map);
 
         Contact update = contactService.update(input);
 
-        assertThat(map.size()).isEqualTo(2);
+        assertThat(myKeyValueStorage.getById(1L)).isEqualTo(input);
+        assertThat(contactTireByName.get("Dodo")).containsExactly(1L, 2L);
+        assertThat(phoneIndex.get("0542351234")).isEmpty();
+        assertThat(phoneIndex.get("99999999999")).containsExactly(1L);
         assertThat(update).isEqualTo(input);
+        assertThat(update.getVersion()).isEqualTo(2L);
     }
 
     @Test
     void update_differentName() {
-        Contact contactToReplace =
-                Contact.builder().name("Dodo").phoneNumber("0542351234").id(1L).build();
+        contactService.create(Contact.builder().name("Dodo").phoneNumber("0542351234").build());
         Contact input = Contact.builder().name("notDodo").phoneNumber("0542357223").id(1L).build();
-        HashMap<Long, Contact> valueToReplaceMap =
-                new HashMap<>() {
-                    {
-                        this.put(contactToReplace.getId(), contactToReplace);
-                    }
-                };
-        when(myKeyValueStorage.getById(contactToReplace.getId())).thenReturn(contactToReplace);
-        when(contactTireByName.get(contactToReplace.getName())).thenReturn(valueToReplaceMap);
 
         Contact update = contactService.update(input);
 
-        verify(contactTireByName).remove(contactToReplace.getName());
-        verify(contactTireByName)
-                .put(
-                        input.getName(),
-                        new HashMap<>() {
-                            {
-                                this.put(input.getId(), input);
-                            }
-                        });
+        verify(prefixResponseCache, times(2)).invalidateName("Dodo");
+        verify(prefixResponseCache).invalidateName("notDodo");
+        assertThat(contactTireByName.get("Dodo")).isEmpty();
+        assertThat(contactTireByName.get("notDodo")).containsExactly(1L);
+        assertThat(tokenIndex.get("dodo")).isEmpty();
+        assertThat(tokenIndex.get("notdodo")).containsExactly(1L);
         assertThat(update).isEqualTo(input);
-        assertThat(valueToReplaceMap.size()).isEqualTo(0);
     }
 
     @Test
@@ -135,60 +130,48 @@ class ContactServiceTest {
         Contact contactToReplace =
                 Contact.builder().name("Dodo").phoneNumber("0542351234").id(1L).build();
 
-        doThrow(new ResourceNotFoundException(""))
-                .when(myKeyValueStorage)
-                .getById(contactToReplace.getId());
-
         Assertions.assertThrows(
                 ResourceNotFoundException.class, () -> contactService.update(contactToReplace));
+        verify(contactJournal, never()).logPut(contactToReplace);
+        assertThat(changeFeed.lastSequence()).isZero();
+        assertThat(contactTireByName.get("Dodo")).isEmpty();
     }
 
     @Test
     void delete() {
-        Contact contactToDelete =
-                Contact.builder().name("Dodo").phoneNumber("0542351234").id(1L).build();
-        Contact existingContact =
-                Contact.builder().name("Dodo").phoneNumber("7777777777").id(9L).build();
-        HashMap<Long, Contact> map =
-                new HashMap<>() {
-                    {
-                        this.put(contactToDelete.getId(), contactToDelete);
-                        this.put(existingContact.getId(), existingContact);
-                    }
-                };
-        when(myKeyValueStorage.getById(1L)).thenReturn(contactToDelete);
-        when(contactTireByName.get(contactToDelete.getName())).thenReturn(map);
+        contactService.create(Contact.builder().name("Dodo").phoneNumber("054-235-1234").build());
+        contactService.create(Contact.builder().name("Dodo").phoneNumber("0500000000").build());
 
         contactService.remove(1L);
 
-        verify(myKeyValueStorage).removeById(1L);
-        assertThat(map.size()).isEqualTo(1);
+        assertThat(myKeyValueStorage.findById(1L)).isNull();
+        verify(contactJournal).logRemove(1L);
+        verify(changeFeed).publishRemove(1L);
+        assertThat(contactTireByName.get("Dodo")).containsExactly(2L);
+        assertThat(phoneIndex.get("0542351234")).isEmpty();
     }
 
     @Test
     void delete_contactDoesNotExist() {
-        doThrow(new ResourceNotFoundException("")).when(myKeyValueStorage).getById(1L);
         Assertions.assertThrows(
                 ResourceNotFoundException.class, () -> contactService.remove(1L));
+        verify(contactJournal, never()).logRemove(1L);
     }
 
     @Test
     void readById() {
         Contact readContactById =
                 Contact.builder().name("Dodo").phoneNumber("0542351234").id(1L).build();
-
-        when(myKeyValueStorage.getById(1L)).thenReturn(readContactById);
+        myKeyValueStorage.restore(1L, readContactById);
 
         Contact contact = contactService.get(1L);
 
-        verify(myKeyValueStorage).getById(1L);
         assertEquals(contact, readContactById);
         assertThat(readContactById).isEqualTo(contact);
     }
 
     @Test
     void readById_ItemDoesNotExist() {
-        doThrow(new ResourceNotFoundException("")).when(myKeyValueStorage).getById(1L);
         Assertions.assertThrows(
                 ResourceNotFoundException.class, () -> contactService.get(1L));
     }
@@ -197,30 +180,100 @@ class ContactServiceTest {
     void readByPrefix() {
         Contact expected1 = Contact.builder().name("Dodo").phoneNumber("0542357223").id(1L).build();
         Contact expected2 = Contact.builder().name("Dodo1").phoneNumber("0542357223").id(2L).build();
+        Stream.of(expected1, expected2, Contact.builder().name("Dudu").id(3L).build())
+                .forEach(contact -> myKeyValueStorage.restore(contact.getId(), contact));
+
+        List<Contact> list = contactService.readByPrefix("Dodo");
+        assertThat(list).containsExactly(expected1, expected2);
+    }
 
-        ArrayList<HashMap<Long, Contact>> maps = new ArrayList<>();
-        HashMap<Long, Contact> e1 = new HashMap<>();
-        e1.put(1L, expected1);
-        HashMap<Long, Contact> e2 = new HashMap<>();
-        e2.put(2L, expected2);
-        maps.add(e1);
-        maps.add(e2);
+    @Test
+    void readByPrefix_recordsLatencyAndResultSize() {
+        contactService.create(Contact.builder().name("Dodo").phoneNumber("0542357223").build());
 
-        when(contactTireByName.prefixedByValues("Dodo", true)).thenReturn(maps);
+        contactService.readByPrefix("Do");
+        contactService.readByPrefix("Da");
 
-        List<Contact> list = contactService.readByPrefix("Dodo");
-        assertThat(list.size()).isEqualTo(2);
+        assertThat(meterRegistry.get("contact.service").tag("operation", "readByPrefix").timer().count())
+                .isEqualTo(2);
+        assertThat(meterRegistry.get("contact.prefix.results").summary().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("contact.prefix.results").summary().totalAmount()).isEqualTo(1);
     }
 
     @Test
     void readByPrefix_emptyResult() {
-        ArrayList<HashMap<Long, Contact>> maps = new ArrayList<>();
-
-        when(contactTireByName.prefixedByValues("Dodo", true)).thenReturn(maps);
+        contactService.create(Contact.builder().name("Dudu").phoneNumber("0542357223").build());
 
         List<Contact> list = contactService.readByPrefix("Dodo");
         assertThat(list.size()).isEqualTo(0);
     }
 
-}
+    @Test
+    void readByPhone_exactAndPrefix_matchDigitsOnly() {
+        Contact dodo = Contact.builder().name("Dodo").phoneNumber("+972 (54) 235-7223").id(1L).build();
+        Contact dudu = Contact.builder().name("Dudu").phoneNumber("972542357").id(2L).build();
+        Contact stale = Contact.builder().name("Didi").phoneNumber("111").id(3L).build();
+        Stream.of(dodo, dudu, stale).forEach(contact -> myKeyValueStorage.restore(contact.getId(), contact));
+        // an entry the storage has moved on from since the lookup
+        phoneIndex.add("9725", 3L);
+
+        assertThat(contactService.readByPhone("972-54-2357223", false, Integer.MAX_VALUE)).containsExactly(dodo);
+        assertThat(contactService.readByPhone("+9725", true, Integer.MAX_VALUE)).containsExactly(dudu, dodo);
+        assertThat(contactService.readByPhone("9725", true, 1)).containsExactly(dudu);
+        assertThat(contactService.readByPhone("no digits", true, Integer.MAX_VALUE)).isEmpty();
+    }
+
+    @Test
+    void searchByTokens_intersectsWordPrefixes() {
+        Contact john = Contact.builder().name("John Smith").phoneNumber("1").id(1L).build();
+        Contact joanna = Contact.builder().name("Joanna Smíthers").phoneNumber("2").id(2L).build();
+        Stream.of(john, joanna).forEach(contact -> myKeyValueStorage.restore(contact.getId(), contact));
+        // indexed but no longer stored
+        tokenIndex.add("Jack Smith", 3L);
+
+        assertThat(contactService.searchByTokens("jo SMI", Integer.MAX_VALUE)).containsExactly(john, joanna);
+        assertThat(contactService.searchByTokens("smithe", Integer.MAX_VALUE)).containsExactly(joanna);
+        assertThat(contactService.searchByTokens("jo smi", 1)).containsExactly(john);
+        assertThat(contactService.searchByTokens("jo nobody", Integer.MAX_VALUE)).isEmpty();
+    }
+
+    @Test
+    void autocomplete_newestFirstAndBounded() {
+        for (long id = 1; id <= 30; id++) {
+            myKeyValueStorage.restore(id, Contact.builder().name("auto" + id).id(id).build());
+        }
+        myKeyValueStorage.restore(31L, Contact.builder().name("other").id(31L).build());
+
+        assertThat(contactService.autocomplete("auto", 3)).extracting(Contact::getId).containsExactly(30L, 29L, 28L);
+        assertThat(contactService.autocomplete("auto1", 10)).extracting(Contact::getId)
+                .containsExactly(19L, 18L, 17L, 16L, 15L, 14L, 13L, 12L, 11L, 10L);
+        assertThat(contactService.autocomplete("nobody", 10)).isEmpty();
+    }
 
+    @Test
+    void bulkLoad_indexesOnFinishSkippingContactsChangedMeanwhile() {
+        Contact kept = Contact.builder().name("Bulk Kept").phoneNumber("0501").build();
+        Contact updated = Contact.builder().name("Bulk Updated").phoneNumber("0502").build();
+        Contact removed = Contact.builder().name("Bulk Removed").phoneNumber("0503").build();
+
+        ContactService.BulkLoad bulkLoad = contactService.bulkLoad();
+        bulkLoad.addAll(List.of(kept, updated, removed));
+        assertThat(contactTireByName.get("Bulk Kept")).isEmpty();
+        assertThat(contactService.get(1L)).isEqualTo(kept);
+        // the update and the remove index themselves before the pass
+        contactService.update(new Contact(2L, "Bulk Renamed", "0502"));
+        contactService.remove(3L);
+
+        assertThat(bulkLoad.finish()).isEqualTo(3);
+        assertThat(contactTireByName.get("Bulk Kept")).containsExactly(1L);
+        assertThat(contactTireByName.get("Bulk Updated")).isEmpty();
+        assertThat(contactTireByName.get("Bulk Renamed")).containsExactly(2L);
+        assertThat(contactTireByName.get("Bulk Removed")).isEmpty();
+        assertThat(phoneIndex.get("0501")).containsExactly(1L);
+        assertThat(phoneIndex.get("0503")).isEmpty();
+        assertThat(tokenIndex.search(TokenIndex.tokens("kept"))).containsExactly(1L);
+        verify(prefixResponseCache).invalidateAll();
+        verify(changeFeed).publishPut(removed);
+    }
+
+}
@@ -0,0 +1,298 @@
+package org.sunbit.addressbook;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.sunbit.addressbook.exception.ResourceNotFoundException;
+import org.sunbit.addressbook.exception.VersionConflictException;
+import org.sunbit.addressbook.index.KeyIndex;
+import org.sunbit.addressbook.index.SecondaryIndex;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.storage.DenseLongMap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MyKeyValueStorageTest {
+
+    private static final int THREADS = 32;
+    private static final int OPS_PER_THREAD = 20_000;
+
+    private final MyKeyValueStorage<Contact> storage = new MyKeyValueStorage<>();
+
+    @Test
+    void create_assignsIdAndStores() {
+        Contact created = storage.create(Contact.builder().name("Dodo").phoneNumber("123").build());
+
+        assertThat(created.getId()).isNotNull();
+        assertThat(storage.getById(created.getId())).isSameAs(created);
+    }
+
+    @Test
+    void getById_missing_throws() {
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> storage.getById(42L));
+    }
+
+    @Test
+    void removeById_returnsRemoved() {
+        Contact created = storage.create(Contact.builder().name("Dodo").phoneNumber("123").build());
+
+        assertThat(storage.removeById(created.getId())).isSameAs(created);
+        Assertions.assertThrows(ResourceNotFoundException.class, () -> storage.getById(created.getId()));
+    }
+
+    @Test
+    void update_bumpsVersionAndHonoursExpectedVersion() {
+        Contact created = storage.create(Contact.builder().name("Dodo").phoneNumber("123").build());
+        Contact renamed = Contact.builder().id(created.getId()).name("Dudu").phoneNumber("123").build();
+        Contact stale = Contact.builder().id(created.getId()).name("Stale").phoneNumber("123").build();
+
+        assertThat(created.getVersion()).isEqualTo(1L);
+        assertThat(storage.update(created.getId(), renamed, 1L)).isSameAs(created);
+        assertThat(renamed.getVersion()).isEqualTo(2L);
+        Assertions.assertThrows(VersionConflictException.class, () -> storage.update(created.getId(), stale, 1L));
+        Assertions.assertThrows(VersionConflictException.class, () -> storage.removeById(created.getId(), 1L));
+        assertThat(storage.getById(created.getId())).isSameAs(renamed);
+        assertThat(storage.removeById(created.getId(), 2L)).isSameAs(renamed);
+        assertThat(storage.removeById(created.getId(), 2L)).isNull();
+    }
+
+    @Test
+    void update_concurrentConditionalWriters_neverLoseAnUpdate() throws Exception {
+        long id = storage.create(Contact.builder().name("counter").phoneNumber("0").build()).getId();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < 2_000; i++) {
+                    while (true) {
+                        Contact current = storage.getById(id);
+                        long count = Long.parseLong(current.getPhoneNumber()) + 1;
+                        Contact next = Contact.builder().id(id).name("counter").phoneNumber(Long.toString(count)).build();
+                        try {
+                            storage.update(id, next, current.getVersion());
+                            break;
+                        } catch (VersionConflictException e) {
+                            // lost the race, read again
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertThat(storage.getById(id).getPhoneNumber()).isEqualTo("8000");
+        assertThat(storage.getById(id).getVersion()).isEqualTo(8001L);
+    }
+
+    @Test
+    void create_withBlockOwnership_onlyHandsOutIdsOfOwnedBlocks() {
+        MyKeyValueStorage<Contact> oddBlocks = new MyKeyValueStorage<>(new DenseLongMap<>(), block -> block % 2 == 1);
+        List<Contact> batch = new ArrayList<>();
+        for (int i = 0; i < 40_000; i++) {
+            batch.add(Contact.builder().name("Dodo").phoneNumber("123").build());
+        }
+
+        Contact first = oddBlocks.create(Contact.builder().name("Dodo").phoneNumber("123").build());
+        oddBlocks.createAll(batch);
+        Contact last = oddBlocks.create(Contact.builder().name("Dodo").phoneNumber("123").build());
+
+        assertThat(first.getId()).isEqualTo(1L << MyKeyValueStorage.ID_BLOCK_SHIFT);
+        Set<Long> ids = new HashSet<>();
+        for (Contact contact : batch) {
+            assertThat((contact.getId() >>> MyKeyValueStorage.ID_BLOCK_SHIFT) % 2).isEqualTo(1);
+            ids.add(contact.getId());
+        }
+        assertThat(ids).hasSize(batch.size()).doesNotContain(first.getId(), last.getId());
+        assertThat((last.getId() >>> MyKeyValueStorage.ID_BLOCK_SHIFT) % 2).isEqualTo(1);
+        assertThat(oddBlocks.size()).isEqualTo(batch.size() + 2);
+    }
+
+    @Test
+    void concurrentCreates_noLostWrites() throws Exception {
+        List<List<Long>> idsPerThread = runConcurrently(thread -> {
+            List<Long> ids = new ArrayList<>(OPS_PER_THREAD);
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                Contact c = storage.create(
+                        Contact.builder().name("t" + thread + "-" + i).phoneNumber("1").build());
+                ids.add(c.getId());
+            }
+            return ids;
+        });
+
+        Set<Long> allIds = new HashSet<>();
+        idsPerThread.forEach(allIds::addAll);
+        assertThat(allIds).hasSize(THREADS * OPS_PER_THREAD);
+        assertThat(storage.size()).isEqualTo((long) THREADS * OPS_PER_THREAD);
+        for (Long id : allIds) {
+            assertThat(storage.getById(id).getId()).isEqualTo(id);
+        }
+    }
+
+    @Test
+    void create_storesAndIndexesUnderTheNewIdsWriteLock() throws Exception {
+        KeyIndex<Contact> names = KeyIndex.of("name", SecondaryIndex.Structure.SORTED, Contact::getName);
+        storage.addIndex(names);
+        long id = storage.nextId();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ReentrantLock lock = storage.writeLock(id);
+        lock.lock();
+        Future<Contact> created;
+        try {
+            created = executor.submit(() -> storage.create(Contact.builder().name("Dodo").phoneNumber("1").build()));
+            Thread.sleep(50);
+
+            assertThat(created).isNotDone();
+            assertThat(storage.findById(id)).isNull();
+            assertThat(names.get("Dodo")).isEmpty();
+        } finally {
+            lock.unlock();
+        }
+
+        assertThat(created.get(10, TimeUnit.SECONDS).getId()).isEqualTo(id);
+        assertThat(names.get("Dodo")).containsExactly(id);
+        executor.shutdown();
+    }
+
+    @Test
+    void concurrentUpdatesAndRemoves_lastWriteOfEachThreadVisible() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            ids.add(storage.create(Contact.builder().name("c" + i).phoneNumber("0").build()).getId());
+        }
+
+        runConcurrently(thread -> {
+            Long ownId = ids.get(thread);
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                storage.update(ownId, Contact.builder().id(ownId).name("c" + thread).phoneNumber(String.valueOf(i)).build());
+                Contact scratch = storage.create(Contact.builder().name("tmp").phoneNumber("0").build());
+                storage.removeById(scratch.getId());
+            }
+            return null;
+        });
+
+        assertThat(storage.size()).isEqualTo((long) THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            assertThat(storage.getById(ids.get(i)).getPhoneNumber())
+                    .isEqualTo(String.valueOf(OPS_PER_THREAD - 1));
+        }
+    }
+
+    @Test
+    void indexes_followEveryWrite() {
+        KeyIndex<Contact> names = KeyIndex.of("name", SecondaryIndex.Structure.SORTED, Contact::getName);
+        KeyIndex<Contact> phones = KeyIndex.of("phone", SecondaryIndex.Structure.HASH, Contact::getPhoneNumber);
+        storage.addIndex(names);
+        storage.addIndex(phones);
+
+        Contact dodo = storage.create(Contact.builder().name("Dodo").phoneNumber("1").build());
+        storage.createAll(new ArrayList<>(List.of(
+                Contact.builder().name("Dudu").phoneNumber("2").build(),
+                Contact.builder().name("Dodo").phoneNumber("3").build())));
+        storage.update(2L, new Contact(2L, "Didi", "2"));
+        storage.removeById(3L);
+        MyKeyValueStorage<Contact>.Batch batch = storage.batch();
+        batch.update(1L, new Contact(1L, "Dodo", "4"));
+        assertThat(batch.removeById(99L)).isNull();
+        assertThat(phones.get("4")).isEmpty();
+        batch.apply();
+
+        assertThat(names.get("Dodo")).containsExactly(dodo.getId());
+        assertThat(names.get("Dudu")).isEmpty();
+        assertThat(names.get("Didi")).containsExactly(2L);
+        assertThat(phones.get("1")).isEmpty();
+        assertThat(phones.get("3")).isEmpty();
+        assertThat(phones.get("4")).containsExactly(1L);
+        List<String> ordered = new ArrayList<>();
+        names.forEachPrefixedBy("D", (key, ids) -> ordered.add(key.toString()));
+        assertThat(ordered).containsExactly("Didi", "Dodo");
+        assertThat(names.stats().getNodes()).isEqualTo(2);
+        assertThat(phones.lookups()).isEqualTo(4);
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> phones.forEachPrefixedBy("", (key, ids) -> true));
+        Assertions.assertThrows(IllegalStateException.class, () -> storage.addIndex(KeyIndex.of("late", SecondaryIndex.Structure.TRIE, Contact::getName)));
+    }
+
+    @Test
+    void indexAll_skipsEntitiesWrittenSinceTheyWereStored() {
+        KeyIndex<Contact> names = KeyIndex.of("name", SecondaryIndex.Structure.TRIE, Contact::getName);
+        storage.addIndex(names);
+        List<Contact> loaded = storage.createAllUnindexed(new ArrayList<>(List.of(
+                Contact.builder().name("b").build(),
+                Contact.builder().name("a").build(),
+                Contact.builder().name("c").build())));
+        assertThat(names.get("a")).isEmpty();
+        storage.update(1L, new Contact(1L, "b2", null));
+        storage.removeById(3L);
+
+        assertThat(storage.indexAll(loaded)).isEqualTo(1);
+        assertThat(names.get("a")).containsExactly(2L);
+        assertThat(names.get("b")).isEmpty();
+        assertThat(names.get("b2")).containsExactly(1L);
+        assertThat(names.get("c")).isEmpty();
+    }
+
+    @Test
+    void concurrentRenames_indexMatchesStorage() throws Exception {
+        KeyIndex<Contact> names = KeyIndex.of("name", SecondaryIndex.Structure.HASH, Contact::getName);
+        storage.addIndex(names);
+        for (int i = 0; i < 4; i++) {
+            storage.create(Contact.builder().name("n0").build());
+        }
+
+        runConcurrently(thread -> {
+            for (int i = 0; i < OPS_PER_THREAD / 10; i++) {
+                long id = 1 + (thread + i) % 4;
+                storage.update(id, Contact.builder().id(id).name("n" + (i % 3)).build());
+            }
+            return null;
+        });
+
+        Set<Long> indexed = new HashSet<>();
+        for (int name = 0; name < 3; name++) {
+            for (long id : names.get("n" + name)) {
+                assertThat(storage.getById(id).getName()).isEqualTo("n" + name);
+                assertThat(indexed.add(id)).isTrue();
+            }
+        }
+        assertThat(indexed).containsExactlyInAnyOrder(1L, 2L, 3L, 4L);
+    }
+
+    private <T> List<T> runConcurrently(Worker<T> worker) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<T>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    return worker.run(thread);
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) {
+                results.add(future.get(1, TimeUnit.MINUTES));
+            }
+            return results;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private interface Worker<T> {
+        T run(int thread) throws Exception;
+    }
+}
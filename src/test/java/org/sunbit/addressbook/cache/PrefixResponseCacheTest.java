@@ -0,0 +1,76 @@
+package org.sunbit.addressbook.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.model.Contact;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrefixResponseCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final WireMappers wireMappers = new WireMappers(new ObjectMapper(), new Jackson2ObjectMapperBuilder());
+    private final PrefixResponseCache cache =
+            new PrefixResponseCache(wireMappers, new PrefixCacheProperties(), meterRegistry);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void get_servesSerializedBodyFromCache() {
+        assertThat(json("do")).isEqualTo("[{\"id\":1,\"name\":\"do\",\"phoneNumber\":\"1\"}]");
+        json("do");
+
+        assertThat(loads).hasValue(1);
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "contact.prefix").tag("result", "hit")
+                .functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidateName_evictsOnlyPrefixesOfThatName() {
+        for (String prefix : new String[]{"", "d", "do", "dob", "dobi", "dobi1", "a", "dx"}) {
+            json(prefix);
+        }
+        loads.set(0);
+
+        cache.invalidateName("dobi");
+        for (String prefix : new String[]{"", "d", "do", "dob", "dobi", "dobi1", "a", "dx"}) {
+            json(prefix);
+        }
+
+        assertThat(loads).hasValue(5);
+    }
+
+    @Test
+    void formats_areCachedApartAndInvalidatedTogether() throws Exception {
+        json("do");
+        byte[] smile = body("do", WireFormat.SMILE);
+
+        assertThat(loads).hasValue(2);
+        assertThat(wireMappers.get(WireFormat.SMILE).readValue(smile, Contact[].class))
+                .containsExactly(new Contact(1L, "do", "1"));
+
+        cache.invalidateName("do");
+        json("do");
+        body("do", WireFormat.SMILE);
+
+        assertThat(loads).hasValue(4);
+    }
+
+    private String json(String prefix) {
+        return new String(body(prefix, WireFormat.JSON), StandardCharsets.UTF_8);
+    }
+
+    private byte[] body(String prefix, WireFormat format) {
+        return cache.get(prefix, format, key -> {
+            loads.incrementAndGet();
+            return List.of(new Contact(1L, key, "1"));
+        });
+    }
+}
@@ -0,0 +1,189 @@
+package org.sunbit.addressbook.cluster;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.sunbit.addressbook.AddressbookApplication;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.codec.WireMappers;
+import org.sunbit.addressbook.controller.ContactController;
+import org.sunbit.addressbook.model.BatchOperation;
+import org.sunbit.addressbook.model.BatchResult;
+import org.sunbit.addressbook.model.Contact;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Three nodes on localhost ports, each holding a shard, queried through any of them. */
+class ClusterTest {
+
+    private static final int NODES = 3;
+    private static final ParameterizedTypeReference<List<Contact>> CONTACTS =
+            new ParameterizedTypeReference<List<Contact>>() {};
+
+    private static final List<ConfigurableApplicationContext> nodes = new ArrayList<>();
+    private static final List<String> urls = new ArrayList<>();
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+    @BeforeAll
+    static void startNodes() throws IOException {
+        for (int node = 0; node < NODES; node++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                urls.add("http://localhost:" + socket.getLocalPort());
+            }
+        }
+        for (int node = 0; node < NODES; node++) {
+            nodes.add(new SpringApplicationBuilder(AddressbookApplication.class)
+                    .properties(
+                            "server.port=" + urls.get(node).substring(urls.get(node).lastIndexOf(':') + 1),
+                            "management.server.port=0",
+                            "spring.main.banner-mode=off",
+                            "addressbook.cluster.enabled=true",
+                            "addressbook.cluster.node-id=" + node,
+                            "addressbook.cluster.nodes=" + String.join(",", urls))
+                    .run());
+        }
+    }
+
+    @AfterAll
+    static void stopNodes() {
+        nodes.forEach(ConfigurableApplicationContext::close);
+    }
+
+    @Test
+    void contactsAreSpreadAndEveryNodeAnswersForAll() {
+        List<Contact> created = new ArrayList<>();
+        for (int i = 0; i < 90; i++) {
+            Contact contact = Contact.builder().name("cluster" + (char) ('a' + i % 26) + i).phoneNumber("0500" + i).build();
+            created.add(restTemplate.postForObject(url(i % NODES, ""), contact, Contact.class));
+        }
+
+        for (ConfigurableApplicationContext node : nodes) {
+            assertThat(node.getBean(ContactService.class).countByPrefix("cluster")).isEqualTo(30);
+        }
+        for (Contact contact : created) {
+            assertThat(restTemplate.getForObject(url(0, "/" + contact.getId()), Contact.class)).isEqualTo(contact);
+        }
+        List<Contact> byName = created.stream()
+                .sorted(Comparator.comparing(Contact::getName).thenComparing(Contact::getId))
+                .collect(Collectors.toList());
+        assertThat(get(1, "?contactPrefix=cluster")).isEqualTo(byName);
+        assertThat(restTemplate.getForObject(url(2, "/count?contactPrefix=cluster"), Long.class)).isEqualTo(90);
+
+        List<Contact> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            ResponseEntity<List<Contact>> page = restTemplate.exchange(
+                    url(2, "?contactPrefix=cluster&limit=7" + (cursor == null ? "" : "&cursor=" + cursor)),
+                    HttpMethod.GET, null, CONTACTS);
+            paged.addAll(page.getBody());
+            cursor = page.getHeaders().getFirst(ContactController.NEXT_CURSOR_HEADER);
+        } while (cursor != null);
+        assertThat(paged).isEqualTo(byName);
+
+        String stream = restTemplate.exchange(url(0, "?contactPrefix=cluster"), HttpMethod.GET,
+                new HttpEntity<>(headers(MediaType.APPLICATION_NDJSON)), String.class).getBody();
+        assertThat(stream.split("\n")).hasSize(90);
+        assertThat(stream.split("\n")[0]).contains(byName.get(0).getName());
+    }
+
+    @Test
+    void writesByIdAndBatchesReachTheOwner() {
+        List<Contact> created = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            created.add(restTemplate.postForObject(url(i % NODES, ""),
+                    Contact.builder().name("owner" + i).phoneNumber("0511" + i).build(), Contact.class));
+        }
+
+        for (Contact contact : created) {
+            Contact renamed = Contact.builder().id(contact.getId()).name("moved" + contact.getId()).phoneNumber("1").build();
+            ResponseEntity<Contact> updated = restTemplate.exchange(url(1, "/" + contact.getId()), HttpMethod.PUT,
+                    new HttpEntity<>(renamed, headers(MediaType.APPLICATION_JSON)), Contact.class);
+            assertThat(updated.getStatusCode()).isEqualTo(HttpStatus.OK);
+        }
+        assertThat(get(0, "?contactPrefix=moved")).hasSize(12);
+
+        List<BatchOperation> operations = new ArrayList<>();
+        for (Contact contact : created) {
+            operations.add(BatchOperation.builder().type(BatchOperation.Type.DELETE).id(contact.getId()).build());
+        }
+        operations.add(BatchOperation.builder().type(BatchOperation.Type.DELETE).id(created.get(0).getId()).build());
+        List<BatchResult> results = restTemplate.exchange(url(2, "/batch"), HttpMethod.POST,
+                new HttpEntity<>(operations, headers(MediaType.APPLICATION_JSON)),
+                new ParameterizedTypeReference<List<BatchResult>>() {}).getBody();
+
+        for (int i = 0; i < created.size(); i++) {
+            assertThat(results.get(i).getIndex()).isEqualTo(i);
+            assertThat(results.get(i).getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        }
+        assertThat(results.get(created.size()).getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        assertThat(get(0, "?contactPrefix=moved")).isEmpty();
+        assertThat(restTemplate.getForEntity(url(0, "/" + created.get(1).getId()), String.class).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    void batch_itemsOfANodeThatDoesNotAnswerFailAlone() throws IOException {
+        ClusterProperties properties = new ClusterProperties();
+        properties.setEnabled(true);
+        try (ServerSocket socket = new ServerSocket(0)) {
+            properties.setNodes(List.of(urls.get(0), "http://localhost:" + socket.getLocalPort()));
+        }
+        properties.setTimeout(Duration.ofSeconds(1));
+        ShardMap shardMap = new ShardMap(properties);
+        ClusterContactService withDownNode = new ClusterContactService(
+                nodes.get(0).getBean(ContactService.class),
+                shardMap,
+                new ClusterClient(shardMap, properties),
+                nodes.get(0).getBean(WireMappers.class));
+        long remoteId = 1;
+        while (shardMap.ownerOf(remoteId) != 1) {
+            remoteId += 1L << MyKeyValueStorage.ID_BLOCK_SHIFT;
+        }
+
+        List<BatchResult> results = withDownNode.applyBatch(List.of(
+                BatchOperation.builder()
+                        .type(BatchOperation.Type.CREATE)
+                        .contact(Contact.builder().name("partial").phoneNumber("1").build())
+                        .build(),
+                BatchOperation.builder().type(BatchOperation.Type.DELETE).id(remoteId).build()));
+
+        assertThat(results.get(0).getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(results.get(1).getIndex()).isEqualTo(1);
+        assertThat(results.get(1).getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE.value());
+        assertThat(nodes.get(0).getBean(ContactService.class).countByPrefix("partial")).isEqualTo(1);
+    }
+
+    private List<Contact> get(int node, String pathAndQuery) {
+        return restTemplate.exchange(url(node, pathAndQuery), HttpMethod.GET, null, CONTACTS).getBody();
+    }
+
+    private static String url(int node, String pathAndQuery) {
+        return urls.get(node) + ContactController.PATH + pathAndQuery;
+    }
+
+    private static HttpHeaders headers(MediaType mediaType) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(mediaType);
+        headers.setAccept(List.of(mediaType));
+        return headers;
+    }
+}
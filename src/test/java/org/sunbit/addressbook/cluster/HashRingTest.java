@@ -0,0 +1,40 @@
+package org.sunbit.addressbook.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashRingTest {
+
+    private static final int KEYS = 100_000;
+
+    @Test
+    void ownerOf_spreadsKeysEvenly() {
+        HashRing ring = new HashRing(4, 128);
+        int[] owned = new int[4];
+        for (long key = 0; key < KEYS; key++) {
+            owned[ring.ownerOf(key)]++;
+        }
+
+        for (int count : owned) {
+            assertThat(count).isBetween(KEYS / 4 * 7 / 10, KEYS / 4 * 13 / 10);
+        }
+    }
+
+    @Test
+    void addingANode_onlyMovesKeysToIt() {
+        HashRing four = new HashRing(4, 128);
+        HashRing five = new HashRing(5, 128);
+        int moved = 0;
+        for (long key = 0; key < KEYS; key++) {
+            int before = four.ownerOf(key);
+            int after = five.ownerOf(key);
+            if (before != after) {
+                assertThat(after).isEqualTo(4);
+                moved++;
+            }
+        }
+
+        assertThat(moved).isBetween(KEYS / 5 * 7 / 10, KEYS / 5 * 13 / 10);
+    }
+}
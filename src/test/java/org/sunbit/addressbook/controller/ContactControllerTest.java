@@ -16,9 +16,22 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.codec.WireMappers;
 import org.sunbit.addressbook.exception.ResourceNotFoundException;
+import org.sunbit.addressbook.feed.ChangeEvent;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.model.BatchOperation;
+import org.sunbit.addressbook.model.BatchResult;
 import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.ImportResult;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +50,10 @@ class ContactControllerTest {
     private ObjectMapper objectMapper;
     @Autowired
     private ContactService contactService;
+    @Autowired
+    private WireMappers wireMappers;
+    @Autowired
+    private ChangeFeed changeFeed;
 
     private final TestRestTemplate restTemplate = new TestRestTemplate();
 
@@ -86,7 +103,9 @@ class ContactControllerTest {
                 restTemplate.exchange(
                         getBaseUrl() + "/" + id, HttpMethod.PUT, new HttpEntity(body, getHttpHeaders()), Contact.class);
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
-        assertThat(update).isEqualTo(contactService.get(id));
+        assertThat(response.getBody()).isEqualTo(contactService.get(id));
+        assertThat(contactService.get(id)).usingRecursiveComparison().ignoringFields("version").isEqualTo(update);
+        assertThat(response.getHeaders().getETag()).isEqualTo("\"2\"");
     }
 
     @Test
@@ -164,6 +183,34 @@ class ContactControllerTest {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
+    @Test
+    @SneakyThrows
+    void negativeId_notFound() {
+        String body = objectMapper.writeValueAsString(
+                Contact.builder().id(-1L).name("negative").phoneNumber("1").build());
+        List<BatchOperation> operations = List.of(
+                BatchOperation.builder().type(BatchOperation.Type.UPDATE)
+                        .contact(Contact.builder().id(-1L).name("negative").phoneNumber("1").build()).build(),
+                BatchOperation.builder().type(BatchOperation.Type.DELETE).id(-2L).build());
+
+        ResponseEntity<String> read = restTemplate.exchange(
+                getBaseUrl() + "/-1", HttpMethod.GET, new HttpEntity<>(getHttpHeaders()), String.class);
+        ResponseEntity<String> update = restTemplate.exchange(
+                getBaseUrl() + "/-1", HttpMethod.PUT, new HttpEntity<>(body, getHttpHeaders()), String.class);
+        ResponseEntity<String> delete = restTemplate.exchange(
+                getBaseUrl() + "/-1", HttpMethod.DELETE, new HttpEntity<>(getHttpHeaders()), String.class);
+        ResponseEntity<BatchResult[]> batch = restTemplate.exchange(
+                getBaseUrl() + "/batch", HttpMethod.POST,
+                new HttpEntity<>(objectMapper.writeValueAsString(operations), getHttpHeaders()),
+                BatchResult[].class);
+
+        assertThat(read.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(update.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(delete.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(batch.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(batch.getBody()).extracting(BatchResult::getStatus).containsExactly(404, 404);
+    }
+
     @Test
     void readContactByPrefix() {
         createContactsHelper();
@@ -181,6 +228,33 @@ class ContactControllerTest {
         }
     }
 
+    @Test
+    void readContactByPrefix_cachedResponseSeesLaterWrites() {
+        String url = getBaseUrl() + "?contactPrefix=cached";
+        HttpEntity<Object> request = new HttpEntity<>(getHttpHeaders());
+        assertThat(restTemplate.exchange(url, HttpMethod.GET, request, Contact[].class).getBody()).isEmpty();
+
+        Contact created = contactService.create(Contact.builder().name("cachedName").phoneNumber("1").build());
+        assertThat(restTemplate.exchange(url, HttpMethod.GET, request, Contact[].class).getBody()).containsExactly(created);
+
+        contactService.remove(created.getId());
+        assertThat(restTemplate.exchange(url, HttpMethod.GET, request, Contact[].class).getBody()).isEmpty();
+    }
+
+    @Test
+    void countContactByPrefix() {
+        Stream.of("counter", "counter", "counterB", "countess")
+                .forEach(name -> contactService.create(Contact.builder().name(name).phoneNumber("1").build()));
+
+        ResponseEntity<Long> counted =
+                restTemplate.exchange(
+                        getBaseUrl() + "/count?contactPrefix=counter", HttpMethod.GET,
+                        new HttpEntity<>(getHttpHeaders()), Long.class);
+
+        assertThat(counted.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(counted.getBody()).isEqualTo(3L);
+    }
+
     @Test
     void readContactByPrefix_empty() {
         createContactsHelper();
@@ -194,6 +268,377 @@ class ContactControllerTest {
         assertThat(response.getBody().size()).isEqualTo(0);
     }
 
+    @Test
+    void readContactByPrefix_paged() {
+        Stream.of("pager", "pager", "pagerB", "pagerC", "pagerD")
+                .forEach(name -> contactService.create(Contact.builder().name(name).phoneNumber("123456").build()));
+
+        List<String> names = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            String url = getBaseUrl() + "?contactPrefix=pager&limit=2" + (cursor == null ? "" : "&cursor=" + cursor);
+            ResponseEntity<List> response =
+                    restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(getHttpHeaders()), List.class);
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            assertThat(response.getBody().size()).isLessThanOrEqualTo(2);
+            for (Object o : response.getBody()) {
+                names.add(((Map<String, String>) o).get("name"));
+            }
+            assertThat(response.getHeaders().getFirst(ContactController.TOTAL_COUNT_HEADER)).isEqualTo("5");
+            cursor = response.getHeaders().getFirst(ContactController.NEXT_CURSOR_HEADER);
+            pages++;
+        } while (cursor != null);
+
+        assertThat(pages).isEqualTo(3);
+        assertThat(names).containsExactly("pager", "pager", "pagerB", "pagerC", "pagerD");
+    }
+
+    @Test
+    @SneakyThrows
+    void streamContactByPrefix() {
+        Stream.of("streamer1", "streamer2", "streamer3")
+                .forEach(name -> contactService.create(Contact.builder().name(name).phoneNumber("123456").build()));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_NDJSON));
+
+        ResponseEntity<String> response =
+                restTemplate.exchange(
+                        getBaseUrl() + "?contactPrefix=streamer", HttpMethod.GET, new HttpEntity<>(headers),
+                        String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.APPLICATION_NDJSON);
+        String[] lines = response.getBody().split("\n");
+        assertThat(lines).hasSize(3);
+        for (int i = 0; i < lines.length; i++) {
+            assertThat(objectMapper.readValue(lines[i], Contact.class).getName()).isEqualTo("streamer" + (i + 1));
+        }
+    }
+
+    @Test
+    @SneakyThrows
+    void smile_createAndReadByPrefix() {
+        ObjectMapper smile = wireMappers.get(WireFormat.SMILE);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(WireFormat.SMILE.getMediaType());
+        headers.setAccept(Collections.singletonList(WireFormat.SMILE.getMediaType()));
+        byte[] body = smile.writeValueAsBytes(Contact.builder().name("smiley").phoneNumber("123456").build());
+
+        ResponseEntity<byte[]> created =
+                restTemplate.exchange(getBaseUrl(), HttpMethod.POST, new HttpEntity<>(body, headers), byte[].class);
+        ResponseEntity<byte[]> all =
+                restTemplate.exchange(
+                        getBaseUrl() + "?contactPrefix=smiley", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+        ResponseEntity<byte[]> page =
+                restTemplate.exchange(
+                        getBaseUrl() + "?contactPrefix=smiley&limit=1", HttpMethod.GET, new HttpEntity<>(headers),
+                        byte[].class);
+
+        assertThat(created.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(created.getHeaders().getContentType()).isEqualTo(WireFormat.SMILE.getMediaType());
+        Contact contact = smile.readValue(created.getBody(), Contact.class);
+        assertThat(contact.getName()).isEqualTo("smiley");
+        assertThat(all.getHeaders().getContentType()).isEqualTo(WireFormat.SMILE.getMediaType());
+        assertThat(smile.readValue(all.getBody(), Contact[].class)).containsExactly(contact);
+        assertThat(page.getHeaders().getContentType()).isEqualTo(WireFormat.SMILE.getMediaType());
+        assertThat(smile.readValue(page.getBody(), Contact[].class)).containsExactly(contact);
+    }
+
+    @Test
+    @SneakyThrows
+    void streamContactByPrefix_smile() {
+        Stream.of("smileStreamer1", "smileStreamer2", "smileStreamer3")
+                .forEach(name -> contactService.create(Contact.builder().name(name).phoneNumber("123456").build()));
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(WireFormat.SMILE.getStreamMediaType()));
+
+        ResponseEntity<byte[]> response =
+                restTemplate.exchange(
+                        getBaseUrl() + "?contactPrefix=smileStreamer", HttpMethod.GET, new HttpEntity<>(headers),
+                        byte[].class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(WireFormat.SMILE.getStreamMediaType());
+        List<Contact> contacts =
+                wireMappers.get(WireFormat.SMILE).readerFor(Contact.class).<Contact>readValues(response.getBody()).readAll();
+        assertThat(contacts).extracting(Contact::getName)
+                .containsExactly("smileStreamer1", "smileStreamer2", "smileStreamer3");
+    }
+
+    @Test
+    void readContactByPrefix_invalidCursor() {
+        ResponseEntity<String> response =
+                restTemplate.exchange(
+                        getBaseUrl() + "?contactPrefix=pager&limit=2&cursor=bm9jb2xvbg", HttpMethod.GET,
+                        new HttpEntity<>(getHttpHeaders()), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void autocomplete() {
+        List<Contact> created = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            created.add(contactService.create(Contact.builder().name("autoc" + i).phoneNumber("1").build()));
+        }
+
+        ResponseEntity<Contact[]> response =
+                restTemplate.exchange(
+                        getBaseUrl() + "/autocomplete?prefix=autoc&k=2", HttpMethod.GET,
+                        new HttpEntity<>(getHttpHeaders()), Contact[].class);
+        ResponseEntity<String> tooMany =
+                restTemplate.exchange(
+                        getBaseUrl() + "/autocomplete?prefix=autoc&k=11", HttpMethod.GET,
+                        new HttpEntity<>(getHttpHeaders()), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsExactly(created.get(14), created.get(13));
+        assertThat(tooMany.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void fuzzySearchContacts() {
+        Contact exact = contactService.create(Contact.builder().name("Fuzzbert").phoneNumber("1").build());
+        Contact oneTypo = contactService.create(Contact.builder().name("Fuzbert").phoneNumber("2").build());
+        contactService.create(Contact.builder().name("Fzbrt").phoneNumber("3").build());
+
+        ResponseEntity<Contact[]> response =
+                restTemplate.exchange(
+                        getBaseUrl() + "?fuzzy=Fuzzbert&maxEdits=1", HttpMethod.GET,
+                        new HttpEntity<>(getHttpHeaders()), Contact[].class);
+        ResponseEntity<String> tooManyEdits =
+                restTemplate.exchange(
+                        getBaseUrl() + "?fuzzy=Fuzzbert&maxEdits=3", HttpMethod.GET,
+                        new HttpEntity<>(getHttpHeaders()), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsExactly(exact, oneTypo);
+        assertThat(tooManyEdits.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void searchContacts() {
+        Contact zoe = contactService.create(Contact.builder().name("Zoë Ångström-Lee").phoneNumber("1").build());
+        contactService.create(Contact.builder().name("Zoe Other").phoneNumber("2").build());
+
+        ResponseEntity<Contact[]> response =
+                restTemplate.exchange(
+                        getBaseUrl() + "?q=zoe angs", HttpMethod.GET, new HttpEntity<>(getHttpHeaders()),
+                        Contact[].class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsExactly(zoe);
+    }
+
+    @Test
+    void readContactByPhone() {
+        Contact caller = contactService.create(Contact.builder().name("caller").phoneNumber("+1 (555) 867-5309").build());
+        Contact neighbour = contactService.create(Contact.builder().name("neighbour").phoneNumber("1-555-867-0000").build());
+
+        ResponseEntity<Contact[]> exact =
+                restTemplate.exchange(
+                        getBaseUrl() + "?phone=15558675309", HttpMethod.GET, new HttpEntity<>(getHttpHeaders()),
+                        Contact[].class);
+        ResponseEntity<Contact[]> prefixed =
+                restTemplate.exchange(
+                        getBaseUrl() + "?phone=1555867&prefix=true", HttpMethod.GET,
+                        new HttpEntity<>(getHttpHeaders()), Contact[].class);
+        ResponseEntity<String> noDigits =
+                restTemplate.exchange(
+                        getBaseUrl() + "?phone=abc", HttpMethod.GET, new HttpEntity<>(getHttpHeaders()), String.class);
+
+        assertThat(exact.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(exact.getBody()).containsExactly(caller);
+        assertThat(prefixed.getBody()).containsExactly(neighbour, caller);
+        assertThat(noDigits.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    @SneakyThrows
+    void batch() {
+        Contact existing = contactService.create(Contact.builder().name("batchOld").phoneNumber("123456").build());
+        Contact doomed = contactService.create(Contact.builder().name("batchDoomed").phoneNumber("123456").build());
+        List<BatchOperation> operations = List.of(
+                BatchOperation.builder().type(BatchOperation.Type.CREATE)
+                        .contact(Contact.builder().name("batchNew").phoneNumber("1").build()).build(),
+                BatchOperation.builder().type(BatchOperation.Type.CREATE)
+                        .contact(Contact.builder().phoneNumber("1").build()).build(),
+                BatchOperation.builder().type(BatchOperation.Type.UPDATE)
+                        .contact(Contact.builder().id(existing.getId()).name("batchRenamed").phoneNumber("2").build()).build(),
+                BatchOperation.builder().type(BatchOperation.Type.UPDATE)
+                        .contact(Contact.builder().id(98765L).name("batchMissing").phoneNumber("2").build()).build(),
+                BatchOperation.builder().type(BatchOperation.Type.DELETE).id(doomed.getId()).build());
+
+        ResponseEntity<BatchResult[]> response =
+                restTemplate.exchange(
+                        getBaseUrl() + "/batch", HttpMethod.POST,
+                        new HttpEntity<>(objectMapper.writeValueAsString(operations), getHttpHeaders()),
+                        BatchResult[].class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        BatchResult[] results = response.getBody();
+        assertThat(results).extracting(BatchResult::getStatus).containsExactly(201, 400, 200, 404, 204);
+        assertThat(results[1].getError()).isEqualTo("name must not be blank");
+        assertThat(contactService.get(results[0].getContact().getId()).getName()).isEqualTo("batchNew");
+        assertThat(contactService.readByPrefix("batch")).extracting(Contact::getName)
+                .containsExactly("batchNew", "batchRenamed");
+    }
+
+    @Test
+    void read_ifNoneMatchCurrentETag_notModified() {
+        Contact created = contactService.create(Contact.builder().name("etag").phoneNumber("1").build());
+        ResponseEntity<Contact> first =
+                restTemplate.exchange(
+                        getBaseUrl() + "/" + created.getId(), HttpMethod.GET, new HttpEntity<>(getHttpHeaders()),
+                        Contact.class);
+        assertThat(first.getHeaders().getETag()).isEqualTo("\"1\"");
+
+        HttpHeaders conditional = getHttpHeaders();
+        conditional.setIfNoneMatch(first.getHeaders().getETag());
+        ResponseEntity<String> unchanged =
+                restTemplate.exchange(
+                        getBaseUrl() + "/" + created.getId(), HttpMethod.GET, new HttpEntity<>(conditional), String.class);
+        contactService.update(Contact.builder().id(created.getId()).name("etag2").phoneNumber("1").build());
+        ResponseEntity<Contact> changed =
+                restTemplate.exchange(
+                        getBaseUrl() + "/" + created.getId(), HttpMethod.GET, new HttpEntity<>(conditional), Contact.class);
+
+        assertThat(unchanged.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(unchanged.getBody()).isNull();
+        assertThat(changed.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(changed.getHeaders().getETag()).isEqualTo("\"2\"");
+        assertThat(changed.getBody().getName()).isEqualTo("etag2");
+    }
+
+    @Test
+    void updateAndDelete_ifMatchStaleETag_preconditionFailed() {
+        Contact created = contactService.create(Contact.builder().name("ifmatch").phoneNumber("1").build());
+        String url = getBaseUrl() + "/" + created.getId();
+        Contact update = Contact.builder().id(created.getId()).name("ifmatch2").phoneNumber("2").build();
+        HttpHeaders current = getHttpHeaders();
+        current.setIfMatch("\"1\"");
+
+        ResponseEntity<Contact> updated =
+                restTemplate.exchange(url, HttpMethod.PUT, new HttpEntity<>(update, current), Contact.class);
+        ResponseEntity<String> staleUpdate =
+                restTemplate.exchange(url, HttpMethod.PUT, new HttpEntity<>(update, current), String.class);
+        ResponseEntity<String> staleDelete =
+                restTemplate.exchange(url, HttpMethod.DELETE, new HttpEntity<>(current), String.class);
+
+        assertThat(updated.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(updated.getHeaders().getETag()).isEqualTo("\"2\"");
+        assertThat(staleUpdate.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(staleDelete.getStatusCode()).isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        assertThat(contactService.get(created.getId()).getVersion()).isEqualTo(2L);
+
+        current.setIfMatch(List.of("\"7\"", "\"2\""));
+        ResponseEntity<String> deleted =
+                restTemplate.exchange(url, HttpMethod.DELETE, new HttpEntity<>(current), String.class);
+        assertThat(deleted.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+    }
+
+    @Test
+    @SneakyThrows
+    void changes_resumeAfterLastEventId() {
+        long lastSeen = changeFeed.lastSequence();
+        Contact first = contactService.create(Contact.builder().name("feedA").phoneNumber("1").build());
+        Contact second = contactService.create(Contact.builder().name("feedB").phoneNumber("2").build());
+        contactService.remove(first.getId());
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(getBaseUrl() + "/changes"))
+                .header(HttpHeaders.ACCEPT, MediaType.TEXT_EVENT_STREAM_VALUE)
+                .header("Last-Event-ID", Long.toString(lastSeen + 1))
+                .build();
+        HttpResponse<Stream<String>> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofLines());
+        List<String> ids = new ArrayList<>();
+        List<ChangeEvent> events = new ArrayList<>();
+        try (Stream<String> lines = response.body()) {
+            Iterator<String> iterator = lines.iterator();
+            while (events.size() < 2) {
+                String line = iterator.next();
+                if (line.startsWith("id:")) {
+                    ids.add(line.substring(3));
+                } else if (line.startsWith("data:")) {
+                    events.add(objectMapper.readValue(line.substring(5), ChangeEvent.class));
+                }
+            }
+        }
+
+        assertThat(response.statusCode()).isEqualTo(HttpStatus.OK.value());
+        assertThat(ids).containsExactly(Long.toString(lastSeen + 2), Long.toString(lastSeen + 3));
+        assertThat(events).containsExactly(
+                new ChangeEvent(lastSeen + 2, ChangeEvent.Type.PUT, second.getId(), second),
+                new ChangeEvent(lastSeen + 3, ChangeEvent.Type.REMOVE, first.getId(), null));
+    }
+
+    @Test
+    @SneakyThrows
+    void importAndExport_roundTrip() {
+        String csv = "phoneNumber,Name,note\r\n"
+                + "050-1111111,\"Bulk, Ada\",x\r\n"
+                + "050-2222222,\"Bulk \"\"Bo\"\"\nSecond line\"\r\n"
+                + "050-3333333,\r\n"
+                + "050-4444444,\"Bulk Cy\"\r\n";
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("text/csv"));
+        ResponseEntity<ImportResult> imported = restTemplate.exchange(
+                getBaseUrl() + "/import", HttpMethod.POST, new HttpEntity<>(csv, headers), ImportResult.class);
+
+        assertThat(imported.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(imported.getBody().getImported()).isEqualTo(3);
+        assertThat(imported.getBody().getErrors())
+                .containsExactly(new ImportResult.Rejection(5, "name must not be blank"));
+        assertThat(contactService.readByPrefix("Bulk")).extracting(Contact::getName)
+                .containsExactly("Bulk \"Bo\"\nSecond line", "Bulk Cy", "Bulk, Ada");
+        assertThat(contactService.readByPhone("0504444444", false, 10)).extracting(Contact::getName)
+                .containsExactly("Bulk Cy");
+
+        Contact ada = contactService.readByPrefix("Bulk, Ada").get(0);
+        headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.valueOf("text/csv")));
+        String exported = restTemplate.exchange(
+                getBaseUrl() + "/export", HttpMethod.GET, new HttpEntity<>(headers), String.class).getBody();
+        assertThat(exported).startsWith("id,name,phoneNumber,version\n")
+                .contains(ada.getId() + ",\"Bulk, Ada\",050-1111111,1\n")
+                .contains(",\"Bulk \"\"Bo\"\"\nSecond line\",050-2222222,1\n");
+
+        headers.setAccept(Collections.singletonList(MediaType.APPLICATION_NDJSON));
+        String ndjson = restTemplate.exchange(
+                getBaseUrl() + "/export", HttpMethod.GET, new HttpEntity<>(headers), String.class).getBody();
+        assertThat(ndjson.split("\n")).contains(objectMapper.writeValueAsString(ada));
+        headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_NDJSON);
+        ResponseEntity<ImportResult> reimported = restTemplate.exchange(
+                getBaseUrl() + "/import", HttpMethod.POST,
+                new HttpEntity<>(objectMapper.writeValueAsString(ada) + "\n{\"name\":\n", headers),
+                ImportResult.class);
+        assertThat(reimported.getBody().getImported()).isEqualTo(1);
+        assertThat(reimported.getBody().getRejected()).isEqualTo(1);
+        assertThat(contactService.readByPrefix("Bulk, Ada")).hasSize(2);
+    }
+
+    @Test
+    void import_csvWithoutNameColumn_badRequest() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("text/csv"));
+        ResponseEntity<String> response = restTemplate.exchange(
+                getBaseUrl() + "/import", HttpMethod.POST, new HttpEntity<>("phoneNumber\n123\n", headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    void import_csvWithMalformedHeader_badRequest() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf("text/csv"));
+        ResponseEntity<String> response = restTemplate.exchange(
+                getBaseUrl() + "/import", HttpMethod.POST,
+                new HttpEntity<>("\"name\"x,phoneNumber\nBulk Bad,123\n", headers), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
     private void createContactsHelper() {
         Stream.of(
                 Contact.builder().name("dobi").phoneNumber("123456").build(),
@@ -0,0 +1,152 @@
+package org.sunbit.addressbook.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.codec.WireFormat;
+import org.sunbit.addressbook.feed.ChangeFeed;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.model.SearchCursor;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {"spring.main.web-application-type=reactive", "management.server.port=0"})
+@AutoConfigureWebTestClient
+class ContactRouterTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Autowired
+    private WebTestClient client;
+    @Autowired
+    private ContactService contactService;
+    @Autowired
+    private ChangeFeed changeFeed;
+
+    @Test
+    void createReadUpdateDelete() {
+        Contact created = client.post().uri(ContactController.PATH)
+                .bodyValue(Contact.builder().name("Reactive Rita").phoneNumber("050-7654321").build())
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"1\"")
+                .expectBody(Contact.class).returnResult().getResponseBody();
+        String path = ContactController.PATH + "/" + created.getId();
+
+        client.get().uri(path).exchange()
+                .expectStatus().isOk()
+                .expectBody(Contact.class).isEqualTo(created);
+        client.get().uri(path).header(HttpHeaders.IF_NONE_MATCH, "\"1\"").exchange()
+                .expectStatus().isNotModified();
+
+        Contact renamed = new Contact(created.getId(), "Reactive Rina", created.getPhoneNumber());
+        client.put().uri(path).header(HttpHeaders.IF_MATCH, "\"7\"").bodyValue(renamed).exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+        client.put().uri(path).header(HttpHeaders.IF_MATCH, "\"1\"").bodyValue(renamed).exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(HttpHeaders.ETAG, "\"2\"");
+        assertThat(contactService.get(created.getId()).getName()).isEqualTo("Reactive Rina");
+
+        client.delete().uri(path).exchange().expectStatus().isNoContent();
+        client.get().uri(path).exchange().expectStatus().isNotFound();
+    }
+
+    @Test
+    void invalidRequests_badRequest() {
+        client.post().uri(ContactController.PATH)
+                .bodyValue(Contact.builder().phoneNumber("123").build())
+                .exchange()
+                .expectStatus().isBadRequest();
+        client.get().uri(ContactController.PATH + "/abc").exchange().expectStatus().isBadRequest();
+        client.get().uri(ContactController.PATH + "?contactPrefix=a&limit=0").exchange().expectStatus().isBadRequest();
+        client.get().uri(ContactController.PATH + "?phone=abc").exchange().expectStatus().isBadRequest();
+    }
+
+    @Test
+    void readByPrefix_pagedAndStreamed() {
+        List<Contact> created = IntStream.range(0, ContactHandler.STREAM_PAGE + 10)
+                .mapToObj(i -> contactService.create(
+                        Contact.builder().name(String.format("Streamy %04d", i)).phoneNumber("1").build()))
+                .collect(Collectors.toList());
+
+        client.get().uri(ContactController.PATH + "?contactPrefix=Streamy&limit=5").exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals(ContactController.TOTAL_COUNT_HEADER, "" + created.size())
+                .expectHeader().valueEquals(
+                        ContactController.NEXT_CURSOR_HEADER,
+                        new SearchCursor(created.get(4).getName(), created.get(4).getId()).encode())
+                .expectBodyList(Contact.class).isEqualTo(created.subList(0, 5));
+        client.get().uri(ContactController.PATH + "?contactPrefix=Streamy").exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Contact.class).isEqualTo(created);
+
+        Flux<Contact> streamed = client.get().uri(ContactController.PATH + "?contactPrefix=Streamy")
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Contact.class).getResponseBody();
+        assertThat(streamed.collectList().block(TIMEOUT)).isEqualTo(created);
+    }
+
+    @Test
+    void smile_bodiesAndStreams() {
+        Contact created = client.post().uri(ContactController.PATH)
+                .contentType(WireFormat.SMILE.getMediaType())
+                .accept(WireFormat.SMILE.getMediaType())
+                .bodyValue(Contact.builder().name("Smiley Reactive").phoneNumber("1").build())
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().contentType(WireFormat.SMILE.getMediaType())
+                .expectBody(Contact.class).returnResult().getResponseBody();
+        List<Contact> more = IntStream.range(0, 3)
+                .mapToObj(i -> contactService.create(
+                        Contact.builder().name("Smiley Reactive " + i).phoneNumber("1").build()))
+                .collect(Collectors.toList());
+        List<Contact> all = new ArrayList<>(List.of(created));
+        all.addAll(more);
+
+        client.get().uri(ContactController.PATH + "?contactPrefix=Smiley")
+                .accept(WireFormat.SMILE.getMediaType())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(WireFormat.SMILE.getMediaType())
+                .expectBodyList(Contact.class).isEqualTo(all);
+        Flux<Contact> streamed = client.get().uri(ContactController.PATH + "?contactPrefix=Smiley")
+                .accept(WireFormat.SMILE.getStreamMediaType())
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(WireFormat.SMILE.getStreamMediaType())
+                .returnResult(Contact.class).getResponseBody();
+        assertThat(streamed.collectList().block(TIMEOUT)).isEqualTo(all);
+    }
+
+    @Test
+    void changes_resumesAfterSince() {
+        long since = changeFeed.lastSequence();
+        Contact created = contactService.create(Contact.builder().name("Changed").phoneNumber("1").build());
+
+        Flux<String> events = client.get().uri(ContactController.PATH + "/changes?since=" + since)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class).getResponseBody();
+        assertThat(events.blockFirst(TIMEOUT))
+                .contains("\"sequence\":" + (since + 1))
+                .contains("\"id\":" + created.getId());
+    }
+}
@@ -0,0 +1,79 @@
+package org.sunbit.addressbook.feed;
+
+import org.junit.jupiter.api.Test;
+import org.sunbit.addressbook.model.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChangeFeedTest {
+
+    @Test
+    void read_returnsEventsInSequenceOrderFromTheRequestedOne() {
+        ChangeFeed changeFeed = feed(8);
+        Contact dodo = new Contact(1L, "Dodo", "0542357223");
+        changeFeed.publishPut(dodo);
+        changeFeed.publishRemove(1L);
+
+        List<ChangeEvent> events = new ArrayList<>();
+        assertThat(changeFeed.read(1, 10, events::add)).isEqualTo(3);
+        assertThat(events).containsExactly(
+                new ChangeEvent(1, ChangeEvent.Type.PUT, 1L, dodo),
+                new ChangeEvent(2, ChangeEvent.Type.REMOVE, 1L, null));
+
+        events.clear();
+        assertThat(changeFeed.read(2, 10, events::add)).isEqualTo(3);
+        assertThat(events).extracting(ChangeEvent::getSequence).containsExactly(2L);
+        assertThat(changeFeed.read(3, 10, events::add)).isEqualTo(3);
+    }
+
+    @Test
+    void read_afterAFullLap_stopsAtOverwrittenEvents() {
+        ChangeFeed changeFeed = feed(5);
+        assertThat(changeFeed.capacity()).isEqualTo(8);
+        for (long id = 1; id <= 20; id++) {
+            changeFeed.publishRemove(id);
+        }
+
+        assertThat(changeFeed.lastSequence()).isEqualTo(20);
+        assertThat(changeFeed.oldestSequence()).isEqualTo(13);
+        assertThat(changeFeed.read(3, 10, event -> { })).isEqualTo(3);
+        List<ChangeEvent> events = new ArrayList<>();
+        assertThat(changeFeed.read(13, 100, events::add)).isEqualTo(21);
+        assertThat(events).extracting(ChangeEvent::getId).containsExactlyElementsOf(
+                LongStream.rangeClosed(13, 20).boxed().collect(Collectors.toList()));
+    }
+
+    @Test
+    void publish_concurrentWriters_everySequenceIsReadableOnce() throws InterruptedException {
+        ChangeFeed changeFeed = feed(1 << 16);
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        for (int writer = 0; writer < 4; writer++) {
+            long first = writer * 10_000L;
+            writers.execute(() -> {
+                for (long id = first; id < first + 10_000; id++) {
+                    changeFeed.publishRemove(id);
+                }
+            });
+        }
+        writers.shutdown();
+        assertThat(writers.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        List<Long> ids = new ArrayList<>();
+        assertThat(changeFeed.read(1, Integer.MAX_VALUE, event -> ids.add(event.getId()))).isEqualTo(40_001);
+        assertThat(ids).doesNotHaveDuplicates().hasSize(40_000);
+    }
+
+    private static ChangeFeed feed(int capacity) {
+        ChangeFeedProperties properties = new ChangeFeedProperties();
+        properties.setCapacity(capacity);
+        return new ChangeFeed(properties);
+    }
+}
@@ -0,0 +1,362 @@
+package org.sunbit.addressbook.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IdTrieTest {
+
+    private final IdTrie trie = new IdTrie();
+
+    @Test
+    void prefixScan_returnsKeysInOrder() {
+        trie.add("dobi12", 2L);
+        trie.add("albert", 3L);
+        trie.add("dobi", 1L);
+        trie.add("do", 5L);
+        trie.add("albert12", 4L);
+
+        assertThat(keysPrefixedBy("do")).containsExactly("do", "dobi", "dobi12");
+        assertThat(keysPrefixedBy("")).containsExactly("albert", "albert12", "do", "dobi", "dobi12");
+        assertThat(keysPrefixedBy("dob")).containsExactly("dobi", "dobi12");
+        assertThat(keysPrefixedBy("x")).isEmpty();
+        assertThat(keysPrefixedBy("dobi123")).isEmpty();
+    }
+
+    @Test
+    void prefixScanFromKey_skipsEarlierKeys() {
+        for (String key : new String[]{"al", "alb", "albert", "albert12", "alfred", "all", "am"}) {
+            trie.add(key, key.length());
+        }
+
+        assertThat(keysPrefixedBy("al", "albert")).containsExactly("albert", "albert12", "alfred", "all");
+        assertThat(keysPrefixedBy("al", "albert1")).containsExactly("albert12", "alfred", "all");
+        assertThat(keysPrefixedBy("al", "alc")).containsExactly("alfred", "all");
+        assertThat(keysPrefixedBy("al", "a")).containsExactly("al", "alb", "albert", "albert12", "alfred", "all");
+        assertThat(keysPrefixedBy("al", "am")).isEmpty();
+        assertThat(keysPrefixedBy("alb", "albert12")).containsExactly("albert12");
+    }
+
+    @Test
+    void sameKey_keepsSortedIds() {
+        trie.add("Dodo", 9L);
+        trie.add("Dodo", 1L);
+        trie.add("Dodo", 5L);
+        trie.add("Dodo", 5L);
+
+        assertThat(trie.get("Dodo")).containsExactly(1L, 5L, 9L);
+        assertThat(trie.get("Dod")).isEmpty();
+    }
+
+    @Test
+    void remove_mergesAndPrunesNodes() {
+        trie.add("team", 1L);
+        trie.add("tea", 2L);
+        trie.add("ten", 3L);
+
+        trie.remove("tea", 2L);
+        assertThat(keysPrefixedBy("te")).containsExactly("team", "ten");
+
+        trie.remove("ten", 3L);
+        trie.remove("team", 1L);
+        assertThat(keysPrefixedBy("")).isEmpty();
+
+        trie.add("tea", 4L);
+        assertThat(trie.get("tea")).containsExactly(4L);
+    }
+
+    @Test
+    void replace_movesId() {
+        trie.add("Dodo", 1L);
+
+        trie.replace("Dodo", "notDodo", 1L);
+
+        assertThat(trie.get("Dodo")).isEmpty();
+        assertThat(trie.get("notDodo")).containsExactly(1L);
+    }
+
+    @Test
+    void batch_matchesSequentialApplication() {
+        Random random = new Random(7);
+        TreeMap<String, TreeSet<Long>> model = new TreeMap<>();
+        String[] names = {"a", "ab", "abc", "abd", "b", "ba", "bab", "c", "cab", "cabd"};
+        for (int round = 0; round < 50; round++) {
+            IdTrie.Batch batch = trie.batch();
+            for (int i = 0; i < 40; i++) {
+                String name = names[random.nextInt(names.length)];
+                long id = random.nextInt(20);
+                if (random.nextBoolean()) {
+                    batch.add(name, id);
+                    model.computeIfAbsent(name, k -> new TreeSet<>()).add(id);
+                } else {
+                    batch.remove(name, id);
+                    if (model.containsKey(name)) {
+                        model.get(name).remove(id);
+                        if (model.get(name).isEmpty()) {
+                            model.remove(name);
+                        }
+                    }
+                }
+            }
+            batch.apply();
+
+            assertThat(keysPrefixedBy("")).containsExactlyElementsOf(model.keySet());
+            model.forEach((name, ids) ->
+                    assertThat(trie.get(name)).containsExactly(ids.stream().mapToLong(Long::longValue).toArray()));
+        }
+    }
+
+    @Test
+    void batch_replaceSameIdTwice_keepsLastName() {
+        trie.add("a", 1L);
+
+        trie.batch().replace("a", "b", 1L).replace("b", "a", 1L).apply();
+
+        assertThat(trie.get("a")).containsExactly(1L);
+        assertThat(trie.get("b")).isEmpty();
+    }
+
+    @Test
+    void load_buildsSameTrieAsInserts() {
+        String[] keys = {"", "a", "ab", "ab", "abc", "abd", "b", "ba", "bab", "bab", "cabd"};
+        long[] ids = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        IdTrie inserted = new IdTrie();
+        for (int i = 0; i < keys.length; i++) {
+            inserted.add(keys[i], ids[i]);
+        }
+
+        trie.load(keys, ids, keys.length);
+
+        assertThat(keysPrefixedBy("")).containsExactly("", "a", "ab", "abc", "abd", "b", "ba", "bab", "cabd");
+        assertThat(trie.get("ab")).containsExactly(2L, 3L);
+        assertThat(trie.get("bab")).containsExactly(8L, 9L);
+        for (String key : keys) {
+            assertThat(trie.get(key)).containsExactly(inserted.get(key));
+        }
+        trie.remove("abc", 4L);
+        trie.add("abe", 11L);
+        assertThat(keysPrefixedBy("ab")).containsExactly("ab", "abd", "abe");
+    }
+
+    @Test
+    void addAll_mergesSameTrieAsInserts() {
+        int k = 3;
+        IdTrie merged = new IdTrie(k);
+        IdTrie inserted = new IdTrie(k);
+        Random random = new Random(29);
+        long id = 0;
+        for (int round = 0; round < 20; round++) {
+            TreeMap<String, TreeSet<Long>> added = new TreeMap<>();
+            for (int i = random.nextInt(60); i > 0; i--) {
+                StringBuilder key = new StringBuilder();
+                for (int len = random.nextInt(6); len > 0; len--) {
+                    key.append((char) ('a' + random.nextInt(3)));
+                }
+                added.computeIfAbsent(key.toString(), ignored -> new TreeSet<>()).add(++id);
+                inserted.add(key.toString(), id);
+            }
+            String[] keys = added.keySet().stream().flatMap(key -> added.get(key).stream().map(ignored -> key)).toArray(String[]::new);
+            long[] ids = added.values().stream().flatMap(TreeSet::stream).mapToLong(Long::longValue).toArray();
+            merged.addAll(keys, ids, keys.length);
+
+            List<String> expectedKeys = new ArrayList<>();
+            inserted.forEachPrefixedBy("", (key, keyIds) -> expectedKeys.add(key + "=" + Arrays.toString(keyIds)));
+            List<String> actualKeys = new ArrayList<>();
+            merged.forEachPrefixedBy("", (key, keyIds) -> actualKeys.add(key + "=" + Arrays.toString(keyIds)));
+            assertThat(actualKeys).isEqualTo(expectedKeys);
+            for (String prefix : new String[]{"", "a", "ab", "cc", "bca"}) {
+                assertThat(merged.count(prefix)).as(prefix).isEqualTo(inserted.count(prefix));
+                assertThat(merged.topIds(prefix, k)).as(prefix).containsExactly(inserted.topIds(prefix, k));
+            }
+        }
+        assertThat(merged.stats().getNodes()).isEqualTo(inserted.stats().getNodes());
+    }
+
+    @Test
+    void scanDuringWrites_seesConsistentSnapshots() throws Exception {
+        for (long id = 0; id < 1_000; id++) {
+            trie.add("stable" + id, id);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        AtomicBoolean running = new AtomicBoolean(true);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                int writer = w;
+                futures.add(pool.submit(() -> {
+                    for (long i = 0; i < 20_000; i++) {
+                        String key = "stable" + writer + "churn" + (i % 100);
+                        trie.add(key, 10_000 + i);
+                        trie.remove(key, 10_000 + i);
+                    }
+                    return null;
+                }));
+            }
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int r = 0; r < 2; r++) {
+                readers.add(pool.submit(() -> {
+                    int scans = 0;
+                    while (running.get()) {
+                        long[] stableSeen = {0};
+                        trie.forEachPrefixedBy("stable", (key, ids) -> {
+                            for (long id : ids) {
+                                if (id < 1_000) {
+                                    stableSeen[0]++;
+                                }
+                            }
+                            return true;
+                        });
+                        assertThat(stableSeen[0]).isEqualTo(1_000);
+                        scans++;
+                    }
+                    return scans;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+            running.set(false);
+            for (Future<Integer> reader : readers) {
+                assertThat(reader.get(1, TimeUnit.MINUTES)).isPositive();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(keysPrefixedBy("stable")).hasSize(1_000);
+    }
+
+    @Test
+    void withinDistance_matchesBruteForceLevenshtein() {
+        Random random = new Random(12);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            StringBuilder key = new StringBuilder();
+            for (int len = 1 + random.nextInt(7); len > 0; len--) {
+                key.append((char) ('a' + random.nextInt(4)));
+            }
+            keys.add(key.toString());
+            trie.add(key.toString(), i);
+        }
+        for (String query : new String[]{"", "a", "abcd", "dcbaab", "bbbbbbbbb"}) {
+            for (int maxDistance = 0; maxDistance <= 2; maxDistance++) {
+                TreeMap<String, Integer> expected = new TreeMap<>();
+                for (String key : keys) {
+                    int distance = levenshtein(key, query);
+                    if (distance <= maxDistance) {
+                        expected.put(key, distance);
+                    }
+                }
+                TreeMap<String, Integer> actual = new TreeMap<>();
+                List<String> order = new ArrayList<>();
+                trie.forEachWithinDistance(query, maxDistance, (key, distance, ids) -> {
+                    actual.put(key.toString(), distance);
+                    order.add(key.toString());
+                    return true;
+                });
+
+                assertThat(actual).as("%s within %d", query, maxDistance).isEqualTo(expected);
+                assertThat(order).isSorted();
+            }
+        }
+    }
+
+    @Test
+    void topIdsAndCount_matchBruteForceAfterRandomWrites() {
+        int k = 4;
+        IdTrie ranked = new IdTrie(k);
+        TreeMap<String, TreeSet<Long>> model = new TreeMap<>();
+        Random random = new Random(13);
+        for (int step = 0; step < 5_000; step++) {
+            StringBuilder key = new StringBuilder();
+            for (int len = 1 + random.nextInt(4); len > 0; len--) {
+                key.append((char) ('a' + random.nextInt(3)));
+            }
+            long id = random.nextInt(300);
+            if (random.nextInt(3) == 0) {
+                ranked.remove(key.toString(), id);
+                model.computeIfPresent(key.toString(), (ignored, ids) -> {
+                    ids.remove(id);
+                    return ids.isEmpty() ? null : ids;
+                });
+            } else {
+                ranked.add(key.toString(), id);
+                model.computeIfAbsent(key.toString(), ignored -> new TreeSet<>()).add(id);
+            }
+            if (step % 500 == 0) {
+                ranked.load(new String[0], new long[0], 0);
+                model.clear();
+            }
+        }
+        for (String prefix : new String[]{"", "a", "b", "ab", "cc", "abc", "bbbb"}) {
+            TreeSet<Long> expected = new TreeSet<>();
+            model.subMap(prefix, prefix + Character.MAX_VALUE).values().forEach(expected::addAll);
+            long entries = model.subMap(prefix, prefix + Character.MAX_VALUE).values().stream().mapToLong(TreeSet::size).sum();
+
+            assertThat(ranked.count(prefix)).as(prefix).isEqualTo(entries);
+            assertThat(ranked.topIds(prefix, k)).as(prefix)
+                    .containsExactly(expected.descendingSet().stream().limit(k).mapToLong(Long::longValue).toArray());
+        }
+
+        String[] keys = model.keySet().stream().flatMap(key -> model.get(key).stream().map(id -> key)).toArray(String[]::new);
+        long[] ids = model.values().stream().flatMap(TreeSet::stream).mapToLong(Long::longValue).toArray();
+        IdTrie loaded = new IdTrie(k);
+        loaded.load(keys, ids, keys.length);
+        assertThat(loaded.topIds("", k)).isEqualTo(ranked.topIds("", k));
+        assertThat(loaded.topIds("ab", k)).isEqualTo(ranked.topIds("ab", k));
+        assertThat(loaded.count("")).isEqualTo(ranked.count("")).isEqualTo(keys.length);
+        assertThat(loaded.count("ab")).isEqualTo(ranked.count("ab"));
+    }
+
+    @Test
+    void stats_countNodesAndGrowWithIds() {
+        IdTrie.Stats empty = trie.stats();
+        for (String key : new String[]{"dobi12", "albert", "dobi", "do", "albert12"}) {
+            trie.add(key, 1L);
+        }
+        IdTrie.Stats small = trie.stats();
+        for (long id = 2; id <= 100; id++) {
+            trie.add("dobi", id);
+        }
+        IdTrie.Stats large = trie.stats();
+
+        assertThat(empty.getNodes()).isEqualTo(1);
+        // root, albert, albert/12, do, do/bi, do/bi/12
+        assertThat(small.getNodes()).isEqualTo(6);
+        assertThat(large.getNodes()).isEqualTo(6);
+        assertThat(large.getBytes() - small.getBytes()).isEqualTo(99 * Long.BYTES);
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                d[i][j] = i == 0 ? j : j == 0 ? i : Math.min(
+                        d[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1),
+                        Math.min(d[i - 1][j], d[i][j - 1]) + 1);
+            }
+        }
+        return d[a.length()][b.length()];
+    }
+
+    private List<String> keysPrefixedBy(String prefix) {
+        return keysPrefixedBy(prefix, null);
+    }
+
+    private List<String> keysPrefixedBy(String prefix, String fromKey) {
+        List<String> keys = new ArrayList<>();
+        trie.forEachPrefixedBy(prefix, fromKey, (key, ids) -> keys.add(key.toString()));
+        return keys;
+    }
+}
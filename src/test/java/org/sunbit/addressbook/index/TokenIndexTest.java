@@ -0,0 +1,60 @@
+package org.sunbit.addressbook.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenIndexTest {
+
+    private final TokenIndex index = new TokenIndex();
+
+    @Test
+    void tokens_foldCaseAndAccentsAndSplitOnPunctuation() {
+        assertThat(TokenIndex.tokens("  Zoë O'Brien-SMITH zoe ")).containsExactly("zoe", "o", "brien", "smith");
+        assertThat(TokenIndex.tokens("Ångström")).containsExactly("angstrom");
+        assertThat(TokenIndex.tokens("--")).isEmpty();
+    }
+
+    @Test
+    void search_everyQueryTokenMustPrefixSomeNameToken() {
+        index.add("John Smith", 1);
+        index.add("Johanna Smithers", 2);
+        index.add("Smith John", 3);
+        index.add("Jack Smythe", 4);
+
+        assertThat(index.search(TokenIndex.tokens("jo smi"))).containsExactly(1, 2, 3);
+        assertThat(index.search(TokenIndex.tokens("smithers"))).containsExactly(2);
+        assertThat(index.search(TokenIndex.tokens("j sm"))).containsExactly(1, 2, 3, 4);
+        assertThat(index.search(TokenIndex.tokens("jo smy"))).isEmpty();
+    }
+
+    @Test
+    void replaceAndLoad_keepPostingsInSync() {
+        index.add("John Smith", 1);
+        index.replace("John Smith", "John Doe", 1);
+        assertThat(index.search(TokenIndex.tokens("smith"))).isEmpty();
+        assertThat(index.search(TokenIndex.tokens("doe john"))).containsExactly(1);
+
+        TokenIndex loaded = new TokenIndex();
+        loaded.load(new String[]{"b a", "a", "a a"}, new long[]{5, 6, 7}, 3);
+        assertThat(loaded.search(Set.of("a"))).containsExactly(5, 6, 7);
+        assertThat(loaded.search(Set.of("a", "b"))).containsExactly(5);
+    }
+
+    @Test
+    void intersect_matchesNaiveIntersection() {
+        Random random = new Random(11);
+        for (int round = 0; round < 200; round++) {
+            long[] a = LongStream.generate(() -> random.nextInt(500)).limit(random.nextInt(50)).sorted().distinct().toArray();
+            long[] b = LongStream.generate(() -> random.nextInt(500)).limit(random.nextInt(400)).sorted().distinct().toArray();
+            long[] expected = Arrays.stream(a).filter(id -> Arrays.binarySearch(b, id) >= 0).toArray();
+
+            assertThat(TokenIndex.intersect(a, b)).containsExactly(expected);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.sunbit.addressbook.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sunbit.addressbook.MyKeyValueStorage;
+import org.sunbit.addressbook.index.IdTrie;
+import org.sunbit.addressbook.index.KeyIndex;
+import org.sunbit.addressbook.index.PhoneIndex;
+import org.sunbit.addressbook.model.Contact;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContactJournalTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void recover_rebuildsStorageIndexAndGenerator() throws Exception {
+        WalProperties properties = new WalProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(dir.toString());
+
+        IdTrie index = new IdTrie();
+        MyKeyValueStorage<Contact> storage = indexed(index, new PhoneIndex());
+        ContactJournal journal = new ContactJournal(properties, storage);
+        journal.recover();
+        Contact dodo = storage.create(Contact.builder().name("Dodo").phoneNumber("1").build());
+        journal.logPut(dodo);
+        Contact dudu = storage.create(Contact.builder().name("Dudu").phoneNumber("2").build());
+        journal.logPut(dudu);
+        journal.logPut(new Contact(dodo.getId(), "Dodo2", "3", 2L));
+        journal.logRemove(dudu.getId());
+        journal.close();
+
+        IdTrie recoveredIndex = new IdTrie();
+        PhoneIndex recoveredPhones = new PhoneIndex();
+        MyKeyValueStorage<Contact> recoveredStorage = indexed(recoveredIndex, recoveredPhones);
+        ContactJournal recovered = new ContactJournal(properties, recoveredStorage);
+        recovered.recover();
+
+        assertThat(recoveredStorage.size()).isEqualTo(1L);
+        assertThat(recoveredPhones.get("3")).containsExactly(dodo.getId());
+        assertThat(recoveredPhones.get("1")).isEmpty();
+        assertThat(recoveredPhones.get("2")).isEmpty();
+        assertThat(recoveredStorage.getById(dodo.getId())).isEqualTo(new Contact(dodo.getId(), "Dodo2", "3", 2L));
+        assertThat(recoveredIndex.get("Dodo2")).containsExactly(dodo.getId());
+        assertThat(recoveredIndex.get("Dudu")).isEmpty();
+        assertThat(recoveredStorage.create(Contact.builder().name("New").build()).getId()).isGreaterThan(dudu.getId());
+        recovered.close();
+    }
+
+    @Test
+    void recover_fromSnapshotPlusLaterLog() throws Exception {
+        WalProperties properties = new WalProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(dir.toString());
+        IdTrie index = new IdTrie();
+        MyKeyValueStorage<Contact> storage = indexed(index, new PhoneIndex());
+        ContactJournal journal = new ContactJournal(properties, storage);
+        journal.recover();
+        for (String name : new String[]{"dobi", "albert", "dobi12", "albert", "yo"}) {
+            Contact contact = storage.create(Contact.builder().name(name).phoneNumber("1").build());
+            journal.logPut(contact);
+        }
+        Contact removedBeforeSnapshot = storage.create(Contact.builder().name("gone").build());
+        journal.logPut(removedBeforeSnapshot);
+        storage.removeById(removedBeforeSnapshot.getId());
+        journal.logRemove(removedBeforeSnapshot.getId());
+
+        journal.snapshot();
+        Contact renamed = new Contact(1L, "dobi-renamed", "2");
+        storage.update(1L, renamed);
+        journal.logPut(renamed);
+        journal.close();
+
+        assertThat(Files.list(dir).map(path -> path.getFileName().toString()))
+                .containsExactlyInAnyOrder("snapshot-0000000002.snap", "contacts-0000000002.wal");
+
+        IdTrie recoveredIndex = new IdTrie();
+        PhoneIndex recoveredPhones = new PhoneIndex();
+        MyKeyValueStorage<Contact> recoveredStorage = indexed(recoveredIndex, recoveredPhones);
+        ContactJournal recovered = new ContactJournal(properties, recoveredStorage);
+        recovered.recover();
+
+        assertThat(recoveredStorage.size()).isEqualTo(5L);
+        assertThat(recoveredPhones.get("1")).containsExactly(2L, 3L, 4L, 5L);
+        assertThat(recoveredPhones.get("2")).containsExactly(1L);
+        assertThat(recoveredStorage.getById(1L)).isEqualTo(renamed);
+        List<String> names = new ArrayList<>();
+        recoveredIndex.forEachPrefixedBy("", (name, ids) -> {
+            for (long id : ids) {
+                names.add(name + "#" + id);
+            }
+            return true;
+        });
+        assertThat(names).containsExactly("albert#2", "albert#4", "dobi-renamed#1", "dobi12#3", "yo#5");
+        assertThat(recoveredStorage.nextId()).isEqualTo(removedBeforeSnapshot.getId() + 1);
+        recovered.close();
+    }
+
+    @Test
+    void snapshot_duringBulkLoad_keepsContactsNotYetIndexed() throws Exception {
+        WalProperties properties = new WalProperties();
+        properties.setEnabled(true);
+        properties.setDirectory(dir.toString());
+        IdTrie index = new IdTrie();
+        MyKeyValueStorage<Contact> storage = indexed(index, new PhoneIndex());
+        ContactJournal journal = new ContactJournal(properties, storage);
+        journal.recover();
+        Contact indexed = storage.create(Contact.builder().name("zed").phoneNumber("1").build());
+        journal.logPut(indexed);
+        // stored and logged the way a bulk load does, before its index pass
+        List<Contact> imported = storage.createAllUnindexed(List.of(
+                Contact.builder().name("bulk b").phoneNumber("2").build(),
+                Contact.builder().name("bulk a").phoneNumber("3").build()));
+        List<WalRecord> records = new ArrayList<>();
+        imported.forEach(contact -> records.add(WalRecord.put(contact)));
+        journal.logAll(records);
+
+        journal.snapshot();
+        journal.close();
+
+        IdTrie recoveredIndex = new IdTrie();
+        MyKeyValueStorage<Contact> recoveredStorage = indexed(recoveredIndex, new PhoneIndex());
+        ContactJournal recovered = new ContactJournal(properties, recoveredStorage);
+        recovered.recover();
+
+        assertThat(recoveredStorage.size()).isEqualTo(3L);
+        assertThat(recoveredIndex.get("bulk a")).containsExactly(imported.get(1).getId());
+        assertThat(recoveredIndex.get("bulk b")).containsExactly(imported.get(0).getId());
+        assertThat(recoveredIndex.get("zed")).containsExactly(indexed.getId());
+        recovered.close();
+    }
+
+    private static MyKeyValueStorage<Contact> indexed(IdTrie names, PhoneIndex phones) {
+        MyKeyValueStorage<Contact> storage = new MyKeyValueStorage<>();
+        storage.addIndex(new KeyIndex<>("name", KeyIndex.singleKey(Contact::getName), names));
+        storage.addIndex(new KeyIndex<>("phone", KeyIndex.singleKey(Contact::getPhoneNumber), phones));
+        return storage;
+    }
+}
@@ -0,0 +1,161 @@
+package org.sunbit.addressbook.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.sunbit.addressbook.model.Contact;
+import org.sunbit.addressbook.persistence.WalProperties.Durability;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void replay_returnsRecordsInOrder() throws IOException {
+        Path file = dir;
+        try (WriteAheadLog wal = open(file, Durability.SYNC)) {
+            wal.append(WalRecord.put(new Contact(1L, "Dodo", "0542357223")));
+            wal.append(List.of(WalRecord.put(new Contact(2L, "Dúdú", null)), WalRecord.remove(1L)));
+        }
+
+        List<WalRecord> replayed = replay(file);
+
+        assertThat(replayed).containsExactly(
+                WalRecord.put(new Contact(1L, "Dodo", "0542357223")),
+                WalRecord.put(new Contact(2L, "Dúdú", null)),
+                WalRecord.remove(1L));
+    }
+
+    @Test
+    void concurrentAppends_allDurableInPerThreadOrder() throws Exception {
+        Path file = dir;
+        int threads = 16;
+        int perThread = 200;
+        for (Durability durability : Durability.values()) {
+            try (WriteAheadLog wal = open(file, durability)) {
+                ExecutorService pool = Executors.newFixedThreadPool(threads);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    long thread = t;
+                    futures.add(pool.submit(() -> {
+                        for (int i = 0; i < perThread; i++) {
+                            wal.append(WalRecord.put(new Contact(thread, "t" + thread, String.valueOf(i))));
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(1, TimeUnit.MINUTES);
+                }
+                pool.shutdown();
+            }
+
+            Map<Long, Integer> lastSeen = new HashMap<>();
+            for (WalRecord record : replay(file)) {
+                int sequence = Integer.parseInt(record.getContact().getPhoneNumber());
+                Integer previous = lastSeen.put(record.getId(), sequence);
+                assertThat(sequence).isEqualTo(previous == null || previous == perThread - 1 ? 0 : previous + 1);
+            }
+            assertThat(lastSeen).hasSize(threads).allSatisfy((id, last) -> assertThat(last).isEqualTo(perThread - 1));
+        }
+    }
+
+    @Test
+    void logsSharingOneExecutor_allDurable() throws Exception {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            for (Durability durability : Durability.values()) {
+                Path first = Files.createTempDirectory(dir, durability.name());
+                Path second = Files.createTempDirectory(dir, durability.name());
+                try (WriteAheadLog one = new WriteAheadLog(first, durability, Duration.ofMillis(5));
+                        WriteAheadLog other = new WriteAheadLog(second, durability, Duration.ofMillis(5))) {
+                    one.start(executor);
+                    other.start(executor);
+                    for (long id = 1; id <= 100; id++) {
+                        one.append(WalRecord.remove(id));
+                        other.append(WalRecord.remove(-id));
+                    }
+                    one.roll();
+                    one.append(WalRecord.remove(101L));
+                }
+
+                assertThat(replay(first)).hasSize(101).extracting(WalRecord::getId).endsWith(100L, 101L);
+                assertThat(replay(second)).hasSize(100).extracting(WalRecord::getId).startsWith(-1L, -2L);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void replay_truncatesTornTail() throws IOException {
+        Path file = dir;
+        try (WriteAheadLog wal = open(file, Durability.OS)) {
+            wal.append(WalRecord.put(new Contact(1L, "Dodo", "1")));
+            wal.append(WalRecord.put(new Contact(2L, "Dodo", "2")));
+        }
+        try (FileChannel channel = FileChannel.open(
+                dir.resolve("contacts-0000000001.wal"), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3}));
+        }
+
+        try (WriteAheadLog wal = open(file, Durability.OS)) {
+            assertThat(wal.replay(0, record -> {})).isEqualTo(2);
+            wal.start();
+            wal.append(WalRecord.remove(2L));
+        }
+
+        assertThat(replay(file)).extracting(WalRecord::getId).containsExactly(1L, 2L, 2L);
+    }
+
+    @Test
+    void roll_startsNewSegmentAndOldOnesCanBeDropped() throws IOException {
+        try (WriteAheadLog wal = open(dir, Durability.SYNC)) {
+            wal.append(WalRecord.remove(1L));
+            long segment = wal.roll();
+            wal.append(WalRecord.remove(2L));
+
+            assertThat(segment).isEqualTo(2L);
+            wal.deleteSegmentsBefore(segment);
+        }
+
+        assertThat(replay(dir)).extracting(WalRecord::getId).containsExactly(2L);
+        try (WriteAheadLog wal = new WriteAheadLog(dir, Durability.OS, Duration.ofMillis(5))) {
+            List<WalRecord> records = new ArrayList<>();
+            wal.replay(3, records::add);
+            assertThat(records).isEmpty();
+        }
+    }
+
+    private static WriteAheadLog open(Path file, Durability durability) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(file, durability, Duration.ofMillis(5));
+        wal.start();
+        return wal;
+    }
+
+    private static List<WalRecord> replay(Path file) throws IOException {
+        List<WalRecord> records = new ArrayList<>();
+        try (WriteAheadLog wal = new WriteAheadLog(file, Durability.OS, Duration.ofMillis(5))) {
+            wal.replay(0, records::add);
+        }
+        return records;
+    }
+}
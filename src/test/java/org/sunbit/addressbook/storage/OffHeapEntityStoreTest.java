@@ -0,0 +1,121 @@
+package org.sunbit.addressbook.storage;
+
+import org.junit.jupiter.api.Test;
+import org.sunbit.addressbook.model.Contact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OffHeapEntityStoreTest {
+
+    private static final int SLAB_BYTES = 4096;
+
+    private final OffHeapEntityStore<Contact> store = new OffHeapEntityStore<>(new ContactRecordCodec(), SLAB_BYTES);
+
+    @Test
+    void put_get_roundTripsThroughCodec() {
+        assertThat(store.put(7, new Contact(null, "Zoë Ångström", "+972-54-1234567"))).isNull();
+        store.put(8, new Contact(null, "no phone", null));
+
+        assertThat(store.get(7)).isEqualTo(new Contact(7L, "Zoë Ångström", "+972-54-1234567"));
+        assertThat(store.get(8)).isEqualTo(new Contact(8L, "no phone", null));
+        assertThat(store.get(9)).isNull();
+        assertThat(store.size()).isEqualTo(2);
+    }
+
+    @Test
+    void putAndRemove_returnPreviousAndTrackGarbage() {
+        store.put(1, new Contact(null, "old", "1"));
+
+        assertThat(store.put(1, new Contact(null, "new", "2"))).isEqualTo(new Contact(1L, "old", "1"));
+        assertThat(store.remove(1)).isEqualTo(new Contact(1L, "new", "2"));
+        assertThat(store.remove(1)).isNull();
+        assertThat(store.size()).isZero();
+        assertThat(store.garbageBytes()).isPositive();
+    }
+
+    @Test
+    void replaceAndRemove_onlyWhileTheRecordStillMatches() {
+        store.put(1, new Contact(null, "old", "1", 1L));
+        Contact read = store.get(1);
+
+        assertThat(store.replace(1, read, new Contact(1L, "new", "2", 2L))).isTrue();
+        assertThat(store.replace(1, read, new Contact(1L, "lost", "3", 2L))).isFalse();
+        assertThat(store.remove(1, read)).isFalse();
+        assertThat(store.get(1)).isEqualTo(new Contact(1L, "new", "2", 2L));
+        assertThat(store.remove(1, store.get(1))).isTrue();
+        assertThat(store.size()).isZero();
+        assertThat(store.garbageBytes()).isPositive();
+    }
+
+    @Test
+    void put_recordLargerThanSlab_getsItsOwnSlab() {
+        String longName = "x".repeat(SLAB_BYTES * 2);
+        store.put(1, new Contact(null, longName, "1"));
+        store.put(2, new Contact(null, "small", "2"));
+
+        assertThat(store.get(1).getName()).isEqualTo(longName);
+        assertThat(store.get(2).getName()).isEqualTo("small");
+    }
+
+    @Test
+    void compact_keepsLiveRecordsAndShrinksFootprint() {
+        for (long id = 1; id <= 2_000; id++) {
+            store.put(id, new Contact(null, "contact " + id, "555" + id));
+        }
+        for (long id = 1; id <= 2_000; id++) {
+            if (id % 10 != 0) {
+                store.remove(id);
+            }
+        }
+        long before = store.footprintBytes();
+
+        store.compact();
+
+        assertThat(store.footprintBytes()).isLessThan(before);
+        assertThat(store.garbageBytes()).isZero();
+        List<Long> ids = new ArrayList<>();
+        store.forEach((id, contact) -> {
+            assertThat(contact).isEqualTo(new Contact(id, "contact " + id, "555" + id));
+            ids.add(id);
+        });
+        assertThat(ids).hasSize(200).allMatch(id -> id % 10 == 0);
+    }
+
+    @Test
+    void get_duringCompaction_neverMissesALiveRecord() throws Exception {
+        for (long id = 1; id <= 5_000; id++) {
+            store.put(id, new Contact(null, "contact " + id, "555" + id));
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            futures.add(readers.submit(() -> {
+                while (!done.get()) {
+                    for (long id = 1; id <= 5_000; id++) {
+                        assertThat(store.get(id)).isEqualTo(new Contact(id, "contact " + id, "555" + id));
+                    }
+                }
+            }));
+        }
+        try {
+            for (int round = 0; round < 20; round++) {
+                store.compact();
+            }
+        } finally {
+            done.set(true);
+            readers.shutdown();
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+    }
+}
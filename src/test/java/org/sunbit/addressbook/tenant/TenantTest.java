@@ -0,0 +1,197 @@
+package org.sunbit.addressbook.tenant;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.sunbit.addressbook.ContactService;
+import org.sunbit.addressbook.controller.ContactController;
+import org.sunbit.addressbook.model.Contact;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+                "addressbook.tenants.enabled=true",
+                "addressbook.change-feed.heartbeat=100ms",
+                "management.server.port=0"})
+class TenantTest {
+
+    private static final ParameterizedTypeReference<List<Contact>> CONTACTS =
+            new ParameterizedTypeReference<List<Contact>>() {};
+
+    @LocalServerPort
+    private int port;
+    @Autowired
+    private AddressBooks addressBooks;
+    @Autowired
+    private ContactService contactService;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final TestRestTemplate restTemplate = new TestRestTemplate();
+
+    @DynamicPropertySource
+    static void tenantDirectory(DynamicPropertyRegistry registry) throws IOException {
+        String directory = Files.createTempDirectory("tenants").toString();
+        registry.add("addressbook.tenants.directory", () -> directory);
+    }
+
+    @Test
+    void tenants_seeOnlyTheirOwnContacts() {
+        Contact ada = create("acme", "Tenant Ada");
+        create("globex", "Tenant Adam");
+        contactService.create(Contact.builder().name("Tenant Adele").phoneNumber("1").build());
+
+        assertThat(readByPrefix("acme", "Tenant Ad")).containsExactly(ada);
+        assertThat(readByPrefix("globex", "Tenant Ad")).extracting(Contact::getName).containsExactly("Tenant Adam");
+        assertThat(readByPrefix(null, "Tenant Ad")).extracting(Contact::getName).containsExactly("Tenant Adele");
+        assertThat(restTemplate.exchange(
+                        url("/" + ada.getId()), HttpMethod.GET, new HttpEntity<>(headers("acme")), Contact.class)
+                .getBody()).isEqualTo(ada);
+        assertThat(meterRegistry.get("contact.tenant.entries").tag("tenant", "acme").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get("contact.tenant.memory").tag("tenant", "acme").gauge().value()).isPositive();
+    }
+
+    @Test
+    void idleTenant_isEvictedToDiskAndReopened() {
+        Contact kept = create("initech", "Evicted Eve");
+        Contact removed = create("initech", "Evicted Ed");
+        restTemplate.exchange(
+                url("/" + removed.getId()), HttpMethod.DELETE, new HttpEntity<>(headers("initech")), String.class);
+
+        evict("initech");
+        assertThat(meterRegistry.find("contact.tenant.entries").tag("tenant", "initech").gauge()).isNull();
+
+        assertThat(readByPrefix("initech", "Evicted")).containsExactly(kept);
+        assertThat(addressBooks.active()).contains("initech");
+        assertThat(create("initech", "Evicted Eli").getId()).isGreaterThan(removed.getId());
+    }
+
+    @Test
+    void openChangeStream_keepsTenantFromEvictionUntilItEnds() throws Exception {
+        create("hooli", "Streamed Sam");
+        HttpURLConnection changes = (HttpURLConnection) new URL(url("/changes")).openConnection();
+        changes.setRequestProperty("X-Tenant-Id", "hooli");
+        try {
+            assertThat(changes.getResponseCode()).isEqualTo(HttpStatus.OK.value());
+
+            addressBooks.evictIdle(Duration.ZERO);
+
+            assertThat(addressBooks.active()).contains("hooli");
+            assertThat(create("hooli", "Streamed Sue").getId()).isPositive();
+        } finally {
+            changes.disconnect();
+        }
+        evict("hooli");
+    }
+
+    @Test
+    void tenantsUsedWhileEvicted_keepEveryWrite() throws Exception {
+        int tenants = 8;
+        int writes = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(tenants + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        Future<?> evictor = executor.submit(() -> {
+            while (writing.get()) {
+                addressBooks.evictIdle(Duration.ZERO);
+            }
+        });
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < tenants; t++) {
+            String tenant = "churn-" + t;
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < writes; i++) {
+                    AddressBook book = addressBooks.acquire(tenant);
+                    try {
+                        book.getContactService().create(Contact.builder().name("Churned " + i).phoneNumber("1").build());
+                    } finally {
+                        book.release();
+                    }
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(1, TimeUnit.MINUTES);
+        }
+        writing.set(false);
+        evictor.get(1, TimeUnit.MINUTES);
+        executor.shutdown();
+
+        for (int t = 0; t < tenants; t++) {
+            evict("churn-" + t);
+            assertThat(readByPrefix("churn-" + t, "Churned")).hasSize(writes);
+        }
+    }
+
+    @Test
+    void invalidTenant_badRequest() {
+        ResponseEntity<String> response = restTemplate.exchange(
+                url("?contactPrefix=a"), HttpMethod.GET, new HttpEntity<>(headers("../etc")), String.class);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    /** Evicts idle tenants until {@code tenant} is gone; a response may arrive before its request released the book. */
+    private void evict(String tenant) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (addressBooks.active().contains(tenant) && System.nanoTime() < deadline) {
+            addressBooks.evictIdle(Duration.ZERO);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertThat(addressBooks.active()).doesNotContain(tenant);
+    }
+
+    private Contact create(String tenant, String name) {
+        ResponseEntity<Contact> response = restTemplate.exchange(
+                url(""),
+                HttpMethod.POST,
+                new HttpEntity<>(Contact.builder().name(name).phoneNumber("050-1234567").build(), headers(tenant)),
+                Contact.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        return response.getBody();
+    }
+
+    private List<Contact> readByPrefix(String tenant, String prefix) {
+        return restTemplate.exchange(
+                        url("?contactPrefix=" + prefix), HttpMethod.GET, new HttpEntity<>(headers(tenant)), CONTACTS)
+                .getBody();
+    }
+
+    private HttpHeaders headers(String tenant) {
+        HttpHeaders headers = new HttpHeaders();
+        if (tenant != null) {
+            headers.set("X-Tenant-Id", tenant);
+        }
+        return headers;
+    }
+
+    private String url(String pathAndQuery) {
+        return "http://localhost:" + port + ContactController.PATH + pathAndQuery;
+    }
+}